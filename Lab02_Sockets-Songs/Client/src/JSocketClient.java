@@ -1,6 +1,7 @@
 import java.io.*;
 import java.net.*;
 import java.util.List;
+import java.util.Map;
 
 public class JSocketClient {
 
@@ -44,6 +45,15 @@ public class JSocketClient {
                     }
                 }
                 return true; // fue exitosa
+            } else if (response instanceof Map<?, ?> facets) {
+                // conteos por faceta: { genre: { Pop: 120, ... }, language: {...}, decade: {...} }
+                for (Map.Entry<?, ?> facet : facets.entrySet()) {
+                    System.out.println("[Client]: Por " + facet.getKey() + ":");
+                    for (Map.Entry<?, ?> value : ((Map<?, ?>) facet.getValue()).entrySet()) {
+                        System.out.println(" - " + value.getKey() + ": " + value.getValue());
+                    }
+                }
+                return true;
             }
 
         } catch (IOException | ClassNotFoundException e) {
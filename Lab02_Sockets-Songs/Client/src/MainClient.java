@@ -13,6 +13,13 @@ public class MainClient {
             System.out.println("1. Buscar por título");
             System.out.println("2. Buscar por autor");
             System.out.println("3. Buscar por género");
+            System.out.println("4. Filtrar (ej: genre=Rock|Pop; year=1970-1979; !language=English)");
+            System.out.println("5. Buscar por años (ej: 1970-1979 o 1985)");
+            System.out.println("6. Agregar canción");
+            System.out.println("7. Modificar canción");
+            System.out.println("8. Borrar canción");
+            System.out.println("9. Contar por género, idioma y década (con un filtro opcional)");
+            System.out.println("10. Consulta combinada (ej: genre:rock AND year>=1970 AND NOT author:queen)");
             System.out.println("0. Salir");
             System.out.print("Seleccione una opción: ");
             String option = scanner.nextLine();
@@ -22,6 +29,12 @@ public class MainClient {
                 break;
             }
 
+            // los cambios muestran la respuesta del servidor y vuelven al menú
+            if (option.equals("6") || option.equals("7") || option.equals("8")) {
+                client.request(writeCommand(option, scanner));
+                continue;
+            }
+
             String type = "";
             if (option.equals("1")) {
                 type = "title";
@@ -29,6 +42,14 @@ public class MainClient {
                 type = "author";
             } else if (option.equals("3")) {
                 type = "genre";
+            } else if (option.equals("4")) {
+                type = "filter";
+            } else if (option.equals("5")) {
+                type = "year";
+            } else if (option.equals("9")) {
+                type = "facets";
+            } else if (option.equals("10")) {
+                type = "query";
             } else {
                 System.out.println("Opción inválida.");
                 continue;
@@ -37,6 +58,19 @@ public class MainClient {
             System.out.print("🔍 Ingrese el texto de búsqueda: ");
             String query = scanner.nextLine();
 
+            if (!type.equals("filter") && !type.equals("year") && !type.equals("facets")) {
+                System.out.print("Máximo de resultados (Enter para todos): ");
+                String limit = scanner.nextLine().trim();
+                if (limit.matches("[1-9][0-9]*")) {
+                    type = type + "/" + limit;
+                }
+                System.out.print("Ordenar por title, author o year, con asc o desc (Enter para el orden del catálogo): ");
+                String order = scanner.nextLine().trim();
+                if (!order.isEmpty()) {
+                    type = type + " by " + order;
+                }
+            }
+
             // Enviar consulta y repetir si fue inválida
             repeat = !client.request(type + ":" + query);
 
@@ -44,4 +78,31 @@ public class MainClient {
 
         scanner.close();
     }
+
+    // add:título|autor|género|idioma|año, update:título|autor => ... o delete:título|autor
+    private static String writeCommand(String option, Scanner scanner) {
+        System.out.print("Título" + (option.equals("6") ? "" : " actual") + ": ");
+        String title = scanner.nextLine().trim();
+        System.out.print("Autor" + (option.equals("6") ? "" : " actual") + ": ");
+        String author = scanner.nextLine().trim();
+        if (option.equals("8")) return "delete:" + title + "|" + author;
+        if (option.equals("6")) return "add:" + title + "|" + author + "|" + songFields(scanner);
+
+        System.out.print("Título nuevo (Enter para dejarlo igual): ");
+        String newTitle = scanner.nextLine().trim();
+        System.out.print("Autor nuevo (Enter para dejarlo igual): ");
+        String newAuthor = scanner.nextLine().trim();
+        return "update:" + title + "|" + author + " => " + (newTitle.isEmpty() ? title : newTitle) + "|"
+                + (newAuthor.isEmpty() ? author : newAuthor) + "|" + songFields(scanner);
+    }
+
+    private static String songFields(Scanner scanner) {
+        System.out.print("Género: ");
+        String genre = scanner.nextLine().trim();
+        System.out.print("Idioma: ");
+        String language = scanner.nextLine().trim();
+        System.out.print("Año: ");
+        String year = scanner.nextLine().trim();
+        return genre + "|" + language + "|" + year;
+    }
 }
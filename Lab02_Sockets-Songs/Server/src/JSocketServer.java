@@ -1,67 +1,257 @@
+import songengine.FacetFilter;
+import songengine.SongField;
+import songengine.SongOrder;
+
 import java.io.*;
 import java.net.*;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Servidor de sockets con un hilo virtual por conexión: muchos clientes a la
+ * vez, cada uno con sus propios streams. Un semáforo limita las conexiones
+ * abiertas; cuando se llega al límite el servidor deja de aceptar y los
+ * clientes nuevos esperan en la cola del sistema hasta que se libere un lugar.
+ * {@link #shutdown()} deja de aceptar, deja terminar las respuestas en curso y
+ * cierra el resto.
+ */
 public class JSocketServer {
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    private static final int MAX_EDITS = 2;
+    private static final int BACKLOG = 1024;             // conexiones en espera de accept en el sistema
+    private static final long DRAIN_SECONDS = 10;
 
     private int port;
     private ServerSocket serverSk;
-    private Socket clientSk;
-    private ObjectOutputStream oos;
-    private ObjectInputStream ois;
     private ServerHandler handler;
+    private final Semaphore slots;                        // un permiso por conexión abierta
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean running = true;
+    private volatile Thread acceptor;
 
     public JSocketServer(int port) {
+        this(port, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    public JSocketServer(int port, int maxConnections) {
+        if (maxConnections < 1) throw new IllegalArgumentException("Máximo de conexiones inválido: " + maxConnections);
+        this.slots = new Semaphore(maxConnections);
         try {
             this.port = port;
-            this.serverSk = new ServerSocket(port, 100);
+            this.serverSk = new ServerSocket(port, BACKLOG);
             this.handler = new ServerHandler();
-            System.out.println("\n[Server]: Escuchando en el puerto " + port);
+            handler.watchCatalog();
+            System.out.println("\n[Server]: Escuchando en el puerto " + port + " (hasta " + maxConnections + " conexiones).");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /** Acepta conexiones hasta {@link #shutdown()}; cada una se atiende en su propio hilo virtual. */
     public void listening() {
+        if (serverSk == null) return;
+        acceptor = Thread.currentThread();
+        System.out.println("\n[Server]: Esperando conexiones...");
+        while (running) {
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                break;
+            }
+            Socket client;
+            try {
+                client = serverSk.accept();
+            } catch (IOException e) {
+                slots.release();
+                if (!running) break;
+                System.out.println("[Server]: Error al aceptar conexión: " + e.getMessage());
+                continue;
+            }
+            clients.add(client);
+            try {
+                connections.execute(() -> serve(client));
+            } catch (RejectedExecutionException e) {
+                // llegó justo durante el cierre
+                clients.remove(client);
+                close(client);
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * Cierre ordenado: deja de aceptar, corta la lectura de cada conexión (las
+     * que esperan una consulta terminan; las que están respondiendo mandan su
+     * respuesta) y espera hasta {@value #DRAIN_SECONDS} segundos antes de
+     * cerrar las que queden.
+     */
+    public void shutdown() {
+        if (!running) return;
+        running = false;
+        System.out.println("[Server]: Cerrando; se terminan " + clients.size() + " conexiones abiertas...");
         try {
-            System.out.println("\n[Server]: Esperando conexiones...");
-            this.clientSk = this.serverSk.accept();
-            this.oos = new ObjectOutputStream(this.clientSk.getOutputStream());
-            this.oos.flush();
-            this.ois = new ObjectInputStream(this.clientSk.getInputStream());
-            System.out.println("\n[Server]: Cliente conectado.");
+            if (serverSk != null) serverSk.close();
+        } catch (IOException e) {
+            System.out.println("[Server]: No se pudo cerrar el puerto " + port + ".");
+        }
+        Thread waiting = acceptor;
+        if (waiting != null) waiting.interrupt();
+        for (Socket client : clients) shutdownInput(client);
+        connections.shutdown();
+        try {
+            if (!connections.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("[Server]: Se cierran " + clients.size() + " conexiones que no terminaron a tiempo.");
+                for (Socket client : clients) close(client);
+                connections.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (handler != null) handler.close();
+        System.out.println("[Server]: Servidor detenido.");
+    }
+
+    /** Conexiones abiertas en este momento. */
+    public int activeConnections() {
+        return clients.size();
+    }
+
+    // Una conexión: sus streams viven solo en este hilo. Termina cuando el cliente cierra
+    private void serve(Socket client) {
+        String peer = String.valueOf(client.getRemoteSocketAddress());
+        // cada respuesta sale en un solo envío, sin esperar el ACK retrasado del cliente (Nagle)
+        try (client; ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(client.getOutputStream()))) {
+            client.setTcpNoDelay(true);
+            oos.flush();
+            ObjectInputStream ois = new ObjectInputStream(client.getInputStream());
+            System.out.println("[Server]: Cliente conectado (" + peer + ").");
 
             while (true) {
+                Object received;
                 try {
-                    String input = (String) this.ois.readObject();
-                    if (input == null) {
-                        System.out.println("[Server]: Se recibió null. Cerrando conexión...");
-                        break;
-                    }
+                    received = ois.readObject();
+                } catch (EOFException e) {
+                    break;   // el cliente cerró la conexión (o el servidor se está cerrando)
+                } catch (ClassNotFoundException e) {
+                    received = "";
+                }
+                if (received == null) {
+                    System.out.println("[Server]: Se recibió null. Cerrando conexión con " + peer + "...");
+                    break;
+                }
 
-                    System.out.println("[Server]: Consulta recibida -> " + input);
+                String input = received.toString();
+                System.out.println("[Server]: Consulta recibida -> " + input);
+                oos.writeObject(respond(input));
+                oos.reset();   // no retener en el stream las respuestas ya enviadas
+                oos.flush();
+            }
+        } catch (IOException e) {
+            if (running) System.out.println("[Server]: Conexión con " + peer + " interrumpida: " + e.getMessage());
+        } finally {
+            clients.remove(client);
+            slots.release();
+        }
+    }
 
-                    List<Song> results = handleQuery(input);
+    // Cambios, conteos o búsquedas; devuelve lo que se le manda al cliente
+    private Object respond(String input) {
+        try {
+            String written = handleWrite(input);
+            if (written != null) return written;
 
-                    if (results == null) {
-                        // opción inválida
-                        this.oos.writeObject("❌ Opción de búsqueda inválida. Usa title:, author: o genre:");
-                    } else if (results.isEmpty()) {
-                        this.oos.writeObject("🔍 No se encontraron resultados.");
-                    } else {
-                        this.oos.writeObject(results); // enviar lista válida
-                    }
+            Object counts = handleFacets(input);
+            if (counts != null) return counts;
 
-                    this.oos.flush();
+            List<Song> results = handleQuery(input);
+            if (results == null) {
+                // opción inválida
+                return "❌ Opción de búsqueda inválida. Usa title:, author:, genre:, year:, filter:, query:, facets:, sounds-like:, add:, update: o delete:";
+            }
+            return results.isEmpty() ? "🔍 No se encontraron resultados." : results;
+        } catch (IllegalArgumentException e) {
+            // una consulta combinada mal escrita: se explica qué falló
+            return "❌ Consulta inválida: " + e.getMessage();
+        } catch (RuntimeException e) {
+            System.out.println("[Server]: Error al resolver \"" + input + "\": " + e);
+            return "❌ Error interno del servidor.";
+        }
+    }
 
-                } catch (ClassNotFoundException | IOException e) {
-                    System.out.println("[Server]: Error al recibir datos. Esperando una nueva consulta...");
+    /**
+     * Cambios al catálogo, con los campos separados por '|':
+     * add:título|autor|género|idioma|año
+     * update:título|autor => título|autor|género|idioma|año
+     * delete:título|autor
+     * Devuelve el mensaje para el cliente, o null si no es un cambio.
+     */
+    private String handleWrite(String input) {
+        String[] parts = input.split(":", 2);
+        String type = parts[0].toLowerCase().trim();
+        if (parts.length < 2 || !(type.equals("add") || type.equals("update") || type.equals("delete"))) return null;
+        try {
+            switch (type) {
+                case "add" -> {
+                    String[] song = fields(parts[1], 5);
+                    if (song == null) return "❌ Formato: add:título|autor|género|idioma|año";
+                    handler.addSong(song[0], song[1], song[2], song[3], Integer.parseInt(song[4]));
+                    return "✅ Canción agregada: " + song[0] + " de " + song[1];
+                }
+                case "update" -> {
+                    String[] sides = parts[1].split("=>", 2);
+                    String[] key = fields(sides[0], 2);
+                    String[] song = sides.length == 2 ? fields(sides[1], 5) : null;
+                    if (key == null || song == null) return "❌ Formato: update:título|autor => título|autor|género|idioma|año";
+                    return handler.updateSong(key[0], key[1], song[0], song[1], song[2], song[3], Integer.parseInt(song[4]))
+                            ? "✅ Canción actualizada: " + song[0] + " de " + song[1]
+                            : "❌ No existe " + key[0] + " de " + key[1];
+                }
+                default -> {
+                    String[] key = fields(parts[1], 2);
+                    if (key == null) return "❌ Formato: delete:título|autor";
+                    return handler.deleteSong(key[0], key[1])
+                            ? "✅ Canción borrada: " + key[0] + " de " + key[1]
+                            : "❌ No existe " + key[0] + " de " + key[1];
                 }
             }
-        } catch (IOException e) {
-            System.out.println("[Server]: Error al aceptar conexión.");
-        } finally {
-            closeService();
+        } catch (NumberFormatException e) {
+            return "❌ El año debe ser un número.";
+        } catch (IllegalArgumentException e) {
+            return "❌ " + e.getMessage();
+        } catch (UncheckedIOException e) {
+            System.out.println("[Server]: No se pudo guardar el cambio: " + e.getCause());
+            return "❌ No se pudo guardar el cambio en el servidor.";
+        }
+    }
+
+    // Exactamente "count" campos separados por '|', sin espacios alrededor; null si no coinciden
+    private String[] fields(String text, int count) {
+        String[] values = text.split("\\|", -1);
+        if (values.length != count) return null;
+        for (int i = 0; i < count; i++) values[i] = values[i].trim();
+        return values;
+    }
+
+    /**
+     * Conteos por género, idioma y década para un filtro, sin mandar canciones:
+     * "facets:" cuenta todo el catálogo y "facets:genre=Rock; year=1970-1979"
+     * solo lo que pasa el filtro. Devuelve el mapa de conteos, un mensaje de
+     * error, o null si no es esta consulta.
+     */
+    private Object handleFacets(String input) {
+        String[] parts = input.split(":", 2);
+        if (parts.length < 2 || !parts[0].trim().equalsIgnoreCase("facets")) return null;
+        try {
+            return handler.facetCounts(FacetFilter.parse(parts[1]));
+        } catch (IllegalArgumentException e) {
+            return "❌ Filtro inválido: " + e.getMessage();
         }
     }
 
@@ -69,26 +259,116 @@ public class JSocketServer {
         if (input == null || !input.contains(":")) return null;
 
         String[] parts = input.split(":", 2);
-        String type = parts[0].toLowerCase();
+        String type = parts[0].toLowerCase().trim();
         String query = parts[1].trim();
 
+        // "title by year desc:love" ordena las coincidencias; "title/20 by author:love" deja las 20 primeras en ese orden
+        SongOrder order = null;
+        int by = type.indexOf(" by ");
+        if (by >= 0) {
+            try {
+                order = SongOrder.parse(type.substring(by + 4));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            type = type.substring(0, by).trim();
+        }
+
+        // "sounds-like:Selia Crus" busca autores por cómo suenan; "sounds-like/title:" busca títulos
+        if (type.startsWith("sounds-like")) {
+            return switch (type) {
+                case "sounds-like", "sounds-like/author" -> handler.searchPhonetic(SongField.AUTHOR, query);
+                case "sounds-like/title" -> handler.searchPhonetic(SongField.TITLE, query);
+                default -> null;
+            };
+        }
+
+        // "title/20:love" pide solo las 20 coincidencias más relevantes
+        int slash = type.indexOf('/');
+        if (slash >= 0) {
+            int limit;
+            try {
+                limit = Integer.parseInt(type.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            String name = type.substring(0, slash).trim();
+            if (limit >= 1 && name.equals("query")) return handler.query(query, order, limit);
+            SongField field = field(name);
+            if (limit < 1 || field == null) return null;
+            return order == null ? handler.searchTop(field, query, limit) : handler.search(field, query, order, limit);
+        }
+        // "query:genre:rock AND year>=1970 AND NOT author:queen" se lee una vez y su plan queda en caché
+        if (type.equals("query")) return handler.query(query, order, Integer.MAX_VALUE);
+        if (order != null) {
+            SongField field = field(type);
+            return field == null ? null : handler.search(field, query, order, Integer.MAX_VALUE);
+        }
+
         return switch (type) {
+            // "author~:Shakria" busca con hasta dos errores de tipeo por palabra
+            case "title~" -> handler.searchFuzzy(SongField.TITLE, query, MAX_EDITS);
+            case "author~" -> handler.searchFuzzy(SongField.AUTHOR, query, MAX_EDITS);
             case "title" -> handler.searchByTitle(query);
             case "author" -> handler.searchByAuthor(query);
             case "genre" -> handler.searchByGenre(query);
+            // "year:1970-1979" (o un solo año) devuelve el rango en orden cronológico
+            case "year" -> {
+                int[] range = parseYears(query);
+                yield range == null ? null : handler.searchByYearRange(range[0], range[1]);
+            }
+            case "filter" -> {
+                FacetFilter filter = parseFilter(query);
+                yield filter == null ? null : handler.searchByFilter(filter);
+            }
+            default -> null;
+        };
+    }
+
+    // Campos que se pueden limitar u ordenar
+    private SongField field(String type) {
+        return switch (type) {
+            case "title" -> SongField.TITLE;
+            case "author" -> SongField.AUTHOR;
+            case "genre" -> SongField.GENRE;
             default -> null;
         };
     }
 
-    private void closeService() {
+    // "1970-1979" o "1975"; null si no son años o el rango está invertido
+    private int[] parseYears(String query) {
         try {
-            if (ois != null) ois.close();
-            if (oos != null) oos.close();
-            if (clientSk != null) clientSk.close();
-            if (serverSk != null) serverSk.close();
-            System.out.println("[Server]: Conexión terminada.");
+            String[] range = query.split("-", 2);
+            int from = Integer.parseInt(range[0].trim());
+            int to = range.length == 2 ? Integer.parseInt(range[1].trim()) : from;
+            return from <= to ? new int[]{from, to} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Filtro de facetas, ej: genre=Rock|Pop; year=1970-1979; !language=English (ver FacetFilter.parse)
+    private FacetFilter parseFilter(String query) {
+        try {
+            return FacetFilter.parse(query);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void shutdownInput(Socket client) {
+        try {
+            client.shutdownInput();
+        } catch (IOException e) {
+            // ya estaba cerrada
+        }
+    }
+
+    private static void close(Socket client) {
+        try {
+            client.close();
         } catch (IOException e) {
-            System.out.println("[Server]: No se pudo cerrar la conexión.");
+            // ya estaba cerrada
         }
     }
 }
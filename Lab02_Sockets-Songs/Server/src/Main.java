@@ -1,9 +1,13 @@
 
-
 public class Main {
 	
+	// Argumentos opcionales: puerto y máximo de conexiones a la vez (ej: java Main 1802 10000)
 	public static void main(String[] args) {
-		JSocketServer server =  new JSocketServer(1802);
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 1802;
+		int maxConnections = args.length > 1 ? Integer.parseInt(args[1]) : JSocketServer.DEFAULT_MAX_CONNECTIONS;
+		JSocketServer server = new JSocketServer(port, maxConnections);
+		// Ctrl+C o kill: se terminan las respuestas en curso antes de salir
+		Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown));
 		server.listening();
 	}
 
@@ -1,78 +1,192 @@
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import songengine.*;
 
 import java.io.File;
-import java.io.FileReader;
-import java.lang.reflect.Type;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class ServerHandler {
-    private List<Song> songDB;
+    private static final File JSON_FILE = new File("./lib/Songs.json");
+    private static final File SNAPSHOT_FILE = new File("./lib/Songs.songdb");
+    private static final File LOG_FILE = new File("./lib/Songs.wal");   // altas, cambios y bajas sobre el catálogo base
+
+    // Las búsquedas y la publicación atómica de cada recarga viven en el motor compartido
+    private final SongRepository<Song> repository;
+    private CatalogWatcher watcher;
 
     public ServerHandler() {
-        songDB = new ArrayList<>();
+        SongCatalog initial;
+        try {
+            initial = loadCatalog();
+        } catch (Exception e) {
+            System.out.println("[ServerHandler]: Error al cargar el catálogo:");
+            e.printStackTrace();
+            initial = SongCatalog.empty();
+        }
+        repository = openRepository(initial);
+    }
 
+    /**
+     * Empieza a vigilar ./lib y recarga el catálogo cuando cambia. Va aparte del
+     * constructor para que el watcher no llame a {@link #reload()} antes de
+     * que el handler esté armado.
+     */
+    public void watchCatalog() {
+        if (watcher != null) return;
         try {
-            File file = new File("./lib/Songs.json");
-            if (!file.exists()) {
-                System.out.println("[ServerHandler]: El archivo songs.json no fue encontrado.");
-                return;
-            }
-
-            Gson gson = new Gson();
-            FileReader reader = new FileReader(file, StandardCharsets.UTF_8);
-
-            Type songListType = new TypeToken<ArrayList<Song>>() {}.getType();
-            songDB = gson.fromJson(reader, songListType);
-            reader.close();
-
-            if (songDB == null) {
-                songDB = new ArrayList<>();
-                System.out.println("[ServerHandler]: songs.json está vacío o mal formado.");
-            } else {
-                System.out.println("[ServerHandler]: Se cargaron " + songDB.size() + " canciones.");
-            }
+            watcher = new CatalogWatcher(Path.of("./lib"), Set.of(JSON_FILE.getName(), SNAPSHOT_FILE.getName()),
+                    this::reload);
+        } catch (IOException e) {
+            System.out.println("[ServerHandler]: No se pudo vigilar ./lib, la recarga en caliente queda desactivada.");
+        }
+    }
+
+    // Los cambios se reaplican desde el registro; sin él se aceptan igual, pero se pierden al reiniciar
+    private SongRepository<Song> openRepository(SongCatalog initial) {
+        try {
+            return new SongRepository<>(initial, Song::new, WriteAheadLog.open(LOG_FILE.toPath()));
+        } catch (IOException e) {
+            System.out.println("[ServerHandler]: No se pudo abrir " + LOG_FILE + ", los cambios no serán durables: " + e);
+            return new SongRepository<>(initial, Song::new);
+        }
+    }
 
+    // Prefiere la foto binaria mapeada si está al día; si no, carga el JSON.
+    // En los dos casos columnas e índices quedan fuera del heap: en el heap solo se arman los resultados
+    private SongCatalog loadCatalog() throws IOException {
+        long start = System.nanoTime();
+        if (SNAPSHOT_FILE.exists() && (!JSON_FILE.exists() || SNAPSHOT_FILE.lastModified() >= JSON_FILE.lastModified())) {
+            SongCatalog mapped = SongDb.open(SNAPSHOT_FILE.toPath()).offHeap();
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("[ServerHandler]: Se mapearon " + mapped.table().size() + " canciones desde "
+                    + SNAPSHOT_FILE.getName() + " en " + elapsedMs + " ms.");
+            return mapped;
+        }
+
+        if (!JSON_FILE.exists()) {
+            System.out.println("[ServerHandler]: El archivo songs.json no fue encontrado.");
+            return SongCatalog.empty();
+        }
+
+        SongTable table = new SongsJsonLoader().load(JSON_FILE.toPath());
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("[ServerHandler]: Se cargaron " + table.size() + " canciones en " + elapsedMs + " ms (~"
+                + table.estimatedBytes() / 1024 + " KB en columnas).");
+        System.out.println("[ServerHandler]: Diccionarios: " + table.distinctValues(SongField.AUTHOR) + " autores, "
+                + table.distinctValues(SongField.GENRE) + " géneros y " + table.distinctValues(SongField.LANGUAGE)
+                + " idiomas distintos; ~" + table.dictionarySavedBytes() / 1024
+                + " KB de heap ahorrados frente a un String por canción.");
+
+        start = System.nanoTime();
+        SongCatalog built = SongCatalog.buildOffHeap(table);
+        elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("[ServerHandler]: Índices de trigramas construidos en " + elapsedMs + " ms ("
+                + built.termCount() + " trigramas). Use SongDbCompiler para arrancar más rápido.");
+        System.out.println("[ServerHandler]: Columnas e índices fuera del heap: ~" + built.offHeapBytes() / 1024
+                + " KB de memoria directa.");
+        return built;
+    }
+
+    /**
+     * Arma el catálogo nuevo (en el hilo del watcher) y lo publica de forma atómica.
+     * Las consultas en curso terminan con la foto anterior; si la carga falla,
+     * se sigue sirviendo la que ya estaba.
+     */
+    public void reload() {
+        try {
+            SongCatalog fresh = loadCatalog();
+            CatalogVersion previous = repository.replace(fresh);
+            System.out.println("[ServerHandler]: Catálogo recargado (" + previous.size() + " -> "
+                    + repository.size() + " canciones).");
         } catch (Exception e) {
-            System.out.println("[ServerHandler]: Error al cargar songs.json:");
-            e.printStackTrace();
-            songDB = new ArrayList<>();
+            System.out.println("[ServerHandler]: No se pudo recargar el catálogo, se mantiene el anterior: " + e);
         }
     }
 
+    public void close() {
+        if (watcher == null) return;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            System.out.println("[ServerHandler]: Error al detener el watcher del catálogo.");
+        }
+    }
+
+    // Cambios: quedan en el registro antes de responder y las consultas los ven enseguida
+    public void addSong(String title, String author, String genre, String language, int year) {
+        repository.add(title, author, genre, language, year);
+    }
+
+    public boolean updateSong(String title, String author, String newTitle, String newAuthor, String genre,
+                              String language, int year) {
+        return repository.update(title, author, newTitle, newAuthor, genre, language, year);
+    }
+
+    public boolean deleteSong(String title, String author) {
+        return repository.delete(title, author);
+    }
+
     public List<Song> getAllSongs() {
-        return songDB;
+        return repository.getAllSongs();
     }
 
     public List<Song> searchByTitle(String title) {
-        return songDB.stream()
-                .filter(song -> song.getTitle().toLowerCase().contains(title.toLowerCase()))
-                .collect(Collectors.toList());
+        return repository.searchByTitle(title);
     }
 
     public List<Song> searchByAuthor(String author) {
-        return songDB.stream()
-                .filter(song -> song.getAuthor().toLowerCase().contains(author.toLowerCase()))
-                .collect(Collectors.toList());
+        return repository.searchByAuthor(author);
     }
 
     public List<Song> searchByGenre(String genre) {
-        return songDB.stream()
-                .filter(song -> song.getGenre().toLowerCase().contains(genre.toLowerCase()))
-                .collect(Collectors.toList());
+        return repository.searchByGenre(genre);
     }
 
     public List<Song> searchByLanguage(String language) {
-        return songDB.stream()
-                .filter(song -> song.getLanguage().toLowerCase().contains(language.toLowerCase()))
-                .collect(Collectors.toList());
+        return repository.searchByLanguage(language);
+    }
+
+    // Solo las "limit" coincidencias más relevantes (exacta > prefijo > palabra > subcadena)
+    public List<Song> searchTop(SongField field, String query, int limit) {
+        return repository.searchTop(field, query, limit);
+    }
+
+    // Las primeras "limit" coincidencias en el orden pedido (título, autor o año); sin límite, Integer.MAX_VALUE
+    public List<Song> search(SongField field, String query, SongOrder order, int limit) {
+        return repository.searchPage(field, query, 0, limit, order).items();
+    }
+
+    // Consulta combinada (ej: genre:rock AND year>=1970 AND NOT author:queen); order null deja el orden de catálogo
+    public List<Song> query(String expression, SongOrder order, int limit) {
+        return repository.queryPage(expression, 0, limit, order).items();
+    }
+
+    // Tolera errores de tipeo: hasta maxEdits letras cambiadas, agregadas o quitadas por palabra
+    public List<Song> searchFuzzy(SongField field, String query, int maxEdits) {
+        return repository.searchFuzzy(field, query, maxEdits);
+    }
+
+    // Busca por cómo suena: "Selia Crus" encuentra a Celia Cruz (códigos Metaphone calculados al cargar)
+    public List<Song> searchPhonetic(SongField field, String query) {
+        return repository.searchPhonetic(field, query);
     }
 
     public List<Song> searchByYear(int year) {
-        return songDB.stream()
-                .filter(song -> song.getYear() == year)
-                .collect(Collectors.toList());
+        return repository.searchByYear(year);
+    }
+
+    // Rango de años inclusivo, en orden cronológico, resuelto con el índice ordenado por año
+    public List<Song> searchByYearRange(int from, int to) {
+        return repository.searchByYearRange(from, to);
+    }
+
+    // Filtros exactos por género, idioma, autor y año, resueltos con bitmaps
+    public List<Song> searchByFilter(FacetFilter filter) {
+        return repository.searchByFilter(filter);
+    }
+
+    // Cuántas canciones del filtro hay por género, idioma y década; no arma ninguna canción
+    public Map<String, Map<String, Integer>> facetCounts(FacetFilter filter) {
+        return repository.facetCounts(filter);
     }
 }
@@ -0,0 +1,32 @@
+import songengine.SongCatalog;
+import songengine.SongDb;
+import songengine.SongTable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compila lib/Songs.json a una foto binaria lib/Songs.songdb que el servidor
+ * abre mapeada en memoria al arrancar.
+ * Uso: java SongDbCompiler [entrada.json] [salida.songdb]
+ */
+public class SongDbCompiler {
+
+    public static void main(String[] args) {
+        Path input = Path.of(args.length > 0 ? args[0] : "./lib/Songs.json");
+        Path output = Path.of(args.length > 1 ? args[1] : "./lib/Songs.songdb");
+        try {
+            long start = System.nanoTime();
+            SongTable table = new SongsJsonLoader().load(input);
+            SongCatalog catalog = SongCatalog.build(table);
+            SongDb.write(catalog, output);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("[SongDbCompiler]: " + table.size() + " canciones escritas en " + output
+                    + " (" + Files.size(output) / 1024 + " KB) en " + elapsedMs + " ms.");
+        } catch (Exception e) {
+            System.out.println("[SongDbCompiler]: No se pudo compilar " + input + ":");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
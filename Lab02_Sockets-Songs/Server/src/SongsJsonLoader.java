@@ -0,0 +1,267 @@
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import songengine.SongTable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Carga Songs.json en streaming y en paralelo.
+ * El archivo se mapea en memoria, se parte en trozos que empiezan justo en una
+ * canción y cada trozo se lee con un JsonReader en un ForkJoinPool, escribiendo
+ * directo en un SongTable.Builder en columnas. Nunca se arma el árbol completo
+ * de objetos, así la memoria pico queda cerca del tamaño final del catálogo.
+ */
+public class SongsJsonLoader {
+    private static final long CHUNK_BYTES = 32L << 20;   // 32 MB por trozo
+    private static final int MAX_MAPPING = 1 << 30;     // ventana máxima de un MappedByteBuffer
+
+    private final ForkJoinPool pool;
+
+    public SongsJsonLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public SongsJsonLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public SongTable load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] bounds = findChunkBounds(channel, size);
+            if (bounds == null) {
+                throw new IOException("Se esperaba un arreglo JSON de canciones");
+            }
+
+            List<ForkJoinTask<SongTable.Builder>> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i += 2) {
+                long from = bounds[i];
+                long to = bounds[i + 1];
+                tasks.add(pool.submit(() -> parseChunk(channel, from, to)));
+            }
+
+            List<SongTable.Builder> chunks = new ArrayList<>(tasks.size());
+            for (ForkJoinTask<SongTable.Builder> task : tasks) chunks.add(task.join());
+            if (chunks.size() == 1) return chunks.get(0).build();
+
+            // se reserva el tamaño exacto y se unen en el orden del archivo para
+            // conservar los ordinales; cada trozo se suelta apenas se copia
+            int rows = 0;
+            int titleBytes = 0;
+            for (SongTable.Builder chunk : chunks) {
+                rows = Math.addExact(rows, chunk.size());
+                titleBytes = Math.addExact(titleBytes, chunk.titleLength());
+            }
+            SongTable.Builder result = new SongTable.Builder();
+            result.ensureCapacity(rows, titleBytes);
+            for (int i = 0; i < chunks.size(); i++) {
+                result.append(chunks.get(i));
+                chunks.set(i, null);
+            }
+            return result.build();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Devuelve pares [inicio, fin) de cada trozo: el inicio es la llave de apertura
+     * de una canción y el fin la coma (o el corchete final) que sigue a la última.
+     * El estado "dentro de un string" en cada corte se calcula con la paridad de
+     * comillas de los trozos anteriores, que se cuentan en paralelo.
+     */
+    private long[] findChunkBounds(FileChannel channel, long size) throws IOException {
+        int parts = (int) Math.max(1, (size + CHUNK_BYTES - 1) / CHUNK_BYTES);
+        long[] cuts = new long[parts + 1];
+        for (int i = 1; i < parts; i++) cuts[i] = backslashSafe(channel, i * CHUNK_BYTES);
+        cuts[parts] = size;
+
+        List<ForkJoinTask<Boolean>> parities = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            long from = cuts[i];
+            long to = cuts[i + 1];
+            parities.add(pool.submit(() -> oddQuotes(channel, from, to)));
+        }
+        boolean[] inString = new boolean[parts];
+        for (int i = 1; i < parts; i++) {
+            inString[i] = inString[i - 1] ^ parities.get(i - 1).join();
+        }
+
+        long end = lastNonWhitespace(channel, size);
+        if (end < 0 || readByte(channel, end) != ']') return null;
+
+        List<Long> starts = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            long start = firstSongStart(channel, cuts[i], end, inString[i]);
+            if (start >= 0 && (starts.isEmpty() || starts.get(starts.size() - 1).longValue() != start)) starts.add(start);
+        }
+        if (starts.isEmpty()) {
+            // arreglo vacío: se valida que de verdad sea "[ ]"
+            long first = firstNonWhitespace(channel, 0, size);
+            if (first < 0 || readByte(channel, first) != '[') return null;
+            return new long[0];
+        }
+
+        long[] bounds = new long[starts.size() * 2];
+        for (int i = 0; i < starts.size(); i++) {
+            bounds[2 * i] = starts.get(i);
+            bounds[2 * i + 1] = i + 1 < starts.size() ? lastNonWhitespace(channel, starts.get(i + 1)) : end;
+        }
+        return bounds;
+    }
+
+    // Corre el corte para que no caiga justo después de una barra invertida
+    private static long backslashSafe(FileChannel channel, long cut) throws IOException {
+        while (cut < channel.size() && readByte(channel, cut - 1) == '\\') cut++;
+        return cut;
+    }
+
+    private static boolean oddQuotes(FileChannel channel, long from, long to) {
+        boolean odd = false;
+        boolean escaped = false;
+        for (long pos = from; pos < to; pos += MAX_MAPPING) {
+            ByteBuffer buffer = map(channel, pos, Math.min(MAX_MAPPING, to - pos));
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    odd = !odd;
+                }
+            }
+        }
+        return odd;
+    }
+
+    /**
+     * Primera llave de apertura fuera de un string, precedida por "," o "[",
+     * a partir de "from". Las canciones son objetos planos, así que esa llave
+     * siempre abre una canción. Devuelve -1 si no hay ninguna antes de "end".
+     */
+    private static long firstSongStart(FileChannel channel, long from, long end, boolean inString) {
+        boolean escaped = false;
+        byte previous = 0;
+        for (long pos = from; pos < end; pos += MAX_MAPPING) {
+            ByteBuffer buffer = map(channel, pos, Math.min(MAX_MAPPING, end - pos));
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (inString) {
+                    if (escaped) escaped = false;
+                    else if (b == '\\') escaped = true;
+                    else if (b == '"') inString = false;
+                } else if (b == '"') {
+                    inString = true;
+                    previous = b;
+                } else if (b == '{' && (previous == ',' || previous == '[')) {
+                    return pos + buffer.position() - 1;
+                } else if (!isWhitespace(b)) {
+                    previous = b;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static SongTable.Builder parseChunk(FileChannel channel, long from, long to) {
+        SongTable.Builder builder = new SongTable.Builder();
+        InputStream body = new ByteBufferInputStream(map(channel, from, to - from));
+        InputStream array = new SequenceInputStream(new ByteArrayInputStream(new byte[]{'['}),
+                new SequenceInputStream(body, new ByteArrayInputStream(new byte[]{']'})));
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(array, StandardCharsets.UTF_8))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String title = null, author = null, genre = null, language = null;
+                int year = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        continue;
+                    }
+                    switch (name) {
+                        case "title" -> title = reader.nextString();
+                        case "author" -> author = reader.nextString();
+                        case "genre" -> genre = reader.nextString();
+                        case "language" -> language = reader.nextString();
+                        case "year" -> year = reader.nextInt();
+                        default -> reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                builder.add(title, author, genre, language, year);
+            }
+            reader.endArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error en el trozo [" + from + ", " + to + ")", e);
+        }
+        return builder;
+    }
+
+    private static long firstNonWhitespace(FileChannel channel, long from, long to) throws IOException {
+        for (long pos = from; pos < to; pos++) {
+            if (!isWhitespace(readByte(channel, pos))) return pos;
+        }
+        return -1;
+    }
+
+    // Última posición antes de "to" que no es espacio en blanco
+    private static long lastNonWhitespace(FileChannel channel, long to) throws IOException {
+        for (long pos = to - 1; pos >= 0; pos--) {
+            if (!isWhitespace(readByte(channel, pos))) return pos;
+        }
+        return -1;
+    }
+
+    private static byte readByte(FileChannel channel, long pos) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        channel.read(one, pos);
+        return one.get(0);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long from, long length) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int off, int len) {
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(target, off, n);
+            return n;
+        }
+    }
+}
@@ -2,6 +2,7 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 
 public interface InterfaceSong extends Remote {
     List<Song> searchByTitle(String title) throws RemoteException;
@@ -9,4 +10,47 @@ public interface InterfaceSong extends Remote {
     List<Song> searchByAuthor(String author) throws RemoteException;
     List<Song> getAllSongs() throws RemoteException;
 
+    // Ranked variants: only the best "limit" matches (exact > prefix > word start > substring)
+    List<Song> searchByTitle(String title, int limit) throws RemoteException;
+    List<Song> searchByGenre(String genre, int limit) throws RemoteException;
+    List<Song> searchByAuthor(String author, int limit) throws RemoteException;
+
+    // Paged variants: at most "limit" songs starting at "offset", plus the total match count
+    SongPage getAllSongs(int offset, int limit) throws RemoteException;
+    SongPage searchByTitle(String title, int offset, int limit) throws RemoteException;
+    SongPage searchByGenre(String genre, int offset, int limit) throws RemoteException;
+    SongPage searchByAuthor(String author, int offset, int limit) throws RemoteException;
+    int countSongs() throws RemoteException;
+
+    // Sorted pages: orderBy is "title", "author" or "year", optionally followed by "asc" or "desc"
+    // ("year desc"); null or "" keeps catalog order. Titles and artists follow Spanish collation,
+    // so "Cómo" sorts next to "Como". Only the first offset + limit matches are sorted.
+    SongPage getAllSongs(int offset, int limit, String orderBy) throws RemoteException;
+    SongPage searchByTitle(String title, int offset, int limit, String orderBy) throws RemoteException;
+    SongPage searchByGenre(String genre, int offset, int limit, String orderBy) throws RemoteException;
+    SongPage searchByAuthor(String author, int offset, int limit, String orderBy) throws RemoteException;
+
+    // Type-ahead: up to "limit" titles or artists starting with the prefix, most common first
+    List<String> suggestTitles(String prefix, int limit) throws RemoteException;
+    List<String> suggestAuthors(String prefix, int limit) throws RemoteException;
+
+    // Typo-tolerant search: each word may differ by up to maxEdits (1 or 2) letters
+    List<Song> searchByTitleFuzzy(String title, int maxEdits) throws RemoteException;
+    List<Song> searchByAuthorFuzzy(String author, int maxEdits) throws RemoteException;
+
+    // Songs released between two years (inclusive), in chronological order
+    List<Song> searchByYearRange(int from, int to) throws RemoteException;
+    SongPage searchByYearRange(int from, int to, int offset, int limit) throws RemoteException;
+
+    // Catalog changes; a song is identified by its title and artist (ignoring case and accents).
+    // They are already on disk when the call returns.
+    void addSong(Song song) throws RemoteException;
+    boolean updateSong(String title, String author, Song song) throws RemoteException;
+    boolean deleteSong(String title, String author) throws RemoteException;
+
+    // Song counts per genre, language and decade for a filter such as
+    // "genre=Rock|Pop; year=1970-1979; !language=English" ("" counts every song).
+    // Computed from the catalog's bitmaps; no songs are sent.
+    Map<String, Map<String, Integer>> facetCounts(String filter) throws RemoteException;
+
 }
\ No newline at end of file
@@ -1,21 +1,27 @@
-
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.util.Arrays;
 
 public class MainClient {
-    
+    private static final String DEFAULT_ENDPOINT = "127.0.0.1:1090";
+    private static final String RESPONSE_TIMEOUT_MS = "5000";
+
+    // Uso: MainClient [host:puerto,host:puerto,...] con las réplicas de MusicServer
     public static void main(String[] args) {
         try {
-            // Conectar al registro RMI
-            Registry registry = LocateRegistry.getRegistry("127.0.0.1", 1090);
-            InterfaceSong songService = (InterfaceSong) registry.lookup("MusicCatalog");
-            
+            // Una réplica colgada se abandona tras el timeout y la consulta pasa a otra
+            System.setProperty("sun.rmi.transport.tcp.responseTimeout", RESPONSE_TIMEOUT_MS);
+            System.setProperty("sun.rmi.transport.tcp.handshakeTimeout", RESPONSE_TIMEOUT_MS);
+
+            // El balanceador reparte las consultas entre los registros RMI de las réplicas
+            String endpoints = args.length > 0 ? args[0] : DEFAULT_ENDPOINT;
+            ReplicaBalancer songService = new ReplicaBalancer(Arrays.asList(endpoints.split(",")));
+
             // Crear cliente con el objeto remoto
             MusicClient client = new MusicClient(songService);
             client.run();
+            System.out.println("[Music Client]: Réplicas: " + songService.status());
         } catch (Exception e) {
             System.err.println("[Music Client]: Excepción en el cliente: " + e.toString());
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
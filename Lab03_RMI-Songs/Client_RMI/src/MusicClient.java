@@ -1,8 +1,13 @@
 
+import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 public class MusicClient {
+    private static final int PAGE_SIZE = 20;
+    private static final int SUGGESTIONS = 8;
+
     private InterfaceSong songService;
     private Scanner scanner;
 
@@ -17,12 +22,12 @@ public class MusicClient {
         while (true) {
             showMenu();
             String input = scanner.nextLine().trim();
-            if (!input.matches("[1-5]")) {
-                System.out.println("Please enter a valid option (1-5).");
+            if (!input.matches("[1-9]|1[01]")) {
+                System.out.println("Please enter a valid option (1-11).");
                 continue;
             }
             int choice = Integer.parseInt(input);
-            if (choice == 5) {
+            if (choice == 11) {
                 System.out.println("Thank you for using Music Library Explorer!");
                 break;
             }
@@ -37,8 +42,14 @@ public class MusicClient {
         System.out.println("2) Find Songs by Artist");
         System.out.println("3) Find Songs by Genre");
         System.out.println("4) All songs");
-        System.out.println("5) Exit");
-        System.out.print("Choose an option (1-5): ");
+        System.out.println("5) Autocomplete a title or artist");
+        System.out.println("6) Browse Songs by Year Range");
+        System.out.println("7) Add a Song");
+        System.out.println("8) Update a Song");
+        System.out.println("9) Delete a Song");
+        System.out.println("10) Count Songs by Genre, Language and Decade");
+        System.out.println("11) Exit");
+        System.out.print("Choose an option (1-11): ");
     }
 
     private void handleOption(int option) {
@@ -56,6 +67,24 @@ public class MusicClient {
                 case 4:
                     showAllSongs();
                     break;             
+                case 5:
+                    autocomplete();
+                    break;
+                case 6:
+                    browseByYears();
+                    break;
+                case 7:
+                    addSong();
+                    break;
+                case 8:
+                    updateSong();
+                    break;
+                case 9:
+                    deleteSong();
+                    break;
+                case 10:
+                    countByFacet();
+                    break;
             }
             
         } catch (Exception e) {
@@ -66,39 +95,164 @@ public class MusicClient {
     private void findByTitle() throws Exception {
         System.out.print("Enter a song title (or partial title): ");
         String title = scanner.nextLine().trim();
-        List<Song> results = songService.searchByTitle(title);
-        printResults(results, "Results for title search: '" + title + "'");
+        String orderBy = readOrder();
+        printPages(offset -> songService.searchByTitle(title, offset, PAGE_SIZE, orderBy),
+                "Results for title search: '" + title + "'");
     }
 
     private void findByAuthor() throws Exception {
         System.out.print("Enter an artist name (or partial name): ");
         String author = scanner.nextLine().trim();
-        List<Song> results = songService.searchByAuthor(author);
-        printResults(results, "Results for artist search: '" + author + "'");
+        String orderBy = readOrder();
+        printPages(offset -> songService.searchByAuthor(author, offset, PAGE_SIZE, orderBy),
+                "Results for artist search: '" + author + "'");
     }
 
     private void findByGenre() throws Exception {
         System.out.print("Enter a genre (or partial genre): ");
         String genre = scanner.nextLine().trim();
-        List<Song> results = songService.searchByGenre(genre);
-        printResults(results, "Results for genre search: '" + genre + "'");
+        String orderBy = readOrder();
+        printPages(offset -> songService.searchByGenre(genre, offset, PAGE_SIZE, orderBy),
+                "Results for genre search: '" + genre + "'");
+    }
+
+    private void browseByYears() throws Exception {
+        System.out.print("Enter a year or a range (e.g. 1990-1999): ");
+        String input = scanner.nextLine().trim();
+        if (!input.matches("[0-9]{1,4}(\\s*-\\s*[0-9]{1,4})?")) {
+            System.out.println("Please enter a year like 1985 or a range like 1980-1989.");
+            return;
+        }
+        String[] range = input.split("-");
+        int from = Integer.parseInt(range[0].trim());
+        int to = range.length == 2 ? Integer.parseInt(range[1].trim()) : from;
+        if (from > to) {
+            System.out.println("The first year must not be after the second one.");
+            return;
+        }
+        printPages(offset -> songService.searchByYearRange(from, to, offset, PAGE_SIZE),
+                "Songs from " + (from == to ? String.valueOf(from) : from + " to " + to));
     }
 
     private void showAllSongs() throws Exception {
-        List<Song> results = songService.getAllSongs();
-        printResults(results, "All Available Songs");
+        System.out.println("The catalog has " + songService.countSongs() + " songs.");
+        String orderBy = readOrder();
+        printPages(offset -> songService.getAllSongs(offset, PAGE_SIZE, orderBy), "All Available Songs");
+    }
+
+    // "title", "author" or "year", optionally with "desc"; the server sorts only the pages it sends
+    private String readOrder() {
+        System.out.print("Sort by title, author or year, add 'desc' to reverse (Enter for catalog order): ");
+        return scanner.nextLine().trim();
+    }
+
+    // Only the counts travel, not the songs
+    private void countByFacet() throws Exception {
+        System.out.print("Filter, e.g. genre=Rock|Pop; year=1970-1979; !language=English (Enter for all songs): ");
+        String filter = scanner.nextLine().trim();
+        Map<String, Map<String, Integer>> counts = songService.facetCounts(filter);
+        for (Map.Entry<String, Map<String, Integer>> facet : counts.entrySet()) {
+            System.out.println("\n=== By " + facet.getKey() + " ===");
+            facet.getValue().forEach((value, count) -> System.out.println(value + ": " + count));
+        }
+    }
+
+    private void addSong() throws Exception {
+        Song song = readSong(null);
+        if (song == null) return;
+        songService.addSong(song);
+        System.out.println("Added " + song + ".");
     }
 
-    private void printResults(List<Song> results, String header) {
+    private void updateSong() throws Exception {
+        System.out.print("Title of the song to update: ");
+        String title = scanner.nextLine().trim();
+        System.out.print("Its artist: ");
+        String author = scanner.nextLine().trim();
+        Song song = readSong(new String[]{title, author});
+        if (song == null) return;
+        System.out.println(songService.updateSong(title, author, song)
+                ? "Updated to " + song + "." : "There is no '" + title + "' by " + author + ".");
+    }
+
+    private void deleteSong() throws Exception {
+        System.out.print("Title of the song to delete: ");
+        String title = scanner.nextLine().trim();
+        System.out.print("Its artist: ");
+        String author = scanner.nextLine().trim();
+        System.out.println(songService.deleteSong(title, author)
+                ? "Deleted '" + title + "' by " + author + "." : "There is no '" + title + "' by " + author + ".");
+    }
+
+    // Asks for every field; when updating, an empty title or artist keeps the current one
+    private Song readSong(String[] current) {
+        System.out.print(current == null ? "Title: " : "New title (Enter to keep it): ");
+        String title = scanner.nextLine().trim();
+        System.out.print(current == null ? "Artist: " : "New artist (Enter to keep it): ");
+        String author = scanner.nextLine().trim();
+        if (current != null && title.isEmpty()) title = current[0];
+        if (current != null && author.isEmpty()) author = current[1];
+        System.out.print("Genre: ");
+        String genre = scanner.nextLine().trim();
+        System.out.print("Language: ");
+        String language = scanner.nextLine().trim();
+        System.out.print("Year: ");
+        String year = scanner.nextLine().trim();
+        if (title.isEmpty() || author.isEmpty() || !year.matches("[0-9]{1,4}")) {
+            System.out.println("A song needs a title, an artist and a year like 1985.");
+            return null;
+        }
+        return new Song(title, genre, author, language, Integer.parseInt(year));
+    }
+
+    private void autocomplete() throws Exception {
+        System.out.print("Suggest (t)itles or (a)rtists? ");
+        boolean titles = !scanner.nextLine().trim().equalsIgnoreCase("a");
+        List<String> suggestions = List.of();
+        while (true) {
+            System.out.print("Type the beginning of a " + (titles ? "title" : "artist")
+                    + ", a suggestion number to search it, or Enter to go back: ");
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) return;
+
+            if (input.matches("[0-9]+") && Integer.parseInt(input) >= 1 && Integer.parseInt(input) <= suggestions.size()) {
+                String pick = suggestions.get(Integer.parseInt(input) - 1);
+                if (titles) {
+                    printPages(offset -> songService.searchByTitle(pick, offset, PAGE_SIZE), "Results for title: '" + pick + "'");
+                } else {
+                    printPages(offset -> songService.searchByAuthor(pick, offset, PAGE_SIZE), "Results for artist: '" + pick + "'");
+                }
+                return;
+            }
+
+            suggestions = titles ? songService.suggestTitles(input, SUGGESTIONS) : songService.suggestAuthors(input, SUGGESTIONS);
+            if (suggestions.isEmpty()) {
+                System.out.println("No suggestions for '" + input + "'.");
+            }
+            for (int i = 0; i < suggestions.size(); i++) {
+                System.out.println("  " + (i + 1) + ") " + suggestions.get(i));
+            }
+        }
+    }
+
+    // Fetches one page at a time and only asks the server for the next one on demand
+    private void printPages(PageFetcher fetcher, String header) throws RemoteException {
         System.out.println("\n " + header + " ");
-        if (results.isEmpty()) {
+        SongPage page = fetcher.fetch(0);
+        if (page.getTotal() == 0) {
             System.out.println("No songs matched your query.");
-        } else {
-            System.out.println("Total songs found: " + results.size());
-            System.out.println("------------------------------");
-            for (int i = 0; i < results.size(); i++) {
-                Song song = results.get(i);
-                System.out.println("Song " + (i + 1) + ":");
+            return;
+        }
+        System.out.println("Total songs found: " + page.getTotal());
+        if (page.isPartial()) {
+            System.out.println("(Some catalog shards did not answer in time; results may be incomplete.)");
+        }
+        System.out.println("------------------------------");
+        while (true) {
+            List<Song> songs = page.getSongs();
+            for (int i = 0; i < songs.size(); i++) {
+                Song song = songs.get(i);
+                System.out.println("Song " + (page.getOffset() + i + 1) + ":");
                 System.out.println("  Title: " + song.getTitle());
                 System.out.println("  Artist: " + song.getAuthor());
                 System.out.println("  Genre: " + song.getGenre());
@@ -106,6 +260,16 @@ public class MusicClient {
                 System.out.println("  Year: " + song.getYear());
                 System.out.println("------------------------------");
             }
+            if (!page.hasMore()) break;
+            System.out.print("Showing " + page.nextOffset() + " of " + page.getTotal()
+                    + ". Press Enter for more or 'q' to go back: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) break;
+            page = fetcher.fetch(page.nextOffset());
         }
     }
-}
\ No newline at end of file
+
+    @FunctionalInterface
+    private interface PageFetcher {
+        SongPage fetch(int offset) throws RemoteException;
+    }
+}
@@ -0,0 +1,330 @@
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client-side load balancer over identical MusicServer replicas. It is an
+ * InterfaceSong itself, so MusicClient does not know it is there. Each call
+ * goes to the cheaper of two randomly chosen healthy replicas (power of two
+ * choices), where the cost is the replica's latency EWMA times its calls in
+ * flight. The EWMA fades while a replica is not used, so one slow sample
+ * does not keep a replica out forever. A replica that throws RemoteException is benched for a while and
+ * the call is retried on another one; the caller only sees the error when
+ * every replica has failed.
+ */
+public class ReplicaBalancer implements InterfaceSong {
+    private static final double ALPHA = 0.3;                        // weight of the newest latency sample
+    private static final long COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);   // fading time of an unused EWMA
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    /** Endpoints as "host:port" of registries that bind "MusicCatalog". */
+    public ReplicaBalancer(List<String> endpoints) {
+        for (String endpoint : endpoints) {
+            String[] parts = endpoint.trim().split(":", 2);
+            if (parts.length != 2 || !parts[1].matches("[0-9]+")) {
+                throw new IllegalArgumentException("Endpoint must be host:port: " + endpoint);
+            }
+            replicas.add(new Replica(parts[0], Integer.parseInt(parts[1])));
+        }
+        if (replicas.isEmpty()) throw new IllegalArgumentException("At least one replica is required");
+    }
+
+    @Override
+    public List<Song> searchByTitle(String title) throws RemoteException {
+        return call(replica -> replica.searchByTitle(title));
+    }
+
+    @Override
+    public List<Song> searchByGenre(String genre) throws RemoteException {
+        return call(replica -> replica.searchByGenre(genre));
+    }
+
+    @Override
+    public List<Song> searchByAuthor(String author) throws RemoteException {
+        return call(replica -> replica.searchByAuthor(author));
+    }
+
+    @Override
+    public List<Song> getAllSongs() throws RemoteException {
+        return call(InterfaceSong::getAllSongs);
+    }
+
+    @Override
+    public List<Song> searchByTitle(String title, int limit) throws RemoteException {
+        return call(replica -> replica.searchByTitle(title, limit));
+    }
+
+    @Override
+    public List<Song> searchByGenre(String genre, int limit) throws RemoteException {
+        return call(replica -> replica.searchByGenre(genre, limit));
+    }
+
+    @Override
+    public List<Song> searchByAuthor(String author, int limit) throws RemoteException {
+        return call(replica -> replica.searchByAuthor(author, limit));
+    }
+
+    @Override
+    public SongPage getAllSongs(int offset, int limit) throws RemoteException {
+        return call(replica -> replica.getAllSongs(offset, limit));
+    }
+
+    @Override
+    public SongPage searchByTitle(String title, int offset, int limit) throws RemoteException {
+        return call(replica -> replica.searchByTitle(title, offset, limit));
+    }
+
+    @Override
+    public SongPage searchByGenre(String genre, int offset, int limit) throws RemoteException {
+        return call(replica -> replica.searchByGenre(genre, offset, limit));
+    }
+
+    @Override
+    public SongPage searchByAuthor(String author, int offset, int limit) throws RemoteException {
+        return call(replica -> replica.searchByAuthor(author, offset, limit));
+    }
+
+    @Override
+    public SongPage getAllSongs(int offset, int limit, String orderBy) throws RemoteException {
+        return call(replica -> replica.getAllSongs(offset, limit, orderBy));
+    }
+
+    @Override
+    public SongPage searchByTitle(String title, int offset, int limit, String orderBy) throws RemoteException {
+        return call(replica -> replica.searchByTitle(title, offset, limit, orderBy));
+    }
+
+    @Override
+    public SongPage searchByGenre(String genre, int offset, int limit, String orderBy) throws RemoteException {
+        return call(replica -> replica.searchByGenre(genre, offset, limit, orderBy));
+    }
+
+    @Override
+    public SongPage searchByAuthor(String author, int offset, int limit, String orderBy) throws RemoteException {
+        return call(replica -> replica.searchByAuthor(author, offset, limit, orderBy));
+    }
+
+    @Override
+    public int countSongs() throws RemoteException {
+        return call(InterfaceSong::countSongs);
+    }
+
+    @Override
+    public List<String> suggestTitles(String prefix, int limit) throws RemoteException {
+        return call(replica -> replica.suggestTitles(prefix, limit));
+    }
+
+    @Override
+    public List<String> suggestAuthors(String prefix, int limit) throws RemoteException {
+        return call(replica -> replica.suggestAuthors(prefix, limit));
+    }
+
+    @Override
+    public List<Song> searchByTitleFuzzy(String title, int maxEdits) throws RemoteException {
+        return call(replica -> replica.searchByTitleFuzzy(title, maxEdits));
+    }
+
+    @Override
+    public List<Song> searchByAuthorFuzzy(String author, int maxEdits) throws RemoteException {
+        return call(replica -> replica.searchByAuthorFuzzy(author, maxEdits));
+    }
+
+    @Override
+    public List<Song> searchByYearRange(int from, int to) throws RemoteException {
+        return call(replica -> replica.searchByYearRange(from, to));
+    }
+
+    @Override
+    public SongPage searchByYearRange(int from, int to, int offset, int limit) throws RemoteException {
+        return call(replica -> replica.searchByYearRange(from, to, offset, limit));
+    }
+
+    @Override
+    public Map<String, Map<String, Integer>> facetCounts(String filter) throws RemoteException {
+        return call(replica -> replica.facetCounts(filter));
+    }
+
+    // Replicas do not copy changes between themselves, so every change goes to all of them
+
+    @Override
+    public void addSong(Song song) throws RemoteException {
+        writeAll(replica -> {
+            replica.addSong(song);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean updateSong(String title, String author, Song song) throws RemoteException {
+        return writeAll(replica -> replica.updateSong(title, author, song));
+    }
+
+    @Override
+    public boolean deleteSong(String title, String author) throws RemoteException {
+        return writeAll(replica -> replica.deleteSong(title, author));
+    }
+
+    /** Latency EWMA in milliseconds and health of each replica. */
+    public String status() {
+        StringBuilder status = new StringBuilder();
+        for (Replica replica : replicas) {
+            if (status.length() > 0) status.append(", ");
+            status.append(replica).append(replica.isHealthy(System.nanoTime()) ? "" : " (down)")
+                    .append(String.format(" %.1f ms", replica.latency(System.nanoTime()) / 1e6));
+        }
+        return status.toString();
+    }
+
+    @FunctionalInterface
+    private interface Call<R> {
+        R call(InterfaceSong replica) throws RemoteException;
+    }
+
+    // Tries replicas until one answers; each replica is tried at most once per call
+    private <R> R call(Call<R> call) throws RemoteException {
+        List<Replica> untried = new ArrayList<>(replicas);
+        RemoteException failure = null;
+        while (!untried.isEmpty()) {
+            Replica replica = pick(untried);
+            untried.remove(replica);
+            replica.inFlight.incrementAndGet();
+            try {
+                InterfaceSong stub = replica.stub();
+                long start = System.nanoTime();
+                R result = call.call(stub);
+                replica.record(start, System.nanoTime());
+                return result;
+            } catch (RemoteException e) {
+                replica.fail(e);
+                failure = e;
+            } finally {
+                replica.inFlight.decrementAndGet();
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Sends a change to every replica, one after the other, and never retries
+     * it: a change is not idempotent, so a retry after a lost reply could apply
+     * it twice. A rejected change (a duplicate, say) stops at the first replica.
+     * If some replicas fail the caller gets a RemoteException that names them,
+     * because those replicas now differ from the rest.
+     */
+    private boolean writeAll(Call<Boolean> call) throws RemoteException {
+        boolean applied = false;
+        List<Replica> failed = new ArrayList<>();
+        RemoteException failure = null;
+        for (Replica replica : replicas) {
+            replica.inFlight.incrementAndGet();
+            try {
+                applied |= call.call(replica.stub());
+            } catch (RemoteException e) {
+                replica.fail(e);
+                failed.add(replica);
+                failure = e;
+            } finally {
+                replica.inFlight.decrementAndGet();
+            }
+        }
+        if (failure != null) {
+            throw new RemoteException("The change did not reach replicas " + failed
+                    + (failed.size() < replicas.size() ? "; they now differ from the others" : ""), failure);
+        }
+        return applied;
+    }
+
+    // Power of two choices among the healthy replicas; if none is healthy, the one benched longest ago
+    private Replica pick(List<Replica> candidates) {
+        long now = System.nanoTime();
+        List<Replica> healthy = new ArrayList<>(candidates.size());
+        for (Replica replica : candidates) {
+            if (replica.isHealthy(now)) healthy.add(replica);
+        }
+        if (healthy.isEmpty()) {
+            Replica oldest = candidates.get(0);
+            for (Replica replica : candidates) {
+                if (replica.downUntil - oldest.downUntil < 0) oldest = replica;
+            }
+            return oldest;
+        }
+        if (healthy.size() == 1) return healthy.get(0);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(healthy.size());
+        int second = random.nextInt(healthy.size() - 1);
+        if (second >= first) second++;
+        Replica a = healthy.get(first);
+        Replica b = healthy.get(second);
+        return a.cost(now) <= b.cost(now) ? a : b;
+    }
+
+    private static class Replica {
+        final String host;
+        final int port;
+        final AtomicInteger inFlight = new AtomicInteger();
+        private volatile InterfaceSong stub;
+        private double ewmaNanos;               // 0 until the first answer, so new replicas get tried
+        private long sampledAt;                 // System.nanoTime() of the last answer
+        private volatile long downUntil;        // System.nanoTime() before which the replica is benched
+        private volatile boolean down;
+
+        Replica(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        InterfaceSong stub() throws RemoteException {
+            InterfaceSong current = stub;
+            if (current == null) {
+                try {
+                    current = (InterfaceSong) LocateRegistry.getRegistry(host, port).lookup("MusicCatalog");
+                } catch (NotBoundException e) {
+                    throw new RemoteException("MusicCatalog is not bound at " + this, e);
+                }
+                stub = current;
+            }
+            return current;
+        }
+
+        synchronized void record(long start, long end) {
+            double previous = latency(end);
+            ewmaNanos = previous == 0 ? end - start : ALPHA * (end - start) + (1 - ALPHA) * previous;
+            sampledAt = end;
+            down = false;
+        }
+
+        synchronized void fail(RemoteException e) {
+            System.err.println("[Music Client]: Replica " + this + " failed, trying another one: " + e.getMessage());
+            stub = null;
+            down = true;
+            downUntil = System.nanoTime() + COOLDOWN_NANOS;
+        }
+
+        boolean isHealthy(long now) {
+            return !down || now - downUntil >= 0;
+        }
+
+        synchronized double latency(long now) {
+            return ewmaNanos * Math.exp(-(now - sampledAt) / DECAY_NANOS);
+        }
+
+        // Expected wait: typical latency times the calls that would be ahead of this one
+        double cost(long now) {
+            return latency(now) * (inFlight.get() + 1);
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SongPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private ArrayList<Song> songs;
+    private int offset;
+    private int total;
+    private boolean partial;    // some shards did not answer, so songs and total may be short
+
+    public SongPage(List<Song> songs, int offset, int total) {
+        this(songs, offset, total, false);
+    }
+
+    public SongPage(List<Song> songs, int offset, int total, boolean partial) {
+        this.songs = new ArrayList<>(songs);
+        this.offset = offset;
+        this.total = total;
+        this.partial = partial;
+    }
+
+    public List<Song> getSongs() { return songs; }
+    public int getOffset() { return offset; }
+    public int getTotal() { return total; }
+    public boolean isPartial() { return partial; }
+
+    public boolean hasMore() { return offset + songs.size() < total; }
+    public int nextOffset() { return offset + songs.size(); }
+}
@@ -1,63 +1,246 @@
 
+import songengine.CatalogVersion;
+import songengine.FacetFilter;
+import songengine.ResultPage;
+import songengine.SongCatalog;
+import songengine.SongFactory;
+import songengine.SongField;
+import songengine.SongOrder;
+import songengine.SongRepository;
+import songengine.SongTable;
+import songengine.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 public class MusicCatalog extends UnicastRemoteObject implements InterfaceSong {
-    private List<Song> songs;
+    private static final long serialVersionUID = 1L;
+
+    // Searches run on the shared engine, which only builds Song objects for results.
+    // Remote objects are exported, never serialized, so the server state is transient
+    private final transient SongRepository<Song> repository;
+    private final int shard;
+    private final int shardCount;
 
     public MusicCatalog() throws RemoteException {
-        initializeSongs();
+        this(0, 1);
+    }
+
+    /**
+     * One hash partition of the catalog: keeps only the songs whose title and
+     * artist hash to "shard" out of "shardCount" (see ShardedMusicCatalog).
+     */
+    public MusicCatalog(int shard, int shardCount) throws RemoteException {
+        if (shardCount < 1 || shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("Invalid shard " + shard + " of " + shardCount);
+        }
+        this.shard = shard;
+        this.shardCount = shardCount;
+        SongTable.Builder songs = new SongTable.Builder();
+        initializeSongs(songs);
+        SongTable table = songs.build();
+        // repeated artists, genres and languages are stored once and shared by every result
+        System.out.println("[Music Catalog]: " + table.size() + " songs, " + table.distinctValues(SongField.AUTHOR)
+                + " artists, " + table.distinctValues(SongField.GENRE) + " genres, "
+                + table.distinctValues(SongField.LANGUAGE) + " languages; ~" + table.dictionarySavedBytes()
+                + " bytes of heap saved by the dictionaries.");
+        // columns and indexes live off-heap; only the Song results are built on the heap
+        repository = openRepository(SongCatalog.buildOffHeap(table));
+    }
+
+    // Changes are replayed from this catalog's own log; without one they still work but are lost on restart
+    private SongRepository<Song> openRepository(SongCatalog catalog) {
+        SongFactory<Song> factory = (title, author, genre, language, year) -> new Song(title, genre, author, language, year);
+        Path logFile = Path.of(shardCount == 1 ? "songs.wal" : "songs-shard" + shard + "of" + shardCount + ".wal");
+        try {
+            return new SongRepository<>(catalog, factory, WriteAheadLog.open(logFile));
+        } catch (IOException e) {
+            System.err.println("[Music Catalog]: Cannot open " + logFile + ", changes will not survive a restart: " + e);
+            return new SongRepository<>(catalog, factory);
+        }
+    }
+
+    // Hashes the same key that identifies a song (case and accents ignored), so a change finds its shard
+    static int shardOf(String title, String author, int shardCount) {
+        return Math.floorMod(CatalogVersion.key(title, author).hashCode(), shardCount);
+    }
+
+    private void add(SongTable.Builder songs, String title, String author, String genre, String language, int year) {
+        if (shardOf(title, author, shardCount) == shard) songs.add(title, author, genre, language, year);
     }
 
-    private void initializeSongs() {
-        songs = new ArrayList<>();
+    private void initializeSongs(SongTable.Builder songs) {
         // Taylor Swift songs
-        songs.add(new Song("Love Story", "Pop", "Taylor Swift", "English", 2008));
-        songs.add(new Song("Shake It Off", "Pop", "Taylor Swift", "English", 2014));
-        songs.add(new Song("Blank Space", "Pop", "Taylor Swift", "English", 2014));
-        songs.add(new Song("Bad Blood", "Pop", "Taylor Swift", "English", 2014));
-        songs.add(new Song("Cardigan", "Folk-Pop", "Taylor Swift", "English", 2020));
-        songs.add(new Song("Willow", "Folk-Pop", "Taylor Swift", "English", 2020));
-        songs.add(new Song("Anti-Hero", "Pop", "Taylor Swift", "English", 2022));
-        songs.add(new Song("Lover", "Pop", "Taylor Swift", "English", 2019));
+        add(songs, "Love Story", "Taylor Swift", "Pop", "English", 2008);
+        add(songs, "Shake It Off", "Taylor Swift", "Pop", "English", 2014);
+        add(songs, "Blank Space", "Taylor Swift", "Pop", "English", 2014);
+        add(songs, "Bad Blood", "Taylor Swift", "Pop", "English", 2014);
+        add(songs, "Cardigan", "Taylor Swift", "Folk-Pop", "English", 2020);
+        add(songs, "Willow", "Taylor Swift", "Folk-Pop", "English", 2020);
+        add(songs, "Anti-Hero", "Taylor Swift", "Pop", "English", 2022);
+        add(songs, "Lover", "Taylor Swift", "Pop", "English", 2019);
         // Morat songs
-        songs.add(new Song("Cómo Te Atreves", "Pop Latino", "Morat", "Spanish", 2016));
-        songs.add(new Song("Mi Nuevo Vicio", "Pop Latino", "Morat", "Spanish", 2015));
-        songs.add(new Song("Cuando Nadie Ve", "Pop Latino", "Morat", "Spanish", 2018));
-        songs.add(new Song("A Dónde Vamos", "Pop Latino", "Morat", "Spanish", 2019));
-        songs.add(new Song("No Se Va", "Pop Latino", "Morat", "Spanish", 2019));
-        songs.add(new Song("Bajo la Mesa", "Pop Latino", "Morat", "Spanish", 2020));
-        songs.add(new Song("Enamórate de Alguien Más", "Pop Latino", "Morat", "Spanish", 2020));
-        songs.add(new Song("Presiento", "Pop Latino", "Morat", "Spanish", 2019));
+        add(songs, "Cómo Te Atreves", "Morat", "Pop Latino", "Spanish", 2016);
+        add(songs, "Mi Nuevo Vicio", "Morat", "Pop Latino", "Spanish", 2015);
+        add(songs, "Cuando Nadie Ve", "Morat", "Pop Latino", "Spanish", 2018);
+        add(songs, "A Dónde Vamos", "Morat", "Pop Latino", "Spanish", 2019);
+        add(songs, "No Se Va", "Morat", "Pop Latino", "Spanish", 2019);
+        add(songs, "Bajo la Mesa", "Morat", "Pop Latino", "Spanish", 2020);
+        add(songs, "Enamórate de Alguien Más", "Morat", "Pop Latino", "Spanish", 2020);
+        add(songs, "Presiento", "Morat", "Pop Latino", "Spanish", 2019);
     }
 
     @Override
     public List<Song> searchByTitle(String title) throws RemoteException {
-        return songs.stream()
-                .filter(song -> song.getTitle().toLowerCase().contains(title.toLowerCase()))
-                .collect(Collectors.toList());
+        return repository.searchByTitle(title);
     }
 
     @Override
     public List<Song> searchByGenre(String genre) throws RemoteException {
-        return songs.stream()
-                .filter(song -> song.getGenre().toLowerCase().contains(genre.toLowerCase()))
-                .collect(Collectors.toList());
+        return repository.searchByGenre(genre);
     }
 
     @Override
     public List<Song> searchByAuthor(String author) throws RemoteException {
-        return songs.stream()
-                .filter(song -> song.getAuthor().toLowerCase().contains(author.toLowerCase()))
-                .collect(Collectors.toList());
+        return repository.searchByAuthor(author);
     }
     
     public List<Song> getAllSongs() throws RemoteException {
-        return new ArrayList<>(songs);
+        return repository.getAllSongs();
+    }
+
+    @Override
+    public List<Song> searchByTitle(String title, int limit) throws RemoteException {
+        return repository.searchTop(SongField.TITLE, title, limit);
+    }
+
+    @Override
+    public List<Song> searchByGenre(String genre, int limit) throws RemoteException {
+        return repository.searchTop(SongField.GENRE, genre, limit);
+    }
+
+    @Override
+    public List<Song> searchByAuthor(String author, int limit) throws RemoteException {
+        return repository.searchTop(SongField.AUTHOR, author, limit);
+    }
+
+    @Override
+    public SongPage getAllSongs(int offset, int limit) throws RemoteException {
+        return toSongPage(repository.page(offset, limit));
+    }
+
+    @Override
+    public SongPage searchByTitle(String title, int offset, int limit) throws RemoteException {
+        return toSongPage(repository.searchPage(SongField.TITLE, title, offset, limit));
+    }
+
+    @Override
+    public SongPage searchByGenre(String genre, int offset, int limit) throws RemoteException {
+        return toSongPage(repository.searchPage(SongField.GENRE, genre, offset, limit));
+    }
+
+    @Override
+    public SongPage searchByAuthor(String author, int offset, int limit) throws RemoteException {
+        return toSongPage(repository.searchPage(SongField.AUTHOR, author, offset, limit));
+    }
+
+    @Override
+    public SongPage getAllSongs(int offset, int limit, String orderBy) throws RemoteException {
+        return toSongPage(repository.page(offset, limit, SongOrder.parse(orderBy)));
+    }
+
+    @Override
+    public SongPage searchByTitle(String title, int offset, int limit, String orderBy) throws RemoteException {
+        return toSongPage(repository.searchPage(SongField.TITLE, title, offset, limit, SongOrder.parse(orderBy)));
+    }
+
+    @Override
+    public SongPage searchByGenre(String genre, int offset, int limit, String orderBy) throws RemoteException {
+        return toSongPage(repository.searchPage(SongField.GENRE, genre, offset, limit, SongOrder.parse(orderBy)));
+    }
+
+    @Override
+    public SongPage searchByAuthor(String author, int offset, int limit, String orderBy) throws RemoteException {
+        return toSongPage(repository.searchPage(SongField.AUTHOR, author, offset, limit, SongOrder.parse(orderBy)));
+    }
+
+    @Override
+    public int countSongs() throws RemoteException {
+        return repository.size();
+    }
+
+    @Override
+    public List<String> suggestTitles(String prefix, int limit) throws RemoteException {
+        return new ArrayList<>(repository.complete(SongField.TITLE, prefix, limit));
+    }
+
+    @Override
+    public List<String> suggestAuthors(String prefix, int limit) throws RemoteException {
+        return new ArrayList<>(repository.complete(SongField.AUTHOR, prefix, limit));
+    }
+
+    @Override
+    public List<Song> searchByTitleFuzzy(String title, int maxEdits) throws RemoteException {
+        return repository.searchFuzzy(SongField.TITLE, title, maxEdits);
+    }
+
+    @Override
+    public List<Song> searchByAuthorFuzzy(String author, int maxEdits) throws RemoteException {
+        return repository.searchFuzzy(SongField.AUTHOR, author, maxEdits);
+    }
+
+    @Override
+    public List<Song> searchByYearRange(int from, int to) throws RemoteException {
+        return repository.searchByYearRange(from, to);
+    }
+
+    @Override
+    public SongPage searchByYearRange(int from, int to, int offset, int limit) throws RemoteException {
+        return toSongPage(repository.searchByYearRange(from, to, offset, limit));
+    }
+
+    @Override
+    public void addSong(Song song) throws RemoteException {
+        checkShard(song);
+        repository.add(song.getTitle(), song.getAuthor(), song.getGenre(), song.getLanguage(), song.getYear());
+    }
+
+    @Override
+    public boolean updateSong(String title, String author, Song song) throws RemoteException {
+        checkShard(song);
+        return repository.update(title, author, song.getTitle(), song.getAuthor(), song.getGenre(),
+                song.getLanguage(), song.getYear());
+    }
+
+    @Override
+    public boolean deleteSong(String title, String author) throws RemoteException {
+        return repository.delete(title, author);
+    }
+
+    @Override
+    public Map<String, Map<String, Integer>> facetCounts(String filter) throws RemoteException {
+        return repository.facetCounts(FacetFilter.parse(filter));
+    }
+
+    // A shard only stores the songs that hash to it; the coordinator routes every change
+    private void checkShard(Song song) {
+        if (song.getTitle() == null || song.getAuthor() == null) {
+            throw new IllegalArgumentException("A song needs a title and an artist");
+        }
+        if (shardCount > 1 && shardOf(song.getTitle(), song.getAuthor(), shardCount) != shard) {
+            throw new IllegalArgumentException("'" + song.getTitle() + "' by " + song.getAuthor()
+                    + " belongs to another shard, send it through the coordinator");
+        }
+    }
+
+    private static SongPage toSongPage(ResultPage<Song> page) {
+        return new SongPage(page.items(), page.offset(), page.total());
     }
 
    
-}
\ No newline at end of file
+}
@@ -1,20 +1,52 @@
-
+import java.rmi.Remote;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Arrays;
 
 
 public class MusicServer {
-    
+    private static final int PORT = 1090;
+
+    /*
+     * Usage:
+     *   MusicServer [port]                              whole catalog (one replica), port 1090 by default
+     *   MusicServer shard <index> <count> <port>        one hash partition of the catalog
+     *   MusicServer coordinator <host:port,...> [ms]    fans queries out to the shards, on port 1090
+     * Clients connect to "MusicCatalog" on port 1090 or on a list of replicas.
+     */
     public static void main(String[] args) {
         try {
-            MusicCatalog server = new MusicCatalog();            
-            Registry registry = LocateRegistry.createRegistry(1090);
+            String mode = args.length > 0 ? args[0] : "single";
+            Remote server;
+            int port = PORT;
+            switch (mode) {
+                case "shard" -> {
+                    int shard = Integer.parseInt(args[1]);
+                    int count = Integer.parseInt(args[2]);
+                    port = Integer.parseInt(args[3]);
+                    server = new MusicCatalog(shard, count);
+                    System.out.println("[Music Server]: Shard " + shard + " of " + count);
+                }
+                case "coordinator" -> {
+                    long timeoutMs = args.length > 2 ? Long.parseLong(args[2]) : ShardedMusicCatalog.DEFAULT_TIMEOUT_MS;
+                    // a shard that hangs also releases its query thread once the timeout passes
+                    System.setProperty("sun.rmi.transport.tcp.responseTimeout", String.valueOf(timeoutMs));
+                    System.setProperty("sun.rmi.transport.tcp.handshakeTimeout", String.valueOf(timeoutMs));
+                    server = new ShardedMusicCatalog(Arrays.asList(args[1].split(",")), timeoutMs);
+                    System.out.println("[Music Server]: Coordinator for shards " + args[1]);
+                }
+                default -> {
+                    if (args.length > 0) port = Integer.parseInt(args[0]);
+                    server = new MusicCatalog();
+                }
+            }
+            Registry registry = LocateRegistry.createRegistry(port);
             registry.rebind("MusicCatalog", server);
-            
-            System.out.println("[Music Server]: Server ready");
+
+            System.out.println("[Music Server]: Server ready on port " + port);
         } catch (Exception e) {
             System.err.println("[Music Server]: Server exception: " + e.toString());
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,420 @@
+import songengine.FacetFilter;
+import songengine.FacetIndex;
+import songengine.SongCatalog;
+import songengine.SongOrder;
+
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Coordinator for a sharded catalog. Each shard is a MusicCatalog holding one
+ * hash partition of the songs in its own registry; this class implements the
+ * same InterfaceSong, sends every query to all shards in parallel and merges
+ * the answers. A shard that fails or does not answer within the timeout is
+ * left out, so clients get partial results instead of an error; only when no
+ * shard answers does the call fail.
+ */
+public class ShardedMusicCatalog extends UnicastRemoteObject implements InterfaceSong {
+    public static final long DEFAULT_TIMEOUT_MS = 2000;
+    private static final long serialVersionUID = 1L;
+
+    // Exported, never serialized: the coordinator's state stays on this server
+    private final transient List<String> addresses;            // "host:port" of each shard registry
+    private final AtomicReferenceArray<InterfaceSong> shards;  // looked up on first use, dropped when they fail
+    private final long timeoutMs;
+    private final transient ExecutorService pool;
+
+    public ShardedMusicCatalog(List<String> addresses, long timeoutMs) throws RemoteException {
+        if (addresses.isEmpty()) throw new IllegalArgumentException("At least one shard is required");
+        for (String address : addresses) {
+            if (!address.matches("[^:]+:[0-9]+")) throw new IllegalArgumentException("Shard address must be host:port: " + address);
+        }
+        this.addresses = List.copyOf(addresses);
+        this.shards = new AtomicReferenceArray<>(addresses.size());
+        this.timeoutMs = timeoutMs;
+        this.pool = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "shard-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public List<Song> searchByTitle(String title) throws RemoteException {
+        return concat(scatter(shard -> shard.searchByTitle(title)));
+    }
+
+    @Override
+    public List<Song> searchByGenre(String genre) throws RemoteException {
+        return concat(scatter(shard -> shard.searchByGenre(genre)));
+    }
+
+    @Override
+    public List<Song> searchByAuthor(String author) throws RemoteException {
+        return concat(scatter(shard -> shard.searchByAuthor(author)));
+    }
+
+    @Override
+    public List<Song> getAllSongs() throws RemoteException {
+        return concat(scatter(InterfaceSong::getAllSongs));
+    }
+
+    // Each shard returns its own best "limit"; the global best are among them
+    @Override
+    public List<Song> searchByTitle(String title, int limit) throws RemoteException {
+        return top(scatter(shard -> shard.searchByTitle(title, limit)), Song::getTitle, title, limit);
+    }
+
+    @Override
+    public List<Song> searchByGenre(String genre, int limit) throws RemoteException {
+        return top(scatter(shard -> shard.searchByGenre(genre, limit)), Song::getGenre, genre, limit);
+    }
+
+    @Override
+    public List<Song> searchByAuthor(String author, int limit) throws RemoteException {
+        return top(scatter(shard -> shard.searchByAuthor(author, limit)), Song::getAuthor, author, limit);
+    }
+
+    @Override
+    public SongPage getAllSongs(int offset, int limit) throws RemoteException {
+        return catalogPage(offset, limit, (shard, from, count) -> shard.getAllSongs(from, count));
+    }
+
+    @Override
+    public SongPage searchByTitle(String title, int offset, int limit) throws RemoteException {
+        return catalogPage(offset, limit, (shard, from, count) -> shard.searchByTitle(title, from, count));
+    }
+
+    @Override
+    public SongPage searchByGenre(String genre, int offset, int limit) throws RemoteException {
+        return catalogPage(offset, limit, (shard, from, count) -> shard.searchByGenre(genre, from, count));
+    }
+
+    @Override
+    public SongPage searchByAuthor(String author, int offset, int limit) throws RemoteException {
+        return catalogPage(offset, limit, (shard, from, count) -> shard.searchByAuthor(author, from, count));
+    }
+
+    // Each shard sorts its own first offset + limit songs; they are merged here with the same order.
+    // A deep sorted page therefore costs offset + limit songs from every shard
+
+    @Override
+    public SongPage getAllSongs(int offset, int limit, String orderBy) throws RemoteException {
+        return sortedPage(offset, limit, (shard, from, count) -> shard.getAllSongs(from, count, orderBy), order(orderBy));
+    }
+
+    @Override
+    public SongPage searchByTitle(String title, int offset, int limit, String orderBy) throws RemoteException {
+        return sortedPage(offset, limit, (shard, from, count) -> shard.searchByTitle(title, from, count, orderBy), order(orderBy));
+    }
+
+    @Override
+    public SongPage searchByGenre(String genre, int offset, int limit, String orderBy) throws RemoteException {
+        return sortedPage(offset, limit, (shard, from, count) -> shard.searchByGenre(genre, from, count, orderBy), order(orderBy));
+    }
+
+    @Override
+    public SongPage searchByAuthor(String author, int offset, int limit, String orderBy) throws RemoteException {
+        return sortedPage(offset, limit, (shard, from, count) -> shard.searchByAuthor(author, from, count, orderBy), order(orderBy));
+    }
+
+    @Override
+    public int countSongs() throws RemoteException {
+        int total = 0;
+        for (Integer count : scatter(InterfaceSong::countSongs)) {
+            if (count != null) total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public List<String> suggestTitles(String prefix, int limit) throws RemoteException {
+        return interleave(scatter(shard -> shard.suggestTitles(prefix, limit)), limit);
+    }
+
+    @Override
+    public List<String> suggestAuthors(String prefix, int limit) throws RemoteException {
+        return interleave(scatter(shard -> shard.suggestAuthors(prefix, limit)), limit);
+    }
+
+    @Override
+    public List<Song> searchByTitleFuzzy(String title, int maxEdits) throws RemoteException {
+        return concat(scatter(shard -> shard.searchByTitleFuzzy(title, maxEdits)));
+    }
+
+    @Override
+    public List<Song> searchByAuthorFuzzy(String author, int maxEdits) throws RemoteException {
+        return concat(scatter(shard -> shard.searchByAuthorFuzzy(author, maxEdits)));
+    }
+
+    // Every shard answers in chronological order; a stable sort by year keeps that across shards
+    @Override
+    public List<Song> searchByYearRange(int from, int to) throws RemoteException {
+        List<Song> songs = concat(scatter(shard -> shard.searchByYearRange(from, to)));
+        songs.sort(Comparator.comparingInt(Song::getYear));
+        return songs;
+    }
+
+    @Override
+    public SongPage searchByYearRange(int from, int to, int offset, int limit) throws RemoteException {
+        return sortedPage(offset, limit, (shard, first, count) -> shard.searchByYearRange(from, to, first, count),
+                Comparator.comparingInt(Song::getYear));
+    }
+
+    // Counts add up across shards; a bad filter is rejected here before any shard is asked
+    @Override
+    public Map<String, Map<String, Integer>> facetCounts(String filter) throws RemoteException {
+        FacetFilter.parse(filter);
+        return FacetIndex.sum(scatter(shard -> shard.facetCounts(filter)));
+    }
+
+    // Changes go only to the shard that owns the song, without the partial-result fallback
+
+    @Override
+    public void addSong(Song song) throws RemoteException {
+        route(ownerOf(song.getTitle(), song.getAuthor()), shard -> {
+            shard.addSong(song);
+            return null;
+        });
+    }
+
+    /**
+     * A new title or artist can move the song to another shard: it is added
+     * there first and then deleted from the old one, so a failure in between
+     * leaves a duplicate rather than losing the song.
+     */
+    @Override
+    public boolean updateSong(String title, String author, Song song) throws RemoteException {
+        int from = ownerOf(title, author);
+        int to = ownerOf(song.getTitle(), song.getAuthor());
+        if (from == to) return route(from, shard -> shard.updateSong(title, author, song));
+
+        route(to, shard -> {
+            shard.addSong(song);
+            return null;
+        });
+        if (route(from, shard -> shard.deleteSong(title, author))) return true;
+        route(to, shard -> shard.deleteSong(song.getTitle(), song.getAuthor()));   // the old song did not exist
+        return false;
+    }
+
+    @Override
+    public boolean deleteSong(String title, String author) throws RemoteException {
+        return route(ownerOf(title, author), shard -> shard.deleteSong(title, author));
+    }
+
+    private int ownerOf(String title, String author) {
+        if (title == null || author == null) throw new IllegalArgumentException("A song needs a title and an artist");
+        return MusicCatalog.shardOf(title, author, addresses.size());
+    }
+
+    private <R> R route(int index, ShardCall<R> call) throws RemoteException {
+        try {
+            return call.call(shard(index));
+        } catch (RemoteException e) {
+            shards.set(index, null);
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RemoteException("Shard " + addresses.get(index) + " is not available", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardCall<R> {
+        R call(InterfaceSong shard) throws RemoteException;
+    }
+
+    @FunctionalInterface
+    private interface IndexedCall<R> {
+        R call(int index, InterfaceSong shard) throws RemoteException;
+    }
+
+    @FunctionalInterface
+    private interface PageCall {
+        SongPage call(InterfaceSong shard, int offset, int limit) throws RemoteException;
+    }
+
+    /**
+     * Runs the call on every shard at once and waits at most the timeout.
+     * The answer of a shard that failed or timed out is null; a shard that
+     * failed is looked up again on the next query. Errors in the request
+     * itself (a bad offset, say) are thrown back to the caller as they are.
+     */
+    private <R> List<R> scatter(ShardCall<R> call) throws RemoteException {
+        return scatter((index, shard) -> call.call(shard));
+    }
+
+    // Like scatter(ShardCall), with a call that depends on the shard's position
+    private <R> List<R> scatter(IndexedCall<R> call) throws RemoteException {
+        List<Callable<R>> tasks = new ArrayList<>(addresses.size());
+        for (int i = 0; i < addresses.size(); i++) {
+            int index = i;
+            tasks.add(() -> call.call(index, shard(index)));
+        }
+
+        List<Future<R>> futures;
+        try {
+            futures = pool.invokeAll(tasks, timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while querying the shards", e);
+        }
+
+        List<R> answers = new ArrayList<>(futures.size());
+        int answered = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                answers.add(futures.get(i).get());
+                answered++;
+            } catch (CancellationException e) {
+                System.err.println("[Sharded Catalog]: Shard " + addresses.get(i) + " timed out after " + timeoutMs + " ms");
+                answers.add(null);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtime) throw runtime;
+                System.err.println("[Sharded Catalog]: Shard " + addresses.get(i) + " failed: " + e.getCause());
+                shards.set(i, null);
+                answers.add(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while querying the shards", e);
+            }
+        }
+        if (answered == 0) throw new RemoteException("No catalog shard answered");
+        return answers;
+    }
+
+    private InterfaceSong shard(int index) throws Exception {
+        InterfaceSong shard = shards.get(index);
+        if (shard == null) {
+            String[] address = addresses.get(index).split(":", 2);
+            shard = (InterfaceSong) LocateRegistry.getRegistry(address[0], Integer.parseInt(address[1]))
+                    .lookup("MusicCatalog");
+            shards.set(index, shard);
+        }
+        return shard;
+    }
+
+    private static List<Song> concat(List<List<Song>> answers) {
+        List<Song> songs = new ArrayList<>();
+        for (List<Song> answer : answers) {
+            if (answer != null) songs.addAll(answer);
+        }
+        return songs;
+    }
+
+    // Same relevance the shards rank with; ties keep shard order, then each shard's own order
+    private static List<Song> top(List<List<Song>> answers, Function<Song, String> field, String query, int limit) {
+        List<Song> songs = concat(answers);
+        songs.sort(Comparator.comparingInt((Song song) -> SongCatalog.relevance(field.apply(song), query)).reversed());
+        return new ArrayList<>(songs.subList(0, Math.min(limit, songs.size())));
+    }
+
+    // The engine's order on whole songs; null keeps the shards' catalog order
+    private static Comparator<Song> order(String orderBy) {
+        SongOrder order = SongOrder.parse(orderBy);
+        return order == null ? null : order.comparator(Song::getTitle, Song::getAuthor, Song::getYear);
+    }
+
+    /**
+     * A page of the shards one after the other, in catalog order. A first
+     * round asks each shard for a one-song page, which brings its total; then
+     * only the shards whose part overlaps the page are asked for that part, so
+     * a deep page moves "limit" songs and not offset + limit per shard. The
+     * first page skips the totals round: each shard sends its first "limit".
+     */
+    private SongPage catalogPage(int offset, int limit, PageCall call) throws RemoteException {
+        checkPage(offset, limit);
+        int end = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        List<SongPage> heads = scatter(shard -> call.call(shard, 0, offset == 0 ? limit : 1));
+
+        int shardCount = heads.size();
+        int[] starts = new int[shardCount];   // position of each shard's first song in the whole list
+        int[] from = new int[shardCount];     // the part of each shard inside the page
+        int[] to = new int[shardCount];
+        boolean partial = false;
+        boolean overlaps = false;
+        int total = 0;
+        for (int i = 0; i < shardCount; i++) {
+            SongPage head = heads.get(i);
+            starts[i] = total;
+            if (head == null || head.isPartial()) partial = true;
+            if (head == null) continue;
+            from[i] = Math.max(offset, total) - total;
+            to[i] = (int) Math.min(end, (long) total + head.getTotal()) - total;
+            overlaps |= from[i] < to[i];
+            total += head.getTotal();
+        }
+        List<SongPage> parts = offset == 0 || !overlaps ? heads
+                : scatter((index, shard) -> from[index] < to[index] ? call.call(shard, from[index], to[index] - from[index]) : null);
+
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            if (heads.get(i) == null || from[i] >= to[i]) continue;
+            SongPage part = parts.get(i);
+            if (part == null) {
+                partial = true;
+                continue;
+            }
+            // the first page got each shard's songs from 0; a later one, from its part of the page
+            int first = offset == 0 ? from[i] : 0;
+            int last = Math.min(part.getSongs().size(), first + to[i] - from[i]);
+            if (first < last) songs.addAll(part.getSongs().subList(first, last));
+        }
+        return new SongPage(songs, offset, total, partial);
+    }
+
+    /**
+     * A page merged by "order": every shard is asked for its first offset +
+     * limit songs in that order, which always contain its part of the page.
+     * The cost grows with the offset; catalog order uses catalogPage instead.
+     */
+    private SongPage sortedPage(int offset, int limit, PageCall call, Comparator<Song> order) throws RemoteException {
+        if (order == null) return catalogPage(offset, limit, call);
+        checkPage(offset, limit);
+        int end = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        List<SongPage> answers = scatter(shard -> call.call(shard, 0, end));
+
+        boolean partial = false;
+        int total = 0;
+        List<Song> songs = new ArrayList<>();
+        for (SongPage answer : answers) {
+            if (answer == null || answer.isPartial()) partial = true;
+            if (answer == null) continue;
+            songs.addAll(answer.getSongs());
+            total += answer.getTotal();
+        }
+        songs.sort(order);
+        songs = songs.subList(Math.min(offset, songs.size()), Math.min(end, songs.size()));
+        return new SongPage(new ArrayList<>(songs), offset, total, partial);
+    }
+
+    private static void checkPage(int offset, int limit) {
+        if (offset < 0 || limit < 1) {
+            throw new IllegalArgumentException("Invalid page: offset " + offset + ", limit " + limit);
+        }
+    }
+
+    // Shards only send their suggestions in order, not their weights: take them round-robin by rank
+    private static List<String> interleave(List<List<String>> answers, int limit) {
+        List<String> result = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (int rank = 0; result.size() < limit; rank++) {
+            boolean any = false;
+            for (List<String> answer : answers) {
+                if (answer == null || rank >= answer.size()) continue;
+                any = true;
+                String suggestion = answer.get(rank);
+                if (result.size() < limit && seen.add(suggestion.toLowerCase(Locale.ROOT))) result.add(suggestion);
+            }
+            if (!any) break;
+        }
+        return result;
+    }
+}
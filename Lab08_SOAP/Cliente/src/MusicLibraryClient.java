@@ -12,10 +12,12 @@ import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Element;
 import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 
 public class MusicLibraryClient {
     
     private static final String SOAP_ENDPOINT = "http://localhost:8080";
+    private static final int SUGGESTIONS = 8;
     private Scanner scanner;
 
     public MusicLibraryClient() {
@@ -33,7 +35,7 @@ public class MusicLibraryClient {
         System.out.println("Conectado correctamente al servicio SOAP.");
 
         int option = 0;
-        while (option != 6) {
+        while (option != 12) {
             showMenu();
             option = scanner.nextInt();
             scanner.nextLine();
@@ -44,7 +46,13 @@ public class MusicLibraryClient {
                 case 3 -> showAllSongs();
                 case 4 -> searchByTitle();
                 case 5 -> searchByGenre();
-                case 6 -> System.out.println("Cerrando cliente. ¡Hasta la próxima!");
+                case 6 -> autocomplete();
+                case 7 -> searchByYearRange();
+                case 8 -> addSong();
+                case 9 -> updateSong();
+                case 10 -> deleteSong();
+                case 11 -> countByFacet();
+                case 12 -> System.out.println("Cerrando cliente. ¡Hasta la próxima!");
                 default -> System.out.println("Opción no válida. Inténtalo otra vez.");
             }
         }
@@ -59,7 +67,13 @@ public class MusicLibraryClient {
         System.out.println("3. Mostrar todas las canciones");
         System.out.println("4. Buscar por título");
         System.out.println("5. Buscar por género");
-        System.out.println("6. Salir");
+        System.out.println("6. Autocompletar título o autor");
+        System.out.println("7. Buscar por rango de años");
+        System.out.println("8. Agregar canción");
+        System.out.println("9. Modificar canción");
+        System.out.println("10. Borrar canción");
+        System.out.println("11. Contar por género, idioma y década");
+        System.out.println("12. Salir");
         System.out.print("Seleccione una opción: ");
     }
 
@@ -67,19 +81,32 @@ public class MusicLibraryClient {
     private void searchByAuthor() {
         System.out.print("Escriba el autor: ");
         String author = scanner.nextLine();
-        executeSearch("searchByAuthor", "<arg0>" + escapeXml(author) + "</arg0>");
+        executeSearch("searchByAuthor", "<arg0>" + escapeXml(author) + "</arg0>" + orderParam());
     }
 
     private void searchByTitle() {
         System.out.print("Escriba el título: ");
         String title = scanner.nextLine();
-        executeSearch("searchByTitle", "<arg0>" + escapeXml(title) + "</arg0>");
+        executeSearch("searchByTitle", "<arg0>" + escapeXml(title) + "</arg0>" + orderParam());
     }
 
     private void searchByGenre() {
         System.out.print("Escriba el género: ");
         String genre = scanner.nextLine();
-        executeSearch("searchByGenre", "<arg0>" + escapeXml(genre) + "</arg0>");
+        executeSearch("searchByGenre", "<arg0>" + escapeXml(genre) + "</arg0>" + orderParam());
+    }
+
+    private void searchByYearRange() {
+        System.out.print("Año inicial: ");
+        String from = scanner.nextLine().trim();
+        System.out.print("Año final (Enter para el mismo): ");
+        String to = scanner.nextLine().trim();
+        if (to.isEmpty()) to = from;
+        if (!from.matches("[0-9]+") || !to.matches("[0-9]+")) {
+            System.out.println("Los años deben ser números.");
+            return;
+        }
+        executeSearch("searchByYearRange", "<arg0>" + from + "</arg0><arg1>" + to + "</arg1>");
     }
 
     private void searchByMultipleCriteriaMenu() {
@@ -93,15 +120,159 @@ public class MusicLibraryClient {
 
         String params = "<arg0>" + escapeXml(title) + "</arg0>" +
                         "<arg1>" + escapeXml(genre) + "</arg1>" +
-                        "<arg2>" + escapeXml(author) + "</arg2>";
+                        "<arg2>" + escapeXml(author) + "</arg2>" + orderParam();
         executeSearch("searchByMultipleCriteria", params);
     }
 
     private void showAllSongs() {
-        String params = "<arg0></arg0><arg1></arg1><arg2></arg2>";
+        String params = "<arg0></arg0><arg1></arg1><arg2></arg2>" + orderParam();
         executeSearch("searchByMultipleCriteria", params);
     }
 
+    // <orderBy> opcional: el servidor ordena por título, autor o año antes de responder
+    private String orderParam() {
+        System.out.print("Ordenar por title, author o year, con asc o desc (Enter para el orden del catálogo): ");
+        String order = scanner.nextLine().trim();
+        return order.isEmpty() ? "" : "<orderBy>" + escapeXml(order) + "</orderBy>";
+    }
+
+    // Sugerencias mientras se escribe: cada prefijo pide las más frecuentes al servidor
+    private void autocomplete() {
+        System.out.print("¿Sugerir (t)ítulos o (a)utores? ");
+        boolean titles = !scanner.nextLine().trim().equalsIgnoreCase("a");
+        List<String> suggestions = new ArrayList<>();
+        while (true) {
+            System.out.print("Escriba el comienzo, el número de una sugerencia para buscarla o Enter para volver: ");
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) return;
+
+            if (input.matches("[0-9]+") && Integer.parseInt(input) >= 1 && Integer.parseInt(input) <= suggestions.size()) {
+                String pick = suggestions.get(Integer.parseInt(input) - 1);
+                executeSearch(titles ? "searchByTitle" : "searchByAuthor", "<arg0>" + escapeXml(pick) + "</arg0>");
+                return;
+            }
+
+            String method = titles ? "suggestTitles" : "suggestAuthors";
+            String params = "<arg0>" + escapeXml(input) + "</arg0><limit>" + SUGGESTIONS + "</limit>";
+            try {
+                suggestions = parseSuggestions(sendSOAPRequest(createSOAPRequest(method, params)));
+            } catch (Exception e) {
+                System.out.println("[Music Client]: Error al pedir sugerencias: " + e.getMessage());
+                return;
+            }
+            if (suggestions.isEmpty()) {
+                System.out.println("Sin sugerencias para '" + input + "'.");
+            }
+            for (int i = 0; i < suggestions.size(); i++) {
+                System.out.println("  " + (i + 1) + ") " + suggestions.get(i));
+            }
+        }
+    }
+
+    // Solo viajan los conteos: <return><facet>genre</facet><value>Rock</value><count>12</count></return>
+    private void countByFacet() {
+        System.out.print("Filtro (ej: genre=Rock|Pop; year=1970-1979; !language=English, Enter para todo): ");
+        String filter = scanner.nextLine();
+        try {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(
+                    sendSOAPRequest(createSOAPRequest("facetCounts", "<arg0>" + escapeXml(filter) + "</arg0>"))
+                            .getBytes(StandardCharsets.UTF_8)));
+            NodeList fault = doc.getElementsByTagName("faultstring");
+            if (fault.getLength() > 0) {
+                System.out.println("No se pudo: " + fault.item(0).getTextContent());
+                return;
+            }
+            NodeList nodes = doc.getElementsByTagName("return");
+            String current = null;
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Element element = (Element) nodes.item(i);
+                String facet = element.getElementsByTagName("facet").item(0).getTextContent();
+                if (!facet.equals(current)) {
+                    System.out.println("\n=== Por " + facet + " ===");
+                    current = facet;
+                }
+                System.out.println(element.getElementsByTagName("value").item(0).getTextContent() + ": "
+                        + element.getElementsByTagName("count").item(0).getTextContent());
+            }
+        } catch (Exception e) {
+            System.out.println("[Music Client]: Error al pedir los conteos: " + e.getMessage());
+        }
+    }
+
+    // Cambios al catálogo: la canción se identifica por título y autor
+    private void addSong() {
+        System.out.print("Título: ");
+        String title = scanner.nextLine();
+        System.out.print("Autor: ");
+        String author = scanner.nextLine();
+        String fields = readSongFields(2);
+        if (fields == null) return;
+        executeChange("addSong", "<arg0>" + escapeXml(title) + "</arg0><arg1>" + escapeXml(author) + "</arg1>" + fields,
+                "Canción agregada.");
+    }
+
+    private void updateSong() {
+        System.out.print("Título actual: ");
+        String title = scanner.nextLine();
+        System.out.print("Autor actual: ");
+        String author = scanner.nextLine();
+        System.out.print("Título nuevo (Enter para dejarlo igual): ");
+        String newTitle = scanner.nextLine();
+        System.out.print("Autor nuevo (Enter para dejarlo igual): ");
+        String newAuthor = scanner.nextLine();
+        String fields = readSongFields(4);
+        if (fields == null) return;
+        executeChange("updateSong", "<arg0>" + escapeXml(title) + "</arg0><arg1>" + escapeXml(author) + "</arg1>"
+                + "<arg2>" + escapeXml(newTitle.isBlank() ? title : newTitle) + "</arg2>"
+                + "<arg3>" + escapeXml(newAuthor.isBlank() ? author : newAuthor) + "</arg3>" + fields,
+                "Canción actualizada.");
+    }
+
+    private void deleteSong() {
+        System.out.print("Título: ");
+        String title = scanner.nextLine();
+        System.out.print("Autor: ");
+        String author = scanner.nextLine();
+        executeChange("deleteSong", "<arg0>" + escapeXml(title) + "</arg0><arg1>" + escapeXml(author) + "</arg1>",
+                "Canción borrada.");
+    }
+
+    // Género, idioma y año como <argN>, <argN+1> y <argN+2>; null si el año no es un número
+    private String readSongFields(int first) {
+        System.out.print("Género: ");
+        String genre = scanner.nextLine();
+        System.out.print("Idioma: ");
+        String language = scanner.nextLine();
+        System.out.print("Año: ");
+        String year = scanner.nextLine().trim();
+        if (!year.matches("[0-9]{1,4}")) {
+            System.out.println("El año debe ser un número.");
+            return null;
+        }
+        return "<arg" + first + ">" + escapeXml(genre) + "</arg" + first + ">"
+                + "<arg" + (first + 1) + ">" + escapeXml(language) + "</arg" + (first + 1) + ">"
+                + "<arg" + (first + 2) + ">" + year + "</arg" + (first + 2) + ">";
+    }
+
+    // El servidor responde <return>true</return>, false si la canción no existe, o un Fault con el motivo
+    private void executeChange(String method, String parameters, String done) {
+        try {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(
+                    sendSOAPRequest(createSOAPRequest(method, parameters)).getBytes(StandardCharsets.UTF_8)));
+            NodeList fault = doc.getElementsByTagName("faultstring");
+            NodeList result = doc.getElementsByTagName("return");
+            if (fault.getLength() > 0) {
+                System.out.println("No se pudo: " + fault.item(0).getTextContent());
+            } else if (result.getLength() > 0 && result.item(0).getTextContent().equals("true")) {
+                System.out.println(done);
+            } else {
+                System.out.println("No existe esa canción.");
+            }
+        } catch (Exception e) {
+            System.out.println("[Music Client]: Error al enviar el cambio: " + e.getMessage());
+        }
+    }
+
     // Centraliza ejecución de búsqueda
     private void executeSearch(String method, String parameters) {
         String soapRequest = createSOAPRequest(method, parameters);
@@ -188,6 +359,17 @@ public class MusicLibraryClient {
         return songs;
     }
 
+    private List<String> parseSuggestions(String xmlResponse) throws Exception {
+        List<String> suggestions = new ArrayList<>();
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        Document doc = builder.parse(new ByteArrayInputStream(xmlResponse.getBytes(StandardCharsets.UTF_8)));
+        NodeList nodes = doc.getElementsByTagName("return");
+        for (int i = 0; i < nodes.getLength(); i++) {
+            suggestions.add(nodes.item(i).getTextContent());
+        }
+        return suggestions;
+    }
+
     // Muestra en consola los resultados
     private void displayResults(List<Song> results) {
         System.out.println("\n=== RESULTADOS DE LA BÚSQUEDA ===");
@@ -6,6 +6,9 @@ public class Song {
     private String language;
     private int year;
 
+    public Song() {
+    }
+
     public Song(String title, String genre, String author, String language, int year) {
         this.title = title;
         this.genre = genre;
@@ -19,4 +22,10 @@ public class Song {
     public String getAuthor() { return author; }
     public String getLanguage() { return language; }
     public int getYear() { return year; }
+
+    public void setTitle(String title) { this.title = title; }
+    public void setGenre(String genre) { this.genre = genre; }
+    public void setAuthor(String author) { this.author = author; }
+    public void setLanguage(String language) { this.language = language; }
+    public void setYear(int year) { this.year = year; }
 }
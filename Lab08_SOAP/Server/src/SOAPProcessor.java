@@ -3,9 +3,13 @@ package soapserver;
 import org.w3c.dom.*;
 import javax.xml.parsers.*;
 import java.io.ByteArrayInputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Map;
 
 public class SOAPProcessor {
+    private static final int DEFAULT_SUGGESTIONS = 10;
+
     private final SongService songService;
 
     public SOAPProcessor(SongService songService) {
@@ -19,7 +23,9 @@ public class SOAPProcessor {
             DocumentBuilder builder = factory.newDocumentBuilder();
             Document doc = builder.parse(new ByteArrayInputStream(soapRequest.getBytes()));
 
-            String[] possibleMethods = {"searchByTitle", "searchByGenre", "searchByAuthor", "searchByMultipleCriteria"};
+            String[] possibleMethods = {"searchByTitle", "searchByGenre", "searchByAuthor", "searchByMultipleCriteria",
+                    "suggestTitles", "suggestAuthors", "searchByTitleFuzzy", "searchByAuthorFuzzy",
+                    "searchByYearRange", "addSong", "updateSong", "deleteSong", "facetCounts"};
 
             NodeList methodNodes = doc.getElementsByTagName("*");
             for (int i = 0; i < methodNodes.getLength(); i++) {
@@ -29,26 +35,101 @@ public class SOAPProcessor {
                 for (String method : possibleMethods) {
                     if (method.equals(localName)) {
                         switch (method) {
-                            case "searchByTitle":
-                                return createSOAPResponse(songService.searchByTitle(getParameterValue(element, "arg0")), "searchByTitleResponse");
+                            case "searchByTitle": {
+                                String title = getParameterValue(element, "arg0");
+                                int limit = getLimit(element);
+                                String orderBy = getOrderBy(element);
+                                return createSOAPResponse(orderBy != null ? songService.searchByTitle(title, orderBy, limit)
+                                        : limit > 0 ? songService.searchByTitle(title, limit)
+                                        : songService.searchByTitle(title), "searchByTitleResponse");
+                            }
+
+                            case "searchByGenre": {
+                                String genre = getParameterValue(element, "arg0");
+                                int limit = getLimit(element);
+                                String orderBy = getOrderBy(element);
+                                return createSOAPResponse(orderBy != null ? songService.searchByGenre(genre, orderBy, limit)
+                                        : limit > 0 ? songService.searchByGenre(genre, limit)
+                                        : songService.searchByGenre(genre), "searchByGenreResponse");
+                            }
+
+                            case "searchByAuthor": {
+                                String author = getParameterValue(element, "arg0");
+                                int limit = getLimit(element);
+                                String orderBy = getOrderBy(element);
+                                return createSOAPResponse(orderBy != null ? songService.searchByAuthor(author, orderBy, limit)
+                                        : limit > 0 ? songService.searchByAuthor(author, limit)
+                                        : songService.searchByAuthor(author), "searchByAuthorResponse");
+                            }
+
+                            case "searchByTitleFuzzy":
+                                return createSOAPResponse(songService.searchByTitleFuzzy(
+                                        getParameterValue(element, "arg0"), getMaxEdits(element)), "searchByTitleFuzzyResponse");
+
+                            case "searchByAuthorFuzzy":
+                                return createSOAPResponse(songService.searchByAuthorFuzzy(
+                                        getParameterValue(element, "arg0"), getMaxEdits(element)), "searchByAuthorFuzzyResponse");
+
+                            // arg0 y arg1: años inicial y final, inclusive
+                            case "searchByYearRange":
+                                return createSOAPResponse(songService.searchByYearRange(
+                                        Integer.parseInt(getParameterValue(element, "arg0").trim()),
+                                        Integer.parseInt(getParameterValue(element, "arg1").trim())),
+                                        "searchByYearRangeResponse");
+
+                            // arg0..arg4: título, autor, género, idioma y año
+                            case "addSong":
+                                songService.addSong(getParameterValue(element, "arg0"), getParameterValue(element, "arg1"),
+                                        getParameterValue(element, "arg2"), getParameterValue(element, "arg3"),
+                                        Integer.parseInt(getParameterValue(element, "arg4").trim()));
+                                return createBooleanResponse(true, "addSongResponse");
 
-                            case "searchByGenre":
-                                return createSOAPResponse(songService.searchByGenre(getParameterValue(element, "arg0")), "searchByGenreResponse");
+                            // arg0 y arg1 identifican la canción; arg2..arg6 son sus valores nuevos
+                            case "updateSong":
+                                return createBooleanResponse(songService.updateSong(
+                                        getParameterValue(element, "arg0"), getParameterValue(element, "arg1"),
+                                        getParameterValue(element, "arg2"), getParameterValue(element, "arg3"),
+                                        getParameterValue(element, "arg4"), getParameterValue(element, "arg5"),
+                                        Integer.parseInt(getParameterValue(element, "arg6").trim())), "updateSongResponse");
 
-                            case "searchByAuthor":
-                                return createSOAPResponse(songService.searchByAuthor(getParameterValue(element, "arg0")), "searchByAuthorResponse");
+                            case "deleteSong":
+                                return createBooleanResponse(songService.deleteSong(
+                                        getParameterValue(element, "arg0"), getParameterValue(element, "arg1")),
+                                        "deleteSongResponse");
+
+                            // arg0: filtro de facetas; vacío cuenta todo el catálogo
+                            case "facetCounts":
+                                return createFacetResponse(songService.facetCounts(getParameterValue(element, "arg0")),
+                                        "facetCountsResponse");
+
+                            case "suggestTitles":
+                                return createSuggestionResponse(songService.suggestTitles(
+                                        getParameterValue(element, "arg0"), getSuggestionLimit(element)), "suggestTitlesResponse");
+
+                            case "suggestAuthors":
+                                return createSuggestionResponse(songService.suggestAuthors(
+                                        getParameterValue(element, "arg0"), getSuggestionLimit(element)), "suggestAuthorsResponse");
 
                             case "searchByMultipleCriteria":
                                 return createSOAPResponse(
                                         songService.searchByMultipleCriteria(
                                                 getParameterValue(element, "arg0"),
                                                 getParameterValue(element, "arg1"),
-                                                getParameterValue(element, "arg2")),
+                                                getParameterValue(element, "arg2"),
+                                                getOrderBy(element)),
                                         "searchByMultipleCriteriaResponse");
                         }
                     }
                 }
             }
+        } catch (NumberFormatException e) {
+            return createSOAPFault("Invalid number: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            // un cambio rechazado (canción repetida, sin título...) le llega al cliente con su motivo
+            return createSOAPFault(e.getMessage());
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+            return createSOAPFault("The change could not be saved");
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -63,6 +144,23 @@ public class SOAPProcessor {
         return "";
     }
 
+    // Parámetro opcional <limit>: si viene, la búsqueda devuelve solo las mejores coincidencias
+    private int getLimit(Element methodElement) {
+        String limit = getParameterValue(methodElement, "limit").trim();
+        if (limit.isEmpty()) return 0;
+        try {
+            return Math.max(0, Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Parámetro opcional <orderBy>: "title", "author" o "year", con "asc" o "desc"; null si no viene
+    private String getOrderBy(Element methodElement) {
+        String orderBy = getParameterValue(methodElement, "orderBy").trim();
+        return orderBy.isEmpty() ? null : orderBy;
+    }
+
     private String createSOAPResponse(List<Song> songs, String methodName) {
         StringBuilder response = new StringBuilder();
         response.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
@@ -86,6 +184,69 @@ public class SOAPProcessor {
         return response.toString();
     }
 
+    // Parámetro opcional <maxEdits> (0 a 2); por defecto se aceptan dos errores por palabra
+    private int getMaxEdits(Element methodElement) {
+        String maxEdits = getParameterValue(methodElement, "maxEdits").trim();
+        try {
+            return maxEdits.isEmpty() ? 2 : Math.max(0, Math.min(2, Integer.parseInt(maxEdits)));
+        } catch (NumberFormatException e) {
+            return 2;
+        }
+    }
+
+    private int getSuggestionLimit(Element methodElement) {
+        int limit = getLimit(methodElement);
+        return limit > 0 ? limit : DEFAULT_SUGGESTIONS;
+    }
+
+    private String createSuggestionResponse(List<String> suggestions, String methodName) {
+        StringBuilder response = new StringBuilder();
+        response.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        response.append("<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">");
+        response.append("<soap:Body>");
+        response.append("<ns2:").append(methodName).append(" xmlns:ns2=\"http://service.musiclibrary.com/\">");
+        for (String suggestion : suggestions) {
+            response.append("<return>").append(SOAPUtils.escapeXml(suggestion)).append("</return>");
+        }
+        response.append("</ns2:").append(methodName).append(">");
+        response.append("</soap:Body>");
+        response.append("</soap:Envelope>");
+        return response.toString();
+    }
+
+    // Un <return> por valor: <facet>genre</facet><value>Rock</value><count>12</count>
+    private String createFacetResponse(Map<String, Map<String, Integer>> counts, String methodName) {
+        StringBuilder response = new StringBuilder();
+        response.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        response.append("<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">");
+        response.append("<soap:Body>");
+        response.append("<ns2:").append(methodName).append(" xmlns:ns2=\"http://service.musiclibrary.com/\">");
+        for (Map.Entry<String, Map<String, Integer>> facet : counts.entrySet()) {
+            for (Map.Entry<String, Integer> value : facet.getValue().entrySet()) {
+                response.append("<return>");
+                response.append("<facet>").append(facet.getKey()).append("</facet>");
+                response.append("<value>").append(SOAPUtils.escapeXml(value.getKey())).append("</value>");
+                response.append("<count>").append(value.getValue()).append("</count>");
+                response.append("</return>");
+            }
+        }
+        response.append("</ns2:").append(methodName).append(">");
+        response.append("</soap:Body>");
+        response.append("</soap:Envelope>");
+        return response.toString();
+    }
+
+    private String createBooleanResponse(boolean value, String methodName) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
+                "<soap:Body>" +
+                "<ns2:" + methodName + " xmlns:ns2=\"http://service.musiclibrary.com/\">" +
+                "<return>" + value + "</return>" +
+                "</ns2:" + methodName + ">" +
+                "</soap:Body>" +
+                "</soap:Envelope>";
+    }
+
     private String createSOAPFault(String message) {
         return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
                 "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">" +
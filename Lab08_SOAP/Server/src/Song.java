@@ -1,3 +1,4 @@
+package soapserver;
 
 public class Song {
     private String title;
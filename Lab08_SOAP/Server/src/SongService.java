@@ -1,82 +1,162 @@
 package soapserver;
 
-import java.util.ArrayList;
+import songengine.FacetFilter;
+import songengine.SongCatalog;
+import songengine.SongFactory;
+import songengine.SongField;
+import songengine.SongOrder;
+import songengine.SongRepository;
+import songengine.SongTable;
+import songengine.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 public class SongService {
-    private List<Song> database;
+    // Las búsquedas las resuelve el motor compartido con los otros servidores
+    private static final Path LOG_FILE = Path.of("songs.wal");   // altas, cambios y bajas sobre el catálogo inicial
+
+    private final SongRepository<Song> repository;
 
     public SongService() {
-        initializeDatabase();
-    }
-
-    private void initializeDatabase() {
-        database = new ArrayList<>();
-        database.add(new Song("One bite on the Dust", "Rock", "Queen", "English", 1975));
-        database.add(new Song("Bohemian Rhapsody", "Rock", "Queen", "English", 1975));
-        database.add(new Song("Hotel California", "Rock", "Eagles", "English", 1976));
-        database.add(new Song("Imagine", "Pop", "John Lennon", "English", 1971));
-        database.add(new Song("Like a Rolling Stone", "Rock", "Bob Dylan", "English", 1965));
-        database.add(new Song("Smells Like Teen Spirit", "Grunge", "Nirvana", "English", 1991));
-        database.add(new Song("Billie Jean", "Pop", "Michael Jackson", "English", 1983));
-        database.add(new Song("Satisfaction", "Rock", "The Rolling Stones", "English", 1965));
-        database.add(new Song("Hey Jude", "Pop", "The Beatles", "English", 1968));
-        database.add(new Song("Purple Haze", "Rock", "Jimi Hendrix", "English", 1967));
-        database.add(new Song("Stairway to Heaven", "Rock", "Led Zeppelin", "English", 1971));
-        database.add(new Song("La Vida es Una Fiesta", "Salsa", "Celia Cruz", "Spanish", 1982));
-        database.add(new Song("Despacito", "Reggaeton", "Luis Fonsi", "Spanish", 2017));
-        database.add(new Song("Careless Whisper", "Pop", "George Michael", "English", 1984));
-        database.add(new Song("Sweet Child O' Mine", "Rock", "Guns N' Roses", "English", 1987));
-        database.add(new Song("Thunderstruck", "Rock", "AC/DC", "English", 1990));
+        SongTable.Builder database = new SongTable.Builder();
+        initializeDatabase(database);
+        SongTable table = database.build();
+        // autores, géneros e idiomas repetidos se guardan una vez y los comparten todos los resultados
+        System.out.println("[SongService]: " + table.size() + " canciones, " + table.distinctValues(SongField.AUTHOR)
+                + " autores, " + table.distinctValues(SongField.GENRE) + " géneros, "
+                + table.distinctValues(SongField.LANGUAGE) + " idiomas; ~" + table.dictionarySavedBytes()
+                + " bytes de heap ahorrados con los diccionarios.");
+        // columnas e índices quedan fuera del heap; en el heap solo se arman los resultados
+        repository = openRepository(SongCatalog.buildOffHeap(table));
     }
 
-    public List<Song> searchByTitle(String title) {
-        List<Song> results = new ArrayList<>();
-        for (Song song : database) {
-            if (song.getTitle().toLowerCase().contains(title.toLowerCase())) {
-                results.add(song);
-            }
+    // Los cambios se reaplican desde el registro; sin él se aceptan igual, pero se pierden al reiniciar
+    private SongRepository<Song> openRepository(SongCatalog catalog) {
+        SongFactory<Song> factory = (title, author, genre, language, year) -> new Song(title, genre, author, language, year);
+        try {
+            return new SongRepository<>(catalog, factory, WriteAheadLog.open(LOG_FILE));
+        } catch (IOException e) {
+            System.out.println("[SongService]: No se pudo abrir " + LOG_FILE + ", los cambios no serán durables: " + e);
+            return new SongRepository<>(catalog, factory);
         }
-        return results;
+    }
+
+    private void initializeDatabase(SongTable.Builder database) {
+        database.add("One bite on the Dust", "Queen", "Rock", "English", 1975);
+        database.add("Bohemian Rhapsody", "Queen", "Rock", "English", 1975);
+        database.add("Hotel California", "Eagles", "Rock", "English", 1976);
+        database.add("Imagine", "John Lennon", "Pop", "English", 1971);
+        database.add("Like a Rolling Stone", "Bob Dylan", "Rock", "English", 1965);
+        database.add("Smells Like Teen Spirit", "Nirvana", "Grunge", "English", 1991);
+        database.add("Billie Jean", "Michael Jackson", "Pop", "English", 1983);
+        database.add("Satisfaction", "The Rolling Stones", "Rock", "English", 1965);
+        database.add("Hey Jude", "The Beatles", "Pop", "English", 1968);
+        database.add("Purple Haze", "Jimi Hendrix", "Rock", "English", 1967);
+        database.add("Stairway to Heaven", "Led Zeppelin", "Rock", "English", 1971);
+        database.add("La Vida es Una Fiesta", "Celia Cruz", "Salsa", "Spanish", 1982);
+        database.add("Despacito", "Luis Fonsi", "Reggaeton", "Spanish", 2017);
+        database.add("Careless Whisper", "George Michael", "Pop", "English", 1984);
+        database.add("Sweet Child O' Mine", "Guns N' Roses", "Rock", "English", 1987);
+        database.add("Thunderstruck", "AC/DC", "Rock", "English", 1990);
+    }
+
+    public List<Song> searchByTitle(String title) {
+        return repository.searchByTitle(title);
     }
 
     public List<Song> searchByGenre(String genre) {
-        List<Song> results = new ArrayList<>();
-        for (Song song : database) {
-            if (song.getGenre().toLowerCase().contains(genre.toLowerCase())) {
-                results.add(song);
-            }
-        }
-        return results;
+        return repository.searchByGenre(genre);
     }
 
     public List<Song> searchByAuthor(String author) {
-        List<Song> results = new ArrayList<>();
-        for (Song song : database) {
-            if (song.getAuthor().toLowerCase().contains(author.toLowerCase())) {
-                results.add(song);
-            }
-        }
-        return results;
-    }
-
-    public List<Song> searchByMultipleCriteria(String title, String genre, String author) {
-        List<Song> results = new ArrayList<>();
-        for (Song song : database) {
-            boolean matches = true;
-            if (title != null && !title.isEmpty() && !song.getTitle().toLowerCase().contains(title.toLowerCase())) {
-                matches = false;
-            }
-            if (genre != null && !genre.isEmpty() && !song.getGenre().toLowerCase().contains(genre.toLowerCase())) {
-                matches = false;
-            }
-            if (author != null && !author.isEmpty() && !song.getAuthor().toLowerCase().contains(author.toLowerCase())) {
-                matches = false;
-            }
-            if (matches) {
-                results.add(song);
-            }
-        }
-        return results;
+        return repository.searchByAuthor(author);
+    }
+
+    // Variantes con ranking: solo las "limit" coincidencias más relevantes
+    public List<Song> searchByTitle(String title, int limit) {
+        return repository.searchTop(SongField.TITLE, title, limit);
+    }
+
+    public List<Song> searchByGenre(String genre, int limit) {
+        return repository.searchTop(SongField.GENRE, genre, limit);
+    }
+
+    public List<Song> searchByAuthor(String author, int limit) {
+        return repository.searchTop(SongField.AUTHOR, author, limit);
+    }
+
+    // Variantes ordenadas: orderBy es "title", "author" o "year", con "asc" o "desc" ("year desc").
+    // Con limit > 0 solo se ordenan y devuelven las primeras "limit"
+    public List<Song> searchByTitle(String title, String orderBy, int limit) {
+        return sorted(SongField.TITLE, title, orderBy, limit);
+    }
+
+    public List<Song> searchByGenre(String genre, String orderBy, int limit) {
+        return sorted(SongField.GENRE, genre, orderBy, limit);
+    }
+
+    public List<Song> searchByAuthor(String author, String orderBy, int limit) {
+        return sorted(SongField.AUTHOR, author, orderBy, limit);
+    }
+
+    // Búsqueda tolerante a errores de tipeo (hasta maxEdits ediciones por palabra)
+    public List<Song> searchByTitleFuzzy(String title, int maxEdits) {
+        return repository.searchFuzzy(SongField.TITLE, title, maxEdits);
+    }
+
+    public List<Song> searchByAuthorFuzzy(String author, int maxEdits) {
+        return repository.searchFuzzy(SongField.AUTHOR, author, maxEdits);
+    }
+
+    // Canciones entre dos años (inclusive), en orden cronológico
+    public List<Song> searchByYearRange(int from, int to) {
+        return repository.searchByYearRange(from, to);
+    }
+
+    // Autocompletado: títulos o autores que empiezan con el prefijo, los más frecuentes primero
+    public List<String> suggestTitles(String prefix, int limit) {
+        return repository.complete(SongField.TITLE, prefix, limit);
+    }
+
+    public List<String> suggestAuthors(String prefix, int limit) {
+        return repository.complete(SongField.AUTHOR, prefix, limit);
+    }
+
+    // Cuántas canciones del filtro (ej: "genre=Rock|Pop; year=1970-1979") hay por género, idioma y década
+    public Map<String, Map<String, Integer>> facetCounts(String filter) {
+        return repository.facetCounts(FacetFilter.parse(filter));
+    }
+
+    // Cambios: una canción se identifica por título y autor, y queda en disco antes de responder
+    public void addSong(String title, String author, String genre, String language, int year) {
+        repository.add(title, author, genre, language, year);
+    }
+
+    public boolean updateSong(String title, String author, String newTitle, String newAuthor, String genre,
+                              String language, int year) {
+        return repository.update(title, author, newTitle, newAuthor, genre, language, year);
+    }
+
+    public boolean deleteSong(String title, String author) {
+        return repository.delete(title, author);
+    }
+
+    // Los criterios vacíos se omiten; el planificador del motor empieza por el más selectivo.
+    // orderBy null deja el orden del catálogo
+    public List<Song> searchByMultipleCriteria(String title, String genre, String author, String orderBy) {
+        Map<SongField, String> criteria = new EnumMap<>(SongField.class);
+        criteria.put(SongField.TITLE, title);
+        criteria.put(SongField.GENRE, genre);
+        criteria.put(SongField.AUTHOR, author);
+        return repository.searchByCriteria(criteria, SongOrder.parse(orderBy));
+    }
+
+    private List<Song> sorted(SongField field, String query, String orderBy, int limit) {
+        return repository.searchPage(field, query, 0, limit > 0 ? limit : Integer.MAX_VALUE, SongOrder.parse(orderBy)).items();
     }
 }
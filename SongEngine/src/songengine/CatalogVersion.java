@@ -0,0 +1,739 @@
+package songengine;
+
+import java.nio.IntBuffer;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Versión del catálogo que ven las consultas (MVCC): una base indexada e
+ * inmutable, las filas que se borraron (lápidas) y un delta con las canciones
+ * agregadas desde entonces. Cada cambio arma una versión nueva que comparte la
+ * base y sus índices con la anterior. El delta se guarda en tramos de
+ * {@link #SEGMENT_ROWS} filas: un tramo lleno se indexa una sola vez, cuando
+ * una consulta lo necesita, y lo comparten todas las versiones siguientes; solo
+ * la cola (el tramo a medio llenar) se vuelve a indexar en cada versión. Las
+ * filas del delta no se tocan: borrar una le pone su lápida y cambiarla,
+ * además, agrega la fila nueva al final.
+ *
+ * Cuando lápidas y delta llegan a un octavo de la base (y al menos a
+ * {@link #COMPACT_ROWS} filas) conviene compactar: {@link #compact()} arma una
+ * base nueva con las filas vivas. Es caro y no modifica esta versión, así que
+ * {@link SongRepository} lo hace en otro hilo.
+ *
+ * Los ordinales de la base van primero y los del delta siguen desde
+ * base.size(); las búsquedas devuelven solo filas vivas, en el mismo orden que
+ * tendrían en una base compactada.
+ */
+public class CatalogVersion {
+    static final int COMPACT_ROWS = 4096;
+    static final int COMPACT_FRACTION = 8;   // se compacta cuando los cambios llegan a base / 8
+    static final int SEGMENT_ROWS = 1024;
+
+    private final long version;
+    private final SongCatalog base;
+    private final Tombstones deleted;    // ordinales borrados, de la base y del delta
+    private final int deletedCount;
+    private final int baseDeletedCount;
+    private final List<Segment> segments;   // tramos llenos del delta, en orden de llegada
+    private final List<Row> tail;           // filas del delta después del último tramo lleno
+    private volatile SongCatalog tailCatalog;    // índices de la cola, se arman al primer uso
+    private final ReentrantLock building = new ReentrantLock();   // arma tailCatalog sin clavar hilos virtuales
+    private volatile List<Part> parts;           // catálogos del delta con su primer ordinal
+    private volatile RoaringBitmap tombstones;   // lápidas de la base como bitmap, para los conteos
+
+    private CatalogVersion(long version, SongCatalog base, Tombstones deleted, int baseDeletedCount, List<Segment> segments,
+                           List<Row> tail) {
+        this.version = version;
+        this.base = base;
+        this.deleted = deleted;
+        this.deletedCount = deleted.count();
+        this.baseDeletedCount = baseDeletedCount;
+        this.segments = segments;
+        this.tail = tail;
+    }
+
+    public static CatalogVersion of(SongCatalog base) {
+        return of(base, 0);
+    }
+
+    static CatalogVersion of(SongCatalog base, long version) {
+        return new CatalogVersion(version, base, Tombstones.NONE, 0, List.of(), List.of());
+    }
+
+    /** Número de versión: crece con cada cambio, así se publica siempre la más nueva. */
+    public long version() {
+        return version;
+    }
+
+    public SongCatalog base() {
+        return base;
+    }
+
+    /** Si no hay cambios sobre la base: las consultas van directo a sus índices. */
+    public boolean isCompact() {
+        return deletedCount == 0 && deltaSize() == 0;
+    }
+
+    public int size() {
+        return base.size() + deltaSize() - deletedCount;
+    }
+
+    public <T> T song(int ord, SongFactory<T> factory) {
+        if (ord < base.size()) return base.table().song(ord, factory);
+        Row row = row(ord - base.size());
+        return factory.create(row.title(), row.author(), row.genre(), row.language(), row.year());
+    }
+
+    public <T> List<T> songs(int[] ords, SongFactory<T> factory) {
+        if (deltaSize() == 0) return base.table().songs(ords, ords.length, factory);
+        List<T> result = new ArrayList<>(ords.length);
+        for (int ord : ords) result.add(song(ord, factory));
+        return result;
+    }
+
+    /** Ordinales de las canciones vivas en las posiciones [offset, offset + limit). */
+    public int[] page(int offset, int limit) {
+        int end = (int) Math.min(size(), (long) offset + limit);
+        int[] ords = new int[Math.max(0, end - offset)];
+        if (ords.length == 0) return ords;
+        int ord = offset;
+        if (deletedCount > 0) {
+            ord = deleted.nextClearBit(0);
+            for (int skipped = 0; skipped < offset; skipped++) ord = deleted.nextClearBit(ord + 1);
+        }
+        for (int n = 0; n < ords.length; n++) {
+            ords[n] = ord;
+            ord = deletedCount > 0 ? deleted.nextClearBit(ord + 1) : ord + 1;
+        }
+        return ords;
+    }
+
+    /**
+     * Ordinales de las posiciones [offset, offset + limit) del catálogo en el
+     * orden pedido. Sale de los órdenes completos que guardan la base y cada
+     * tramo del delta, intercalados; una página cuesta lo que mide y no lo que
+     * mide el catálogo.
+     */
+    public int[] page(int offset, int limit, SongOrder order) {
+        int end = (int) Math.min(size(), (long) offset + limit);
+        if (offset >= end) return new int[0];
+        IntBuffer sorted = base.sorted(order);
+        if (isCompact()) {
+            int[] page = new int[end - offset];
+            sorted.get(offset, page);
+            return page;
+        }
+        List<Source> sources = new ArrayList<>();
+        sources.add(new Source(sorted, 0));
+        for (Part part : parts()) sources.add(new Source(part.catalog().sorted(order), part.start()));
+        return merge(sources, comparator(order), offset, end - offset);
+    }
+
+    /**
+     * Los primeros "limit" ordinales (de esta versión) en el orden pedido. Cada
+     * catálogo ordena los suyos con sus rangos y se intercalan ubicando las
+     * filas del delta entre los rangos de la base.
+     */
+    public int[] sort(int[] ords, SongOrder order, int limit) {
+        if (deltaSize() == 0) return base.sort(ords, order, limit);
+        List<Part> parts = parts();
+        SongTable.IntList[] split = new SongTable.IntList[parts.size() + 1];
+        for (int i = 0; i < split.length; i++) split[i] = new SongTable.IntList();
+        for (int ord : ords) {
+            if (ord < base.size()) split[0].add(ord);
+            else split[1 + (ord - base.size()) / SEGMENT_ROWS].add(ord - parts.get((ord - base.size()) / SEGMENT_ROWS).start());
+        }
+        List<Source> sources = new ArrayList<>(split.length);
+        sources.add(new Source(IntBuffer.wrap(base.sort(split[0].toArray(), order, limit)), 0));
+        for (int i = 0; i < parts.size(); i++) {
+            Part part = parts.get(i);
+            sources.add(new Source(IntBuffer.wrap(part.catalog().sort(split[i + 1].toArray(), order, limit)), part.start()));
+        }
+        return merge(sources, comparator(order), 0, limit);
+    }
+
+    public int[] search(SongField field, String query) {
+        return both(catalog -> catalog.search(field, query));
+    }
+
+    public int[] searchFuzzy(SongField field, String query, int maxEdits) {
+        return both(catalog -> catalog.searchFuzzy(field, query, maxEdits));
+    }
+
+    public int[] searchPhonetic(SongField field, String query) {
+        return both(catalog -> catalog.searchPhonetic(field, query));
+    }
+
+    public int[] searchByYear(int year) {
+        return both(catalog -> catalog.searchByYear(year));
+    }
+
+    public int[] searchByFilter(FacetFilter filter) {
+        return both(catalog -> catalog.searchByFilter(filter));
+    }
+
+    /** Filas que cumplen la consulta; cada catálogo usa su propio plan compilado. */
+    public int[] search(SongQuery query) {
+        return both(query::rows);
+    }
+
+    /** Como {@link SongCatalog#searchByCriteria}: null si no hay criterios. */
+    public int[] searchByCriteria(Map<SongField, String> criteria) {
+        return both(catalog -> catalog.searchByCriteria(criteria));
+    }
+
+    /**
+     * Conteos por faceta de las canciones vivas que pasan el filtro: los de
+     * cada catálogo sin sus lápidas, sumados por valor.
+     */
+    public Map<String, Map<String, Integer>> facetCounts(FacetFilter filter) {
+        if (isCompact()) return base.facetCounts(filter);
+        List<Map<String, Map<String, Integer>>> counts = new ArrayList<>();
+        counts.add(liveCounts(base, baseDeletedCount > 0 ? tombstones() : null, filter));
+        for (Part part : parts()) counts.add(liveCounts(part.catalog(), dead(part), filter));
+        return counts.size() == 1 ? counts.get(0) : FacetIndex.sum(counts);
+    }
+
+    /** Rango de años en orden cronológico: se intercalan base y delta por año. */
+    public int[] searchByYearRange(int from, int to) {
+        int[] fromBase = base.searchByYearRange(from, to);
+        if (isCompact()) return fromBase;
+        List<Source> sources = new ArrayList<>();
+        sources.add(new Source(IntBuffer.wrap(fromBase), 0));
+        for (Part part : parts()) sources.add(new Source(IntBuffer.wrap(part.catalog().searchByYearRange(from, to)), part.start()));
+        return mergeByYear(sources);
+    }
+
+    /**
+     * Las "limit" mejores de la base y del delta, intercaladas por relevancia.
+     * A cada catálogo se le piden "limit" más sus lápidas, porque las borradas
+     * pueden estar entre sus mejores.
+     */
+    public int[] searchTop(SongField field, String query, int limit) {
+        if (isCompact()) return base.searchTop(field, query, limit);
+        List<Source> sources = new ArrayList<>();
+        sources.add(new Source(IntBuffer.wrap(base.searchTop(field, query, plus(limit, baseDeletedCount))), 0));
+        for (Part part : parts()) {
+            int[] top = part.catalog().searchTop(field, query, plus(limit, deadCount(part)));
+            sources.add(new Source(IntBuffer.wrap(top), part.start()));
+        }
+        return merge(sources, (a, b) -> {
+            int comparison = Integer.compare(SongCatalog.relevance(value(field, b), query), SongCatalog.relevance(value(field, a), query));
+            return comparison != 0 ? comparison : Integer.compare(a, b);
+        }, 0, limit);
+    }
+
+    /** Sugerencias de la base que siguen vivas y después las del delta, sin repetir. */
+    public List<String> complete(SongField field, String prefix, int limit) {
+        if (isCompact()) return base.complete(field, prefix, limit);
+        List<String> result = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        complete(base, 0, baseDeletedCount, field, prefix, limit, result, seen);
+        for (Part part : parts()) {
+            if (result.size() >= limit) break;
+            complete(part.catalog(), part.start(), deadCount(part), field, prefix, limit, result, seen);
+        }
+        return result;
+    }
+
+    /** La versión siguiente con el cambio aplicado, o null si la canción a cambiar o borrar no existe. */
+    CatalogVersion apply(Mutation mutation) {
+        Draft draft = new Draft(this);
+        return mutation.applyTo(draft) ? draft.build() : null;
+    }
+
+    boolean needsCompaction() {
+        return deletedCount + deltaSize() >= Math.max(COMPACT_ROWS, base.size() / COMPACT_FRACTION);
+    }
+
+    /**
+     * Las filas vivas en una base nueva, sin delta ni lápidas, con el mismo
+     * número de versión. Recorre y reindexa todo: no se llama con el candado
+     * de escritura tomado.
+     */
+    CatalogVersion compact() {
+        SongTable table = base.table();
+        SongTable.Builder builder = new SongTable.Builder();
+        int total = base.size() + deltaSize();
+        for (int ord = deleted.nextClearBit(0); ord < total; ord = deleted.nextClearBit(ord + 1)) {
+            if (ord < base.size()) {
+                builder.add(table.title(ord), table.author(ord), table.genre(ord), table.language(ord), table.year(ord));
+            } else {
+                Row row = row(ord - base.size());
+                builder.add(row.title(), row.author(), row.genre(), row.language(), row.year());
+            }
+        }
+        // una base fuera del heap se compacta también fuera del heap
+        SongTable compacted = builder.build();
+        SongCatalog catalog = base.isOffHeap() ? SongCatalog.buildOffHeap(compacted) : SongCatalog.build(compacted);
+        catalog.keys();   // los cambios que se reaplican al cambiar la base la buscan por clave
+        return new CatalogVersion(version, catalog, Tombstones.NONE, 0, List.of(), List.of());
+    }
+
+    /**
+     * Clave que identifica una canción: título y autor sin distinguir
+     * mayúsculas ni tildes ("Cómo" y "COMO" de un mismo autor son la misma).
+     */
+    public static String key(String title, String author) {
+        return PhoneticIndex.withoutMarks(TrigramIndex.fold(title)) + '\u0000'
+                + PhoneticIndex.withoutMarks(TrigramIndex.fold(author));
+    }
+
+    /**
+     * Una versión en armado: los cambios se aplican en el lugar y
+     * {@link #build()} la cierra. Un cambio suelto arma una; la reaplicación
+     * del registro usa una sola para todos sus cambios, sin una versión por
+     * cambio. Si un cambio falla (duplicado), el borrador queda como estaba.
+     */
+    static final class Draft {
+        private final long version;
+        private final SongCatalog base;
+        private final Tombstones.Editor deleted;   // copia solo los tramos que borra
+        private int baseDeletedCount;
+        private final List<Segment> segments;
+        private final List<Row> tail;
+
+        Draft(CatalogVersion from) {
+            this(from, from.version + 1);
+        }
+
+        /** Borrador sobre "from" que se cerrará con el número de versión dado. */
+        Draft(CatalogVersion from, long version) {
+            this.version = version;
+            this.base = from.base;
+            this.deleted = from.deleted.edit();
+            this.baseDeletedCount = from.baseDeletedCount;
+            this.segments = new ArrayList<>(from.segments);
+            this.tail = new ArrayList<>(from.tail);
+        }
+
+        /** Agrega una canción; falla si ya hay una con el mismo título y autor. */
+        void add(Row row) {
+            if (find(row.title(), row.author()) >= 0) throw duplicate(row);
+            append(row);
+        }
+
+        /** Agrega la fila tal cual, sin buscar repetidas (ver {@link Mutation.Kind#RESTORE}). */
+        void restore(Row row) {
+            append(row);
+        }
+
+        boolean update(String title, String author, Row row) {
+            int ord = find(title, author);
+            if (ord < 0) return false;
+            int other = find(row.title(), row.author());
+            if (other >= 0 && other != ord) throw duplicate(row);
+            kill(ord);
+            append(row);
+            return true;
+        }
+
+        boolean delete(String title, String author) {
+            int ord = find(title, author);
+            if (ord < 0) return false;
+            kill(ord);
+            return true;
+        }
+
+        /** Cierra el borrador; no se usa después. */
+        CatalogVersion build() {
+            return new CatalogVersion(version, base, deleted.build(), baseDeletedCount, List.copyOf(segments), List.copyOf(tail));
+        }
+
+        // Ordinal de la canción viva con ese título y autor, o -1. Si el catálogo
+        // cargado trae repetidas, la más nueva (el mayor ordinal): compactar no
+        // cambia el orden, así reaplicar el registro elige siempre la misma
+        private int find(String title, String author) {
+            String key = key(title, author);
+            // en el delta solo puede estar viva la última fila que se agregó con esa clave
+            int start = base.size() + segments.size() * SEGMENT_ROWS;
+            int ord = -1;
+            for (int i = tail.size() - 1; i >= 0 && ord < 0; i--) {
+                if (tail.get(i).key.equals(key)) ord = start + i;
+            }
+            for (int s = segments.size() - 1; s >= 0 && ord < 0; s--) {
+                int local = segments.get(s).indexOf(key);
+                if (local >= 0) ord = base.size() + s * SEGMENT_ROWS + local;
+            }
+            if (ord >= 0 && !deleted.get(ord)) return ord;
+
+            SongTable table = base.table();
+            return base.keys().find(key, candidate -> !deleted.get(candidate)
+                    && key.equals(key(table.title(candidate), table.author(candidate))));
+        }
+
+        private void kill(int ord) {
+            if (deleted.set(ord) && ord < base.size()) baseDeletedCount++;
+        }
+
+        private void append(Row row) {
+            tail.add(row);
+            if (tail.size() == SEGMENT_ROWS) {
+                segments.add(new Segment(tail));
+                tail.clear();
+            }
+        }
+    }
+
+    private static IllegalArgumentException duplicate(Row row) {
+        return new IllegalArgumentException("Ya existe \"" + row.title() + "\" de " + row.author());
+    }
+
+    private int deltaSize() {
+        return segments.size() * SEGMENT_ROWS + tail.size();
+    }
+
+    private Row row(int index) {
+        int segment = index / SEGMENT_ROWS;
+        return segment < segments.size() ? segments.get(segment).rows[index % SEGMENT_ROWS] : tail.get(index - segments.size() * SEGMENT_ROWS);
+    }
+
+    // Los tramos y la cola, cada uno con el ordinal (de la versión) de su primera fila
+    private List<Part> parts() {
+        List<Part> current = parts;
+        if (current == null) {
+            List<Part> list = new ArrayList<>(segments.size() + 1);
+            int start = base.size();
+            for (Segment segment : segments) {
+                list.add(new Part(start, segment.catalog()));
+                start += SEGMENT_ROWS;
+            }
+            if (!tail.isEmpty()) list.add(new Part(start, tailCatalog()));
+            parts = current = List.copyOf(list);
+        }
+        return current;
+    }
+
+    private SongCatalog tailCatalog() {
+        SongCatalog current = tailCatalog;
+        if (current == null) {
+            building.lock();
+            try {
+                current = tailCatalog;
+                if (current == null) tailCatalog = current = index(tail);
+            } finally {
+                building.unlock();
+            }
+        }
+        return current;
+    }
+
+    private static SongCatalog index(List<Row> rows) {
+        SongTable.Builder builder = new SongTable.Builder();
+        for (Row row : rows) builder.add(row.title(), row.author(), row.genre(), row.language(), row.year());
+        // la cola cambia con cada escritura: solo se arma lo que las consultas piden
+        return SongCatalog.buildLazy(builder.build());
+    }
+
+    private RoaringBitmap tombstones() {
+        RoaringBitmap current = tombstones;
+        if (current == null) {
+            current = dead(0, base.size());
+            tombstones = current;
+        }
+        return current;
+    }
+
+    // Lápidas de un tramo, en ordinales del tramo; null si no tiene
+    private RoaringBitmap dead(Part part) {
+        return deadCount(part) == 0 ? null : dead(part.start(), part.start() + part.catalog().size());
+    }
+
+    private RoaringBitmap dead(int from, int to) {
+        RoaringBitmap.Builder builder = new RoaringBitmap.Builder();
+        for (int ord = deleted.nextSetBit(from); ord >= 0 && ord < to; ord = deleted.nextSetBit(ord + 1)) builder.add(ord - from);
+        return builder.build();
+    }
+
+    private int deadCount(Part part) {
+        int count = 0;
+        int end = part.start() + part.catalog().size();
+        for (int ord = deleted.nextSetBit(part.start()); ord >= 0 && ord < end; ord = deleted.nextSetBit(ord + 1)) count++;
+        return count;
+    }
+
+    private static Map<String, Map<String, Integer>> liveCounts(SongCatalog catalog, RoaringBitmap dead, FacetFilter filter) {
+        FacetIndex facets = catalog.facets();
+        RoaringBitmap rows = facets.evaluate(filter);
+        return facets.counts(dead == null ? rows : rows.andNot(dead));
+    }
+
+    // La misma consulta sobre la base y cada tramo del delta; null si la base devuelve null
+    private int[] both(Function<SongCatalog, int[]> query) {
+        int[] fromBase = query.apply(base);
+        if (fromBase == null || isCompact()) return fromBase;
+        List<Part> parts = parts();
+        int[][] fromDelta = new int[parts.size()][];
+        int total = fromBase.length;
+        for (int i = 0; i < fromDelta.length; i++) {
+            fromDelta[i] = query.apply(parts.get(i).catalog());
+            total += fromDelta[i].length;
+        }
+        // filas vivas de la base seguidas de las de cada tramo, pasadas a ordinales de la versión
+        int[] ords = new int[total];
+        int n = 0;
+        for (int ord : fromBase) {
+            if (!deleted.get(ord)) ords[n++] = ord;
+        }
+        for (int i = 0; i < fromDelta.length; i++) {
+            int start = parts.get(i).start();
+            for (int local : fromDelta[i]) {
+                if (!deleted.get(start + local)) ords[n++] = start + local;
+            }
+        }
+        return n == ords.length ? ords : Arrays.copyOf(ords, n);
+    }
+
+    // Intercala fuentes ya ordenadas saltando las filas borradas y devuelve las
+    // posiciones [skip, skip + limit); un montículo guarda la fila actual de cada fuente
+    private int[] merge(List<Source> sources, OrdOrder order, int skip, int limit) {
+        int count = sources.size();
+        int[] position = new int[count];
+        int[] current = new int[count];
+        int[] heap = new int[count];
+        int size = 0;
+        for (int s = 0; s < count; s++) {
+            if (advance(sources.get(s), s, position, current)) heap[size++] = s;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) siftDown(heap, i, size, current, order);
+        SongTable.IntList ords = new SongTable.IntList();
+        for (int seen = 0; size > 0 && ords.size() < limit; seen++) {
+            int s = heap[0];
+            if (seen >= skip) ords.add(current[s]);
+            position[s]++;
+            if (!advance(sources.get(s), s, position, current)) heap[0] = heap[--size];
+            siftDown(heap, 0, size, current, order);
+        }
+        return ords.toArray();
+    }
+
+    // Cada fuente ya va por año y, dentro de un año, la base va antes que el delta
+    // y cada tramo antes que el siguiente: se concatenan año por año
+    private int[] mergeByYear(List<Source> sources) {
+        int[] position = new int[sources.size()];
+        SongTable.IntList ords = new SongTable.IntList();
+        while (true) {
+            int year = Integer.MAX_VALUE;
+            boolean more = false;
+            for (int s = 0; s < position.length; s++) {
+                Source source = sources.get(s);
+                if (position[s] < source.rows().limit()) {
+                    year = Math.min(year, year(source.start() + source.rows().get(position[s])));
+                    more = true;
+                }
+            }
+            if (!more) return ords.toArray();
+            for (int s = 0; s < position.length; s++) {
+                Source source = sources.get(s);
+                for (; position[s] < source.rows().limit(); position[s]++) {
+                    int ord = source.start() + source.rows().get(position[s]);
+                    if (year(ord) != year) break;
+                    if (!deleted.get(ord)) ords.add(ord);
+                }
+            }
+        }
+    }
+
+    // Lleva la fuente a su próxima fila viva; false si no le quedan
+    private boolean advance(Source source, int s, int[] position, int[] current) {
+        IntBuffer rows = source.rows();
+        for (int at = position[s]; at < rows.limit(); at++) {
+            int ord = source.start() + rows.get(at);
+            if (!deleted.get(ord)) {
+                position[s] = at;
+                current[s] = ord;
+                return true;
+            }
+        }
+        position[s] = rows.limit();
+        return false;
+    }
+
+    private static void siftDown(int[] heap, int i, int size, int[] current, OrdOrder order) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) return;
+            if (child + 1 < size && order.compare(current[heap[child + 1]], current[heap[child]]) < 0) child++;
+            if (order.compare(current[heap[child]], current[heap[i]]) >= 0) return;
+            int swap = heap[i];
+            heap[i] = heap[child];
+            heap[child] = swap;
+            i = child;
+        }
+    }
+
+    // El orden pedido entre filas de cualquier catálogo: cada una se ubica entre los
+    // rangos de la base (ver CollationIndex#position); dos filas del delta que caen
+    // entre los mismos rangos se comparan por su CollationKey. A igual valor, el ordinal
+    private OrdOrder comparator(SongOrder order) {
+        CollationIndex ranks = base.collation();
+        SongOrder.Key key = order.key();
+        return (a, b) -> {
+            long x = position(ranks, key, a);
+            long y = position(ranks, key, b);
+            int comparison = Long.compare(x, y);
+            if (comparison == 0 && (x & 1) != 0) {
+                comparison = row(a - base.size()).collationKey(key).compareTo(row(b - base.size()).collationKey(key));
+            }
+            if (order.descending()) comparison = -comparison;
+            return comparison != 0 ? comparison : Integer.compare(a, b);
+        };
+    }
+
+    private long position(CollationIndex ranks, SongOrder.Key key, int ord) {
+        return ord < base.size() ? 2L * ranks.value(key, ord) : row(ord - base.size()).position(ranks, key);
+    }
+
+    private int year(int ord) {
+        return ord < base.size() ? base.table().year(ord) : row(ord - base.size()).year();
+    }
+
+    private String value(SongField field, int ord) {
+        if (ord < base.size()) return value(base.table(), field, ord);
+        Row row = row(ord - base.size());
+        return switch (field) {
+            case TITLE -> row.title();
+            case AUTHOR -> row.author();
+            case GENRE -> row.genre();
+            case LANGUAGE -> row.language();
+        };
+    }
+
+    private void complete(SongCatalog catalog, int start, int dead, SongField field, String prefix, int limit,
+                          List<String> result, Set<String> seen) {
+        for (String value : catalog.complete(field, prefix, plus(limit, dead))) {
+            if (result.size() >= limit) break;
+            if ((dead == 0 || isLive(catalog, start, field, value)) && seen.add(TrigramIndex.fold(value))) result.add(value);
+        }
+    }
+
+    // Si alguna fila viva del catálogo tiene exactamente ese valor (sin distinguir mayúsculas)
+    private boolean isLive(SongCatalog catalog, int start, SongField field, String value) {
+        String folded = TrigramIndex.fold(value);
+        for (int ord : catalog.search(field, value)) {
+            if (!deleted.get(start + ord) && folded.equals(TrigramIndex.fold(value(catalog.table(), field, ord)))) return true;
+        }
+        return false;
+    }
+
+    private static int plus(int limit, int extra) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) limit + extra);
+    }
+
+    private static String value(SongTable table, SongField field, int ord) {
+        return switch (field) {
+            case TITLE -> table.title(ord);
+            case AUTHOR -> table.author(ord);
+            case GENRE -> table.genre(ord);
+            case LANGUAGE -> table.language(ord);
+        };
+    }
+
+    // Un tramo lleno del delta: sus filas no cambian y sus índices se arman una sola vez
+    private static final class Segment {
+        private final Row[] rows;
+        private final Map<String, Integer> keys;   // clave -> última fila del tramo con esa clave
+        private volatile SongCatalog catalog;
+        private final ReentrantLock building = new ReentrantLock();
+
+        Segment(List<Row> rows) {
+            this.rows = rows.toArray(new Row[0]);
+            this.keys = new HashMap<>(this.rows.length * 4 / 3 + 1);
+            for (int i = 0; i < this.rows.length; i++) keys.put(this.rows[i].key, i);
+        }
+
+        int indexOf(String key) {
+            Integer index = keys.get(key);
+            return index == null ? -1 : index;
+        }
+
+        SongCatalog catalog() {
+            SongCatalog current = catalog;
+            if (current == null) {
+                building.lock();
+                try {
+                    current = catalog;
+                    if (current == null) catalog = current = index(Arrays.asList(rows));
+                } finally {
+                    building.unlock();
+                }
+            }
+            return current;
+        }
+    }
+
+    private record Part(int start, SongCatalog catalog) {
+    }
+
+    // Posiciones de título y autor de una fila del delta entre los rangos de una base
+    private record Ranked(CollationIndex ranks, long title, long author) {
+    }
+
+    // Filas ya ordenadas de un catálogo y el ordinal de la versión donde empieza
+    private record Source(IntBuffer rows, int start) {
+    }
+
+    private interface OrdOrder {
+        int compare(int a, int b);
+    }
+
+    /** Una canción agregada o con valores nuevos; título y autor la identifican. */
+    static final class Row {
+        private final String title;
+        private final String author;
+        private final String genre;
+        private final String language;
+        private final int year;
+        private final String key;
+        private final CollationKey titleKey;    // para ordenar entre filas del delta
+        private final CollationKey authorKey;
+        private volatile Ranked ranked;         // posiciones contra la última base que se usó
+
+        Row(String title, String author, String genre, String language, int year) {
+            if (title == null || title.isBlank() || author == null || author.isBlank()) {
+                throw new IllegalArgumentException("La canción necesita título y autor");
+            }
+            this.title = title;
+            this.author = author;
+            this.genre = genre == null ? "" : genre;
+            this.language = language == null ? "" : language;
+            this.year = year;
+            this.key = CatalogVersion.key(title, author);
+            Collator collator = SongOrder.collator();
+            this.titleKey = collator.getCollationKey(title);
+            this.authorKey = collator.getCollationKey(author);
+        }
+
+        /**
+         * Posición de la fila entre los rangos de la base (ver {@link CollationIndex#position}).
+         * Título y autor se ubican juntos una vez por base, sin candado: si dos
+         * hilos los calculan a la vez, llegan a los mismos valores.
+         */
+        long position(CollationIndex ranks, SongOrder.Key key) {
+            Ranked current = ranked;
+            if (current == null || current.ranks() != ranks) {
+                ranked = current = new Ranked(ranks, ranks.position(SongOrder.Key.TITLE, title),
+                        ranks.position(SongOrder.Key.AUTHOR, author));
+            }
+            return switch (key) {
+                case TITLE -> current.title();
+                case AUTHOR -> current.author();
+                case YEAR -> 2L * year;
+            };
+        }
+
+        /** Clave de intercalación del título o del autor. */
+        CollationKey collationKey(SongOrder.Key key) {
+            return key == SongOrder.Key.TITLE ? titleKey : authorKey;
+        }
+
+        String title() { return title; }
+        String author() { return author; }
+        String genre() { return genre; }
+        String language() { return language; }
+        int year() { return year; }
+    }
+}
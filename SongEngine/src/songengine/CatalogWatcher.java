@@ -0,0 +1,77 @@
+package songengine;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vigila archivos del catálogo con WatchService y avisa cuando cambian.
+ * Los editores y copias suelen generar varios eventos seguidos, así que el
+ * aviso se da una sola vez cuando el directorio lleva un rato sin cambios.
+ * Todo corre en un hilo daemon aparte; las consultas nunca esperan por él.
+ */
+public class CatalogWatcher implements AutoCloseable {
+    private static final long QUIET_MS = 500;
+
+    private final Path directory;
+    private final Set<String> fileNames;
+    private final Runnable onChange;
+    private final WatchService watchService;
+    private final ScheduledExecutorService scheduler;   // arma los catálogos nuevos
+    private final Thread watcherThread;
+    private ScheduledFuture<?> pending;
+
+    public CatalogWatcher(Path directory, Set<String> fileNames, Runnable onChange) throws IOException {
+        this.directory = directory;
+        this.fileNames = fileNames;
+        this.onChange = onChange;
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "catalog-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watcherThread = new Thread(this::watch, "catalog-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || (context instanceof Path changed && fileNames.contains(changed.toString()))) {
+                        scheduleReload();
+                    }
+                }
+                if (!key.reset()) {
+                    System.out.println("[CatalogWatcher]: El directorio " + directory + " ya no se puede vigilar.");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // cierre normal
+        }
+    }
+
+    // Cada evento pospone la recarga hasta que pase QUIET_MS sin cambios
+    private synchronized void scheduleReload() {
+        if (pending != null) pending.cancel(false);
+        pending = scheduler.schedule(onChange, QUIET_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcherThread.interrupt();
+        scheduler.shutdownNow();
+        watchService.close();
+    }
+}
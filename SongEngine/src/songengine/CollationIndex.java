@@ -0,0 +1,191 @@
+package songengine;
+
+import java.nio.IntBuffer;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Posición de cada título (por fila) y de cada autor (por id del diccionario)
+ * en el orden alfabético del español. Las {@link CollationKey} se calculan una
+ * sola vez al armar el índice, una por valor distinto, y se reducen a su rango:
+ * dos valores que el Collator considera iguales comparten rango. Ordenar es
+ * entonces comparar enteros; el año se usa tal cual.
+ *
+ * Cada fila se ordena por una clave long con el valor arriba y el ordinal
+ * abajo, así los empates quedan en orden de catálogo sin un Comparator. Con
+ * límite se guarda solo un montículo de K claves; el catálogo completo en cada
+ * orden se arma la primera vez que se pagina sin filtro. Lo que crece con las
+ * filas (rangos de títulos y órdenes completos) puede vivir en una
+ * {@link OffHeapArena}.
+ */
+public class CollationIndex {
+    private final SongTable table;
+    private final IntBuffer titleRanks;   // por fila
+    private final int[] authorRanks;      // por id de autor
+    private final IntBuffer titleByRank;  // una fila con cada rango, para ubicar valores de afuera
+    private final int[] authorByRank;     // un id de autor con cada rango
+    private final OffHeapArena arena;     // null: los órdenes completos van al heap
+    private final IntBuffer[] sorted = new IntBuffer[SongOrder.Key.values().length * 2];   // catálogo completo por orden
+    private final ReentrantLock sorting = new ReentrantLock();   // no synchronized: no clava hilos virtuales
+
+    private CollationIndex(SongTable table, IntBuffer titleRanks, int[] authorRanks, IntBuffer titleByRank,
+                           int[] authorByRank, OffHeapArena arena) {
+        this.table = table;
+        this.titleRanks = titleRanks;
+        this.authorRanks = authorRanks;
+        this.titleByRank = titleByRank;
+        this.authorByRank = authorByRank;
+        this.arena = arena;
+    }
+
+    public static CollationIndex build(SongTable table) {
+        StringColumn authors = table.authorDictionary();
+        int[] titleRanks = ranks(table.size(), table::title);
+        int[] authorRanks = ranks(authors.size(), authors::get);
+        return new CollationIndex(table, IntBuffer.wrap(titleRanks), authorRanks, IntBuffer.wrap(byRank(titleRanks)),
+                byRank(authorRanks), null);
+    }
+
+    /** El mismo índice con los rangos de títulos en la arena; los órdenes completos también irán ahí. */
+    CollationIndex offHeap(OffHeapArena arena) {
+        CollationIndex copy = new CollationIndex(table, arena.copy(titleRanks), authorRanks, arena.copy(titleByRank),
+                authorByRank, arena);
+        sorting.lock();
+        try {
+            for (int slot = 0; slot < sorted.length; slot++) {
+                if (sorted[slot] != null) copy.sorted[slot] = arena.copy(sorted[slot]);
+            }
+        } finally {
+            sorting.unlock();
+        }
+        return copy;
+    }
+
+    /** Valor por el que se ordena la fila: rango del título o del autor, o el año. */
+    int value(SongOrder.Key key, int ord) {
+        return switch (key) {
+            case TITLE -> titleRanks.get(ord);
+            case AUTHOR -> authorRanks[table.authorId(ord)];
+            case YEAR -> table.year(ord);
+        };
+    }
+
+    /**
+     * Dónde cae entre los rangos un título o autor que no es de la tabla: 2·r si
+     * el Collator lo considera igual al valor de rango r, o 2·r - 1 si va entre
+     * los rangos r - 1 y r. Comparar 2·rango de una fila con esta posición ubica
+     * filas de otro catálogo (el delta) sin volver a comparar textos.
+     */
+    long position(SongOrder.Key key, String value) {
+        if (key == SongOrder.Key.YEAR) throw new IllegalArgumentException("El año no tiene rangos");
+        Collator collator = SongOrder.collator();
+        boolean title = key == SongOrder.Key.TITLE;
+        int low = 0;
+        int high = title ? titleByRank.limit() : authorByRank.length;
+        int found = 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            String other = title ? table.title(titleByRank.get(middle)) : table.authorDictionary().get(authorByRank[middle]);
+            int comparison = collator.compare(other, value);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+                if (comparison == 0) found = 0;
+            }
+        }
+        return 2L * low - found;
+    }
+
+    /**
+     * Los ordinales en el orden pedido; con limit menor que la cantidad solo
+     * los primeros "limit". No modifica el arreglo recibido.
+     */
+    public int[] sort(int[] ords, SongOrder order, int limit) {
+        if (limit < ords.length / 4) return top(ords, order, limit);
+        long[] keys = new long[ords.length];
+        for (int i = 0; i < ords.length; i++) keys[i] = key(order, ords[i]);
+        Arrays.sort(keys);
+        int[] result = new int[Math.min(limit, ords.length)];
+        for (int i = 0; i < result.length; i++) result[i] = (int) keys[i];
+        return result;
+    }
+
+    /** Todas las filas en el orden pedido; se arma al primer uso y se comparte (solo lectura). */
+    public IntBuffer sorted(SongOrder order) {
+        int slot = order.key().ordinal() * 2 + (order.descending() ? 1 : 0);
+        sorting.lock();
+        try {
+            if (sorted[slot] == null) {
+                int[] all = new int[table.size()];
+                for (int ord = 0; ord < all.length; ord++) all[ord] = ord;
+                int[] rows = sort(all, order, all.length);
+                sorted[slot] = arena == null ? IntBuffer.wrap(rows) : arena.copy(rows);
+            }
+            return sorted[slot].asReadOnlyBuffer();
+        } finally {
+            sorting.unlock();
+        }
+    }
+
+    // Selección parcial: montículo de las K menores claves, con la peor en la raíz
+    private int[] top(int[] ords, SongOrder order, int limit) {
+        long[] heap = new long[limit];
+        int size = 0;
+        for (int ord : ords) {
+            long key = ~key(order, ord);   // invertida: el montículo de RankedSearch guarda las mayores
+            if (size < limit) {
+                heap[size] = key;
+                RankedSearch.siftUp(heap, size++);
+            } else if (key > heap[0]) {
+                heap[0] = key;
+                RankedSearch.siftDown(heap, size);
+            }
+        }
+        Arrays.sort(heap, 0, size);
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) result[i] = (int) ~heap[size - 1 - i];
+        return result;
+    }
+
+    // Valor arriba y ordinal abajo; en orden descendente se invierte solo el valor
+    private long key(SongOrder order, int ord) {
+        int value = value(order.key(), ord);
+        return ((long) (order.descending() ? ~value : value) << 32) | ord;
+    }
+
+    // Rango de cada valor: una CollationKey por valor distinto, ordenadas una vez
+    private static int[] ranks(int count, IntFunction<String> values) {
+        Map<String, Integer> ids = new HashMap<>();
+        int[] valueIds = new int[count];
+        for (int i = 0; i < count; i++) valueIds[i] = ids.computeIfAbsent(values.apply(i), v -> ids.size());
+
+        Collator collator = SongOrder.collator();
+        CollationKey[] keys = new CollationKey[ids.size()];
+        int k = 0;
+        for (String value : ids.keySet()) keys[k++] = collator.getCollationKey(value);
+        Arrays.sort(keys);
+
+        int[] rankOf = new int[keys.length];
+        for (int i = 0, rank = 0; i < keys.length; i++) {
+            if (i > 0 && keys[i].compareTo(keys[i - 1]) != 0) rank++;
+            rankOf[ids.get(keys[i].getSourceString())] = rank;
+        }
+        int[] ranks = new int[count];
+        for (int i = 0; i < count; i++) ranks[i] = rankOf[valueIds[i]];
+        return ranks;
+    }
+
+    private static int[] byRank(int[] ranks) {
+        int distinct = 0;
+        for (int rank : ranks) distinct = Math.max(distinct, rank + 1);
+        int[] byRank = new int[distinct];
+        for (int i = 0; i < ranks.length; i++) byRank[ranks[i]] = i;
+        return byRank;
+    }
+}
@@ -0,0 +1,120 @@
+package songengine;
+
+import java.util.*;
+
+/**
+ * Filtro por facetas de valor exacto (sin distinguir mayúsculas), por ejemplo
+ * género IN (Rock, Pop) AND año entre 1970 y 1979 AND NOT idioma = English.
+ * Cada cláusula se resuelve con los bitmaps de {@link FacetIndex}: los valores
+ * de una cláusula se unen (OR), las cláusulas se intersectan (AND) y las
+ * exclusiones se restan (ANDNOT).
+ */
+public class FacetFilter {
+    private final List<Clause> included = new ArrayList<>();
+    private final List<Clause> excluded = new ArrayList<>();
+    private final List<int[]> yearRanges = new ArrayList<>();
+
+    record Clause(SongField field, List<String> values) {
+    }
+
+    /** Canciones cuyo campo es alguno de los valores dados. */
+    public FacetFilter anyOf(SongField field, String... values) {
+        return anyOf(field, Arrays.asList(values));
+    }
+
+    public FacetFilter anyOf(SongField field, Collection<String> values) {
+        included.add(new Clause(checked(field), List.copyOf(values)));
+        return this;
+    }
+
+    /** Descarta las canciones cuyo campo es alguno de los valores dados. */
+    public FacetFilter noneOf(SongField field, String... values) {
+        return noneOf(field, Arrays.asList(values));
+    }
+
+    public FacetFilter noneOf(SongField field, Collection<String> values) {
+        excluded.add(new Clause(checked(field), List.copyOf(values)));
+        return this;
+    }
+
+    /** Canciones con año en [from, to], ambos incluidos. */
+    public FacetFilter yearBetween(int from, int to) {
+        yearRanges.add(new int[]{from, to});
+        return this;
+    }
+
+    public FacetFilter year(int year) {
+        return yearBetween(year, year);
+    }
+
+    /**
+     * Lee un filtro escrito como texto: cláusulas separadas por ';' con valores
+     * separados por '|', y un '!' al inicio para excluir. Por ejemplo
+     * "genre=Rock|Pop; year=1970-1979; !language=English". Un texto vacío no
+     * filtra nada.
+     */
+    public static FacetFilter parse(String text) {
+        FacetFilter filter = new FacetFilter();
+        for (String clause : text.split(";")) {
+            clause = clause.trim();
+            if (clause.isEmpty()) continue;
+            boolean exclude = clause.startsWith("!");
+            String[] parts = clause.substring(exclude ? 1 : 0).split("=", 2);
+            if (parts.length < 2) throw new IllegalArgumentException("Cláusula sin '=': " + clause);
+            String field = parts[0].trim().toLowerCase(Locale.ROOT);
+            List<String> values = Arrays.stream(parts[1].split("\\|")).map(String::trim).toList();
+
+            if (field.equals("year")) {
+                if (exclude) throw new IllegalArgumentException("Los años no se pueden excluir: " + clause);
+                int[] range = years(parts[1]);
+                filter.yearBetween(range[0], range[1]);
+                continue;
+            }
+            SongField facet = switch (field) {
+                case "genre" -> SongField.GENRE;
+                case "language" -> SongField.LANGUAGE;
+                case "author" -> SongField.AUTHOR;
+                default -> throw new IllegalArgumentException("Faceta desconocida: " + field);
+            };
+            if (exclude) filter.noneOf(facet, values);
+            else filter.anyOf(facet, values);
+        }
+        return filter;
+    }
+
+    public boolean isEmpty() {
+        return included.isEmpty() && excluded.isEmpty() && yearRanges.isEmpty();
+    }
+
+    List<Clause> included() {
+        return included;
+    }
+
+    List<Clause> excluded() {
+        return excluded;
+    }
+
+    List<int[]> yearRanges() {
+        return yearRanges;
+    }
+
+    // "1970-1979" o "1975"
+    private static int[] years(String text) {
+        String[] range = text.split("-", 2);
+        try {
+            int from = Integer.parseInt(range[0].trim());
+            int to = range.length == 2 ? Integer.parseInt(range[1].trim()) : from;
+            if (from > to) throw new IllegalArgumentException("Rango de años invertido: " + text.trim());
+            return new int[]{from, to};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Año inválido: " + text.trim());
+        }
+    }
+
+    private static SongField checked(SongField field) {
+        if (field == SongField.TITLE) {
+            throw new IllegalArgumentException("El título no es una faceta; use la búsqueda por texto");
+        }
+        return field;
+    }
+}
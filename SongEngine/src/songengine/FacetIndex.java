@@ -0,0 +1,236 @@
+package songengine;
+
+import java.util.*;
+
+/**
+ * Bitmaps comprimidos por faceta: cada género, idioma y año distinto apunta
+ * al {@link RoaringBitmap} de los ordinales que lo tienen. Los de autor se
+ * arman al pedirlos desde las filas agrupadas por autor, que ya están
+ * ordenadas, para no guardar un bitmap por cada uno de los miles de autores.
+ * Los valores se comparan sin distinguir mayúsculas.
+ */
+public class FacetIndex {
+    /** Nombres de las facetas que devuelve {@link #counts}. */
+    public static final String GENRES = "genre";
+    public static final String LANGUAGES = "language";
+    public static final String DECADES = "decade";
+
+    private final SongTable table;
+    private final TrigramIndex authorIndex;
+    private final SegmentedScan authorScan;
+    private final RoaringBitmap all;
+    private final RoaringBitmap[] genres;      // por código de diccionario
+    private final RoaringBitmap[] languages;
+    private final int[] years;                 // años distintos, ordenados
+    private final RoaringBitmap[] yearSets;
+    private final int[] decades;               // primer año de cada década con canciones
+    private final RoaringBitmap[] decadeSets;  // unión de los años de cada década, para los conteos
+
+    private FacetIndex(SongTable table, TrigramIndex authorIndex, SegmentedScan authorScan, RoaringBitmap[] genres,
+                       RoaringBitmap[] languages, int[] years, RoaringBitmap[] yearSets) {
+        this.table = table;
+        this.authorIndex = authorIndex;
+        this.authorScan = authorScan;
+        this.all = RoaringBitmap.range(table.size());
+        this.genres = genres;
+        this.languages = languages;
+        this.years = years;
+        this.yearSets = yearSets;
+        // una intersección por década en vez de una por año: los años tienen pocas canciones
+        // cada uno y contra ellos casi todo es recorrer arreglos
+        List<Integer> starts = new ArrayList<>();
+        List<RoaringBitmap> sets = new ArrayList<>();
+        for (int from = 0, to; from < years.length; from = to) {
+            int decade = Math.floorDiv(years[from], 10) * 10;
+            for (to = from + 1; to < years.length && years[to] < decade + 10; ) to++;
+            starts.add(decade);
+            sets.add(RoaringBitmap.orAll(Arrays.asList(yearSets).subList(from, to)));
+        }
+        this.decades = starts.stream().mapToInt(Integer::intValue).toArray();
+        this.decadeSets = sets.toArray(new RoaringBitmap[0]);
+    }
+
+    /** Recorre las columnas una vez y arma los bitmaps de género, idioma y año. */
+    static FacetIndex build(SongTable table, TrigramIndex authorIndex, SegmentedScan authorScan) {
+        int size = table.size();
+        RoaringBitmap.Builder[] genres = builders(table.codeCounts(SongField.GENRE).length);
+        RoaringBitmap.Builder[] languages = builders(table.codeCounts(SongField.LANGUAGE).length);
+        Map<Integer, RoaringBitmap.Builder> years = new HashMap<>();
+        for (int ord = 0; ord < size; ord++) {
+            genres[table.code(SongField.GENRE, ord)].add(ord);
+            languages[table.code(SongField.LANGUAGE, ord)].add(ord);
+            years.computeIfAbsent(table.year(ord), y -> new RoaringBitmap.Builder()).add(ord);
+        }
+
+        int[] distinctYears = new int[years.size()];
+        int n = 0;
+        for (int year : years.keySet()) distinctYears[n++] = year;
+        Arrays.sort(distinctYears);
+        RoaringBitmap[] yearSets = new RoaringBitmap[distinctYears.length];
+        for (int i = 0; i < distinctYears.length; i++) yearSets[i] = years.get(distinctYears[i]).build();
+        return new FacetIndex(table, authorIndex, authorScan, build(genres), build(languages), distinctYears, yearSets);
+    }
+
+    public RoaringBitmap all() {
+        return all;
+    }
+
+    /** Canciones cuyo campo es exactamente el valor (sin distinguir mayúsculas). */
+    public RoaringBitmap exact(SongField field, String value) {
+        String folded = TrigramIndex.fold(value);
+        List<RoaringBitmap> sets = new ArrayList<>();
+        switch (field) {
+            case GENRE, LANGUAGE -> {
+                String[] dictionary = table.foldedDictionary(field);
+                for (int code = 0; code < dictionary.length; code++) {
+                    if (dictionary[code].equals(folded)) sets.add(code(field, code));
+                }
+            }
+            case AUTHOR -> {
+                for (int id : authorIds(folded)) sets.add(table.authorBitmap(id));
+            }
+            default -> throw new IllegalArgumentException("El campo " + field + " no es una faceta");
+        }
+        return RoaringBitmap.orAll(sets);
+    }
+
+    /** Unión (OR) de las canciones de cada valor. */
+    public RoaringBitmap anyOf(SongField field, Collection<String> values) {
+        List<RoaringBitmap> sets = new ArrayList<>(values.size());
+        for (String value : values) sets.add(exact(field, value));
+        return RoaringBitmap.orAll(sets);
+    }
+
+    /** Bitmap de cada código de género o idioma, para las búsquedas "contains". */
+    RoaringBitmap code(SongField field, int code) {
+        return (field == SongField.GENRE ? genres : languages)[code];
+    }
+
+    public RoaringBitmap year(int year) {
+        int slot = Arrays.binarySearch(years, year);
+        return slot >= 0 ? yearSets[slot] : RoaringBitmap.empty();
+    }
+
+    /** Canciones con año en [from, to]: unión de los bitmaps de los años del rango. */
+    public RoaringBitmap yearBetween(int from, int to) {
+        int slot = Arrays.binarySearch(years, from);
+        if (slot < 0) slot = -slot - 1;
+        List<RoaringBitmap> sets = new ArrayList<>();
+        for (; slot < years.length && years[slot] <= to; slot++) sets.add(yearSets[slot]);
+        return RoaringBitmap.orAll(sets);
+    }
+
+    /**
+     * Resuelve el filtro: intersecta las cláusulas de la más chica a la más
+     * grande (se corta apenas queda vacío) y luego resta las exclusiones.
+     */
+    public RoaringBitmap evaluate(FacetFilter filter) {
+        List<RoaringBitmap> clauses = new ArrayList<>();
+        for (FacetFilter.Clause clause : filter.included()) clauses.add(anyOf(clause.field(), clause.values()));
+        for (int[] range : filter.yearRanges()) clauses.add(yearBetween(range[0], range[1]));
+        clauses.sort(Comparator.comparingInt(RoaringBitmap::cardinality));
+
+        RoaringBitmap result = clauses.isEmpty() ? all : clauses.get(0);
+        for (int c = 1; c < clauses.size() && !result.isEmpty(); c++) result = result.and(clauses.get(c));
+        for (FacetFilter.Clause clause : filter.excluded()) {
+            if (result.isEmpty()) break;
+            result = result.andNot(anyOf(clause.field(), clause.values()));
+        }
+        return result;
+    }
+
+    /**
+     * Cuántas de las canciones de "rows" hay por género, idioma y década. Cada
+     * número es el tamaño de la intersección con el bitmap del valor, contado
+     * sin armarla. Los géneros e idiomas van de más a menos canciones; las
+     * décadas ("1970-1979") en orden. Los valores sin canciones no aparecen.
+     */
+    public Map<String, Map<String, Integer>> counts(RoaringBitmap rows) {
+        Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+        counts.put(GENRES, byCount(table.dictionary(SongField.GENRE), genres, rows));
+        counts.put(LANGUAGES, byCount(table.dictionary(SongField.LANGUAGE), languages, rows));
+        Map<String, Integer> byDecade = new LinkedHashMap<>();
+        for (int slot = 0; slot < decades.length; slot++) {
+            int count = count(decadeSets[slot], rows);
+            if (count > 0) byDecade.put(decades[slot] + "-" + (decades[slot] + 9), count);
+        }
+        counts.put(DECADES, byDecade);
+        return counts;
+    }
+
+    /** Suma conteos de {@link #counts} que vienen de catálogos distintos, con el mismo orden. */
+    public static Map<String, Map<String, Integer>> sum(List<Map<String, Map<String, Integer>>> parts) {
+        Map<String, Map<String, Integer>> total = new LinkedHashMap<>();
+        for (String facet : List.of(GENRES, LANGUAGES, DECADES)) {
+            Map<String, Integer> values = new HashMap<>();
+            for (Map<String, Map<String, Integer>> part : parts) {
+                if (part == null) continue;
+                part.getOrDefault(facet, Map.of()).forEach((value, count) -> values.merge(value, count, Integer::sum));
+            }
+            List<Map.Entry<String, Integer>> sorted = new ArrayList<>(values.entrySet());
+            sorted.sort(facet.equals(DECADES)
+                    ? Comparator.comparingInt(entry -> decadeStart(entry.getKey()))
+                    : Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+            Map<String, Integer> ordered = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : sorted) ordered.put(entry.getKey(), entry.getValue());
+            total.put(facet, ordered);
+        }
+        return total;
+    }
+
+    /** Bytes aproximados que ocupan los bitmaps guardados. */
+    public long sizeInBytes() {
+        long bytes = all.sizeInBytes();
+        for (RoaringBitmap[] sets : List.of(genres, languages, yearSets, decadeSets)) {
+            for (RoaringBitmap set : sets) bytes += set.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    // Ids del diccionario de autores iguales al valor, filtrados primero por trigramas
+    private int[] authorIds(String folded) {
+        int[] ids = SongCatalog.matchIndexed(authorIndex, authorScan, folded);
+        byte[] needle = SegmentedScan.needle(folded);
+        int n = 0;
+        for (int id : ids) {
+            if (authorScan.equals(id, needle)) ids[n++] = id;
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    // Sin filtro "rows" es el bitmap de todo y la cuenta ya está guardada
+    private int count(RoaringBitmap set, RoaringBitmap rows) {
+        return rows == all ? set.cardinality() : set.andCardinality(rows);
+    }
+
+    private Map<String, Integer> byCount(String[] dictionary, RoaringBitmap[] sets, RoaringBitmap rows) {
+        Integer[] codes = new Integer[sets.length];
+        int[] counts = new int[sets.length];
+        for (int code = 0; code < sets.length; code++) {
+            codes[code] = code;
+            counts[code] = count(sets[code], rows);
+        }
+        Arrays.sort(codes, Comparator.comparingInt((Integer code) -> -counts[code]).thenComparing(code -> dictionary[code]));
+        Map<String, Integer> values = new LinkedHashMap<>();
+        for (int code : codes) {
+            if (counts[code] > 0) values.merge(dictionary[code], counts[code], Integer::sum);
+        }
+        return values;
+    }
+
+    private static int decadeStart(String decade) {
+        return Integer.parseInt(decade.substring(0, decade.indexOf('-', 1)));
+    }
+
+    private static RoaringBitmap.Builder[] builders(int count) {
+        RoaringBitmap.Builder[] builders = new RoaringBitmap.Builder[count];
+        for (int i = 0; i < count; i++) builders[i] = new RoaringBitmap.Builder();
+        return builders;
+    }
+
+    private static RoaringBitmap[] build(RoaringBitmap.Builder[] builders) {
+        RoaringBitmap[] sets = new RoaringBitmap[builders.length];
+        for (int i = 0; i < builders.length; i++) sets[i] = builders[i].build();
+        return sets;
+    }
+}
@@ -0,0 +1,17 @@
+package songengine;
+
+/**
+ * Índice enchufable para las búsquedas "contains" de un campo de texto.
+ * Recibe la consulta ya normalizada con {@link TrigramIndex#fold(String)} y
+ * la prepara como un {@link FieldQuery}, que el planificador usa para estimar
+ * su selectividad, recorrer el índice o verificar candidatos.
+ */
+@FunctionalInterface
+public interface FieldIndex {
+    FieldQuery prepare(String foldedQuery);
+
+    /** Ordinales que coinciden con la consulta, en orden creciente. */
+    default int[] search(String foldedQuery) {
+        return prepare(foldedQuery).rows();
+    }
+}
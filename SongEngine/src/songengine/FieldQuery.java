@@ -0,0 +1,30 @@
+package songengine;
+
+import java.util.Arrays;
+
+/**
+ * Un predicado "contains" ya preparado sobre un campo. El planificador de
+ * {@link SongCatalog#searchByCriteria} recorre con {@link #rows()} el predicado
+ * de menor {@link #estimate()} y verifica el resto con {@link #matches(int)}
+ * solo sobre esos candidatos.
+ */
+public interface FieldQuery {
+    /** Cota superior de filas que coinciden, sacada de las estadísticas del índice. */
+    int estimate();
+
+    /** Ordinales que coinciden, en orden creciente. */
+    int[] rows();
+
+    /** Indica si la fila cumple el predicado. */
+    boolean matches(int ord);
+
+    /**
+     * Las "limit" mejores filas, de la más relevante a la menos. Los índices
+     * del motor puntúan exacta > prefijo > inicio de palabra > subcadena; si un
+     * índice no sabe puntuar, devuelve las primeras filas en orden.
+     */
+    default int[] top(int limit) {
+        int[] rows = rows();
+        return rows.length <= limit ? rows : Arrays.copyOf(rows, limit);
+    }
+}
@@ -0,0 +1,53 @@
+package songengine;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Las filas del catálogo por la clave que identifica a una canción (título y
+ * autor sin mayúsculas ni tildes, ver {@link CatalogVersion#key}): el hash de
+ * cada clave junto a su ordinal, ordenados, en un solo buffer del heap o de una
+ * {@link OffHeapArena}. Ubicar una canción es una búsqueda binaria y comparar
+ * las pocas filas con el mismo hash, sin importar cuántas canciones tenga el
+ * autor o cuántos títulos se parezcan.
+ */
+final class KeyIndex {
+    private final LongBuffer entries;   // hash << 32 | ordinal, ordenados
+
+    private KeyIndex(LongBuffer entries) {
+        this.entries = entries;
+    }
+
+    static KeyIndex build(SongTable table) {
+        long[] entries = new long[table.size()];
+        // cada fila escribe solo su posición: las claves se calculan en el pool de ForkJoin
+        IntStream.range(0, entries.length).parallel()
+                .forEach(ord -> entries[ord] = (long) CatalogVersion.key(table.title(ord), table.author(ord)).hashCode() << 32 | ord);
+        Arrays.parallelSort(entries);
+        return new KeyIndex(LongBuffer.wrap(entries));
+    }
+
+    /** El mismo índice en la arena, fuera del heap. */
+    KeyIndex offHeap(OffHeapArena arena) {
+        return new KeyIndex(arena.copy(entries));
+    }
+
+    /** El mayor ordinal con esa clave que cumple "accept", o -1. */
+    int find(String key, IntPredicate accept) {
+        long hash = key.hashCode();
+        int low = 0;
+        int high = entries.limit();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries.get(middle) >> 32 <= hash) low = middle + 1;
+            else high = middle;
+        }
+        for (int i = low - 1; i >= 0 && entries.get(i) >> 32 == hash; i--) {
+            int ord = (int) entries.get(i);
+            if (accept.test(ord)) return ord;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,62 @@
+package songengine;
+
+/**
+ * Autómata de Levenshtein para una palabra y una distancia máxima k. Cada
+ * estado es la fila de la tabla de distancias después de leer un prefijo del
+ * término; el estado está muerto cuando ningún valor de la fila es menor o
+ * igual a k, y entonces ningún término con ese prefijo puede coincidir.
+ * Una transposición de letras vecinas ("Shakria" por "Shakira") cuenta como
+ * una sola edición. Solo se calcula la banda de 2k + 1 celdas alrededor de la
+ * diagonal: fuera de ella la distancia ya supera k y se guarda como k + 1.
+ */
+final class LevenshteinAutomaton {
+    private final String word;
+    private final int maxEdits;
+
+    LevenshteinAutomaton(String word, int maxEdits) {
+        this.word = word;
+        this.maxEdits = maxEdits;
+    }
+
+    int[] start() {
+        int[] row = new int[word.length() + 1];
+        for (int i = 0; i < row.length; i++) row[i] = Math.min(i, maxEdits + 1);
+        return row;
+    }
+
+    /**
+     * Estado después de leer c desde "row", que corresponde a un prefijo de
+     * largo depth; "before" y "previous" son el estado y la letra anteriores
+     * (para las transposiciones) y se ignoran cuando depth es 0.
+     */
+    void step(int[] before, int[] row, char previous, int depth, char c, int[] next) {
+        int length = word.length();
+        int cap = maxEdits + 1;
+        int j = depth + 1;
+        int lo = Math.max(1, j - maxEdits);
+        int hi = Math.min(length, j + maxEdits);
+        next[0] = Math.min(j, cap);
+        if (lo > 1 && lo - 1 <= length) next[lo - 1] = cap;
+        for (int i = lo; i <= hi; i++) {
+            int cost = word.charAt(i - 1) == c ? 0 : 1;
+            int distance = Math.min(Math.min(next[i - 1] + 1, row[i] + 1), row[i - 1] + cost);
+            if (depth > 0 && i > 1 && word.charAt(i - 1) == previous && word.charAt(i - 2) == c) {
+                distance = Math.min(distance, before[i - 2] + 1);
+            }
+            next[i] = Math.min(cap, distance);
+        }
+        if (hi < length) next[hi + 1] = cap;
+    }
+
+    boolean isMatch(int[] row, int depth) {
+        return Math.abs(word.length() - depth) <= maxEdits && row[word.length()] <= maxEdits;
+    }
+
+    boolean canMatch(int[] row, int depth) {
+        int hi = Math.min(word.length(), depth + maxEdits);
+        for (int i = Math.max(0, depth - maxEdits); i <= hi; i++) {
+            if (row[i] <= maxEdits) return true;
+        }
+        return false;
+    }
+}
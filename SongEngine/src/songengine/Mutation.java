@@ -0,0 +1,82 @@
+package songengine;
+
+import java.io.*;
+
+/**
+ * Un cambio al catálogo tal como se guarda en el {@link WriteAheadLog}: la
+ * canción se identifica por título y autor (sin distinguir mayúsculas ni
+ * tildes) y, al agregar o actualizar, trae los valores nuevos. RESTORE es una
+ * fila del registro reescrito con el efecto neto: se agrega sin buscar
+ * repetidas, porque ya convivía con las del catálogo cargado. Sobre un
+ * catálogo recargado {@link SongRepository} la reaplica como ADD, así no se
+ * duplica una canción que el archivo nuevo ya trae.
+ */
+record Mutation(Kind kind, String title, String author, CatalogVersion.Row row) {
+
+    enum Kind { ADD, UPDATE, DELETE, RESTORE }
+
+    static Mutation add(CatalogVersion.Row row) {
+        return new Mutation(Kind.ADD, row.title(), row.author(), row);
+    }
+
+    static Mutation restore(CatalogVersion.Row row) {
+        return new Mutation(Kind.RESTORE, row.title(), row.author(), row);
+    }
+
+    static Mutation update(String title, String author, CatalogVersion.Row row) {
+        return new Mutation(Kind.UPDATE, title, author, row);
+    }
+
+    static Mutation delete(String title, String author) {
+        return new Mutation(Kind.DELETE, title, author, null);
+    }
+
+    /** Aplica el cambio al borrador; false si la canción a cambiar o borrar no existe. */
+    boolean applyTo(CatalogVersion.Draft draft) {
+        return switch (kind) {
+            case ADD -> {
+                draft.add(row);
+                yield true;
+            }
+            case UPDATE -> draft.update(title, author, row);
+            case DELETE -> draft.delete(title, author);
+            case RESTORE -> {
+                draft.restore(row);
+                yield true;
+            }
+        };
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(kind.ordinal());
+            out.writeUTF(title);
+            out.writeUTF(author);
+            if (row != null) {
+                out.writeUTF(row.title());
+                out.writeUTF(row.author());
+                out.writeUTF(row.genre());
+                out.writeUTF(row.language());
+                out.writeInt(row.year());
+            }
+        } catch (UTFDataFormatException e) {
+            throw new IllegalArgumentException("Valor demasiado largo para el registro de cambios", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Mutation decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= Kind.values().length) throw new IOException("Tipo de cambio desconocido: " + ordinal);
+        Kind kind = Kind.values()[ordinal];
+        String title = in.readUTF();
+        String author = in.readUTF();
+        CatalogVersion.Row row = kind == Kind.DELETE ? null
+                : new CatalogVersion.Row(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readInt());
+        return new Mutation(kind, title, author, row);
+    }
+}
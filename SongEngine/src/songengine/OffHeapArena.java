@@ -0,0 +1,91 @@
+package songengine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Memoria fuera del heap para las columnas e índices de un catálogo. Reparte
+ * tramos de bloques directos de 64 MB (los pedidos grandes llevan su propio
+ * bloque), así un catálogo de millones de filas son unas pocas decenas de
+ * objetos para el recolector, sin importar cuántos bytes ocupe.
+ *
+ * No hay liberación explícita: los bloques se liberan cuando el catálogo que
+ * los usa deja de estar referenciado. La memoria directa tiene su propio
+ * límite, -XX:MaxDirectMemorySize (por defecto, el mismo que -Xmx).
+ */
+public final class OffHeapArena {
+    private static final int SLAB_BYTES = 64 << 20;
+    private static final int ALIGNMENT = 64;
+
+    private ByteBuffer slab;     // bloque actual; su posición es el próximo byte libre
+    private long reserved;       // bytes pedidos al sistema
+    private long used;           // bytes entregados
+
+    /** Un tramo de "bytes" bytes en orden nativo, en cero. */
+    public synchronized ByteBuffer allocate(long bytes) {
+        if (bytes < 0 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tamaño fuera de rango para un búfer directo: " + bytes);
+        }
+        int size = (int) bytes;
+        used += size;
+        if (size > SLAB_BYTES / 4) {
+            reserved += size;
+            return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        if (slab == null || slab.remaining() < size) {
+            slab = ByteBuffer.allocateDirect(SLAB_BYTES);
+            reserved += SLAB_BYTES;
+        }
+        int at = slab.position();
+        ByteBuffer slice = slab.slice(at, size).order(ByteOrder.nativeOrder());
+        slab.position((int) Math.min(slab.limit(), (at + size + ALIGNMENT - 1L) / ALIGNMENT * ALIGNMENT));
+        return slice;
+    }
+
+    public IntBuffer ints(int count) {
+        return allocate(4L * count).asIntBuffer();
+    }
+
+    public IntBuffer copy(int[] values) {
+        return ints(values.length).put(0, values);
+    }
+
+    public ByteBuffer copy(byte[] values) {
+        return allocate(values.length).put(0, values);
+    }
+
+    // Las copias de buffers que ya están fuera del heap (mapeados o de otra arena) los devuelven tal cual
+
+    public ByteBuffer copy(ByteBuffer source) {
+        if (source.isDirect()) return source;
+        return allocate(source.limit()).put(0, source, 0, source.limit());
+    }
+
+    public ShortBuffer copy(ShortBuffer source) {
+        if (source.isDirect()) return source;
+        return allocate(2L * source.limit()).asShortBuffer().put(0, source, 0, source.limit());
+    }
+
+    public IntBuffer copy(IntBuffer source) {
+        if (source.isDirect()) return source;
+        return ints(source.limit()).put(0, source, 0, source.limit());
+    }
+
+    public LongBuffer copy(LongBuffer source) {
+        if (source.isDirect()) return source;
+        return allocate(8L * source.limit()).asLongBuffer().put(0, source, 0, source.limit());
+    }
+
+    /** Bytes de memoria directa reservados (bloques completos). */
+    public synchronized long reservedBytes() {
+        return reserved;
+    }
+
+    /** Bytes entregados a columnas e índices. */
+    public synchronized long usedBytes() {
+        return used;
+    }
+}
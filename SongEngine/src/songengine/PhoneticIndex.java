@@ -0,0 +1,196 @@
+package songengine;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Índice fonético de las palabras de un campo: cada palabra se reduce a su
+ * código Metaphone ("celia" y "selia" dan SL, "cruz" y "crus" dan KRS) y cada
+ * código guarda la lista ordenada de valores que tienen una palabra con ese
+ * sonido. Los códigos se calculan una sola vez al armar el índice; una
+ * consulta solo calcula los de sus propias palabras y busca cada uno en el
+ * mapa, así el costo sigue a las listas y no al tamaño del catálogo.
+ */
+public class PhoneticIndex {
+    private static final int[] NONE = new int[0];
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final Map<String, int[]> postings;   // código -> ids de valor, ordenados
+
+    private PhoneticIndex(Map<String, int[]> postings) {
+        this.postings = postings;
+    }
+
+    /** Indexa las palabras de "count" valores; las listas guardan el índice de cada valor. */
+    public static PhoneticIndex build(int count, IntFunction<String> values) {
+        Map<String, SongTable.IntList> lists = new HashMap<>();
+        Map<String, String> codes = new HashMap<>();   // las palabras se repiten mucho: cada una se codifica una vez
+        for (int id = 0; id < count; id++) {
+            for (String word : TermIndex.words(TrigramIndex.fold(values.apply(id)))) {
+                String code = codes.computeIfAbsent(word, PhoneticIndex::code);
+                if (code.isEmpty()) continue;
+                SongTable.IntList list = lists.computeIfAbsent(code, c -> new SongTable.IntList());
+                if (list.size() == 0 || list.last() != id) list.add(id);
+            }
+        }
+        Map<String, int[]> postings = new HashMap<>(lists.size() * 4 / 3 + 1);
+        for (Map.Entry<String, SongTable.IntList> entry : lists.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return new PhoneticIndex(postings);
+    }
+
+    public int codeCount() {
+        return postings.size();
+    }
+
+    /**
+     * Ids (en orden) de los valores en los que cada palabra de la consulta
+     * suena como alguna de sus palabras. Se intersecta desde la lista más corta.
+     */
+    public int[] search(String query) {
+        List<int[]> lists = new ArrayList<>();
+        for (String word : TermIndex.words(TrigramIndex.fold(query))) {
+            String code = code(word);
+            if (code.isEmpty()) continue;
+            int[] ids = postings.get(code);
+            if (ids == null) return NONE;
+            lists.add(ids);
+        }
+        if (lists.isEmpty()) return NONE;
+        lists.sort(Comparator.comparingInt(ids -> ids.length));
+        int[] result = lists.get(0);
+        for (int l = 1; l < lists.size() && result.length > 0; l++) result = intersect(result, lists.get(l));
+        return result == lists.get(0) ? result.clone() : result;
+    }
+
+    /**
+     * Código Metaphone de una palabra en minúsculas; las tildes se quitan antes
+     * ("josé" suena como "jose"). Los dígitos se conservan, y una letra sin
+     * regla (de otro alfabeto) también.
+     */
+    static String code(String word) {
+        word = withoutMarks(word);
+        int n = word.length();
+        StringBuilder code = new StringBuilder(n);
+        int i = 0;
+        if (n > 1) {
+            String start = word.substring(0, 2);
+            switch (start) {
+                // la primera letra no suena
+                case "ae", "gn", "kn", "pn", "wr" -> i = 1;
+                case "wh" -> {
+                    code.append('W');
+                    i = 2;
+                }
+                default -> { }
+            }
+        }
+        if (i == 0 && n > 0 && word.charAt(0) == 'x') {
+            code.append('S');
+            i = 1;
+        }
+        for (; i < n; i++) {
+            char c = word.charAt(i);
+            char previous = i > 0 ? word.charAt(i - 1) : 0;
+            char next = at(word, i + 1);
+            char after = at(word, i + 2);
+            if (c == previous && c != 'c' && Character.isLetter(c)) continue;   // las letras dobles suenan una vez
+            switch (c) {
+                case 'a', 'e', 'i', 'o', 'u' -> {
+                    if (i == 0) code.append(Character.toUpperCase(c));
+                }
+                case 'b' -> {
+                    if (!(i == n - 1 && previous == 'm')) code.append('B');
+                }
+                case 'c' -> {
+                    if (next == 'h' || (next == 'i' && after == 'a')) {
+                        code.append(previous == 's' && next == 'h' ? 'K' : 'X');
+                    } else if (next == 'e' || next == 'i' || next == 'y') {
+                        if (previous != 's') code.append('S');
+                    } else {
+                        code.append('K');
+                    }
+                }
+                case 'd' -> {
+                    if (next == 'g' && (after == 'e' || after == 'i' || after == 'y')) {
+                        code.append('J');
+                        i += 2;
+                    } else {
+                        code.append('T');
+                    }
+                }
+                case 'g' -> {
+                    if (next == 'h' && !(i + 2 >= n || isVowel(after))) {
+                        // "gh" que no suena, como en "night"
+                    } else if (next == 'n' && (i + 2 == n || (i + 4 == n && word.startsWith("ed", i + 2)))) {
+                        // "gn" final, como en "sign"
+                    } else if ((next == 'e' || next == 'i' || next == 'y') && previous != 'g') {
+                        code.append('J');
+                    } else {
+                        code.append('K');
+                    }
+                }
+                case 'h' -> {
+                    // muda al final, antes de consonante o después de c, s, p, t o g
+                    if ("cspgt".indexOf(previous) < 0 && isVowel(next)) code.append('H');
+                }
+                case 'k' -> {
+                    if (previous != 'c') code.append('K');
+                }
+                case 'p' -> code.append(next == 'h' ? 'F' : 'P');
+                case 'q' -> code.append('K');
+                case 's' -> {
+                    if (next == 'h' || (next == 'i' && (after == 'o' || after == 'a'))) code.append('X');
+                    else code.append('S');
+                }
+                case 't' -> {
+                    if (next == 'i' && (after == 'o' || after == 'a')) code.append('X');
+                    else if (next == 'h') code.append('0');
+                    else if (!(next == 'c' && after == 'h')) code.append('T');
+                }
+                case 'v' -> code.append('F');
+                case 'w', 'y' -> {
+                    if (isVowel(next)) code.append(Character.toUpperCase(c));
+                }
+                case 'x' -> code.append("KS");
+                case 'z' -> code.append('S');
+                case 'f', 'j', 'l', 'm', 'n', 'r' -> code.append(Character.toUpperCase(c));
+                default -> code.append(c);
+            }
+        }
+        return code.toString();
+    }
+
+    static String withoutMarks(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) >= 0x80) return MARKS.matcher(Normalizer.normalize(word, Normalizer.Form.NFD)).replaceAll("");
+        }
+        return word;
+    }
+
+    private static char at(String word, int i) {
+        return i < word.length() ? word.charAt(i) : 0;
+    }
+
+    private static boolean isVowel(char c) {
+        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,51 @@
+package songengine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Las últimas consultas leídas, por su texto. Una consulta repetida reutiliza
+ * su {@link SongQuery} y con ella los planes ya compilados; cuando se llena se
+ * descarta la usada hace más tiempo.
+ */
+public class QueryCache {
+    private final Map<String, SongQuery> queries;
+    private long hits;
+    private long misses;
+
+    public QueryCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacidad inválida: " + capacity);
+        this.queries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SongQuery> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** La consulta ya leída, o la lee ahora; un texto inválido no se guarda. */
+    public synchronized SongQuery get(String text) {
+        String key = text == null ? "" : text.trim();
+        SongQuery query = queries.get(key);
+        if (query != null) {
+            hits++;
+            return query;
+        }
+        misses++;
+        query = SongQuery.parse(key);
+        queries.put(key, query);
+        return query;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return queries.size();
+    }
+}
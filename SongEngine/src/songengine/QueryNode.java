@@ -0,0 +1,458 @@
+package songengine;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Nodo del árbol de una consulta booleana ({@link SongQuery}). El árbol no
+ * depende de ningún catálogo: se simplifica una vez con {@link #optimize()} y
+ * se compila contra cada catálogo con {@link #compile(SongCatalog)} en un
+ * {@link Matcher} que ya tiene resueltos sus códigos, autores y agujas. Un
+ * Matcher guarda solo la tabla y los índices que usa, nunca el catálogo: así
+ * {@link SongQuery} lo puede guardar con el catálogo como clave débil.
+ */
+interface QueryNode {
+    QueryNode ALL = new Constant(true);
+    QueryNode NONE = new Constant(false);
+
+    /** El mismo predicado, simplificado: constantes plegadas, rangos unidos y repetidos quitados. */
+    QueryNode optimize();
+
+    Matcher compile(SongCatalog catalog);
+
+    /** Contiene el texto (sin distinguir mayúsculas) en título, autor, género o idioma. */
+    record Text(SongField field, String folded) implements QueryNode {
+        public QueryNode optimize() {
+            return folded.isEmpty() ? ALL : this;
+        }
+
+        public Matcher compile(SongCatalog catalog) {
+            return switch (field) {
+                case TITLE -> new TitleMatcher(catalog, folded);
+                case AUTHOR -> new AuthorMatcher(catalog, folded);
+                case GENRE, LANGUAGE -> new CodeMatcher(catalog, field, folded);
+            };
+        }
+
+        // "love" es más exigente que "lo": si a contiene a b, a implica b
+        boolean implies(Text other) {
+            return field == other.field && folded.contains(other.folded);
+        }
+
+        @Override
+        public String toString() {
+            return field.name().toLowerCase(Locale.ROOT) + ":\"" + folded + "\"";
+        }
+    }
+
+    /** Año entre from y to, ambos incluidos. */
+    record Years(int from, int to) implements QueryNode {
+        public QueryNode optimize() {
+            if (from > to) return NONE;
+            return from == Integer.MIN_VALUE && to == Integer.MAX_VALUE ? ALL : this;
+        }
+
+        public Matcher compile(SongCatalog catalog) {
+            return new YearMatcher(catalog, from, to);
+        }
+
+        @Override
+        public String toString() {
+            if (from == to) return "year:" + from;
+            if (from == Integer.MIN_VALUE) return "year<=" + to;
+            if (to == Integer.MAX_VALUE) return "year>=" + from;
+            return "year:" + from + "-" + to;
+        }
+    }
+
+    record Not(QueryNode child) implements QueryNode {
+        public QueryNode optimize() {
+            QueryNode inner = child.optimize();
+            if (inner instanceof Constant constant) return constant.value() ? NONE : ALL;
+            if (inner instanceof Not not) return not.child();
+            return new Not(inner);
+        }
+
+        public Matcher compile(SongCatalog catalog) {
+            Matcher inner = child.compile(catalog);
+            return new Matcher(catalog.size(), catalog.size() - inner.estimate(), false) {
+                boolean matches(int ord) {
+                    return !inner.matches(ord);
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + child;
+        }
+    }
+
+    record And(List<QueryNode> children) implements QueryNode {
+        public QueryNode optimize() {
+            Set<QueryNode> terms = new LinkedHashSet<>();
+            int from = Integer.MIN_VALUE;
+            int to = Integer.MAX_VALUE;
+            boolean years = false;
+            for (QueryNode child : flatten(children, And.class)) {
+                if (child == ALL) continue;
+                if (child == NONE) return NONE;
+                if (child instanceof Years range) {
+                    // los rangos de años se intersectan en uno solo
+                    from = Math.max(from, range.from());
+                    to = Math.min(to, range.to());
+                    years = true;
+                } else {
+                    terms.add(child);
+                }
+            }
+            if (years) {
+                QueryNode range = new Years(from, to).optimize();
+                if (range == NONE) return NONE;
+                if (range != ALL) terms.add(range);
+            }
+            for (QueryNode term : terms) {
+                if (term instanceof Not not && terms.contains(not.child())) return NONE;   // x AND NOT x
+            }
+            // de dos textos del mismo campo donde uno implica al otro, basta el más exigente
+            terms.removeIf(term -> term instanceof Text weaker && terms.stream().anyMatch(other ->
+                    other != term && other instanceof Text stronger && stronger.implies(weaker)));
+            return collapse(terms, ALL, And::new);
+        }
+
+        public Matcher compile(SongCatalog catalog) {
+            Matcher[] parts = compileAll(children, catalog);
+            // el más selectivo primero: corta antes y, si tiene índice, genera los candidatos
+            Arrays.sort(parts, Comparator.comparingInt(Matcher::estimate));
+            Matcher driver = null;
+            for (Matcher part : parts) {
+                if (part.indexed()) {
+                    driver = part;
+                    break;
+                }
+            }
+            Matcher first = driver;
+            return new Matcher(catalog.size(), parts[0].estimate(), driver != null) {
+                boolean matches(int ord) {
+                    for (Matcher part : parts) {
+                        if (!part.matches(ord)) return false;
+                    }
+                    return true;
+                }
+
+                int[] rows() {
+                    if (first == null) return super.rows();
+                    int[] candidates = first.rows();
+                    int n = 0;
+                    for (int ord : candidates) {
+                        if (matchesExcept(first, ord)) candidates[n++] = ord;
+                    }
+                    return n == candidates.length ? candidates : Arrays.copyOf(candidates, n);
+                }
+
+                private boolean matchesExcept(Matcher skipped, int ord) {
+                    for (Matcher part : parts) {
+                        if (part != skipped && !part.matches(ord)) return false;
+                    }
+                    return true;
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return join(children, " AND ");
+        }
+    }
+
+    record Or(List<QueryNode> children) implements QueryNode {
+        public QueryNode optimize() {
+            Set<QueryNode> terms = new LinkedHashSet<>();
+            List<Years> ranges = new ArrayList<>();
+            for (QueryNode child : flatten(children, Or.class)) {
+                if (child == NONE) continue;
+                if (child == ALL) return ALL;
+                if (child instanceof Years range) ranges.add(range);
+                else terms.add(child);
+            }
+            // rangos que se tocan o se superponen se unen
+            ranges.sort(Comparator.comparingInt(Years::from));
+            List<Years> merged = new ArrayList<>();
+            for (Years range : ranges) {
+                Years last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && (long) range.from() <= (long) last.to() + 1) {
+                    merged.set(merged.size() - 1, new Years(last.from(), Math.max(last.to(), range.to())));
+                } else {
+                    merged.add(range);
+                }
+            }
+            for (Years range : merged) {
+                QueryNode optimized = range.optimize();
+                if (optimized == ALL) return ALL;
+                terms.add(optimized);
+            }
+            for (QueryNode term : terms) {
+                if (term instanceof Not not && terms.contains(not.child())) return ALL;   // x OR NOT x
+            }
+            // de dos textos del mismo campo donde uno implica al otro, basta el más amplio
+            terms.removeIf(term -> term instanceof Text stronger && terms.stream().anyMatch(other ->
+                    other != term && other instanceof Text weaker && stronger.implies(weaker)));
+            return collapse(terms, NONE, Or::new);
+        }
+
+        public Matcher compile(SongCatalog catalog) {
+            Matcher[] parts = compileAll(children, catalog);
+            // el más amplio primero: acepta antes
+            Arrays.sort(parts, Comparator.comparingInt(Matcher::estimate).reversed());
+            boolean indexed = true;
+            long estimate = 0;
+            for (Matcher part : parts) {
+                indexed &= part.indexed();
+                estimate += part.estimate();
+            }
+            int size = catalog.size();
+            return new Matcher(size, (int) Math.min(size, estimate), indexed) {
+                boolean matches(int ord) {
+                    for (Matcher part : parts) {
+                        if (part.matches(ord)) return true;
+                    }
+                    return false;
+                }
+
+                int[] rows() {
+                    if (!indexed()) return super.rows();
+                    BitSet union = new BitSet(size);
+                    for (Matcher part : parts) {
+                        for (int ord : part.rows()) union.set(ord);
+                    }
+                    return union.stream().toArray();
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return join(children, " OR ");
+        }
+    }
+
+    record Constant(boolean value) implements QueryNode {
+        public QueryNode optimize() {
+            return value ? ALL : NONE;
+        }
+
+        public Matcher compile(SongCatalog catalog) {
+            return new Matcher(catalog.size(), value ? catalog.size() : 0, !value) {
+                boolean matches(int ord) {
+                    return value;
+                }
+
+                int[] rows() {
+                    return value ? super.rows() : new int[0];
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return value ? "TRUE" : "FALSE";
+        }
+    }
+
+    /**
+     * Un nodo compilado contra un catálogo. No cambia después de armarse, así
+     * que un mismo plan compilado se comparte entre hilos.
+     */
+    abstract class Matcher {
+        private final int size;
+        private final int estimate;
+        private final boolean indexed;
+
+        Matcher(int size, int estimate, boolean indexed) {
+            this.size = size;
+            this.estimate = estimate;
+            this.indexed = indexed;
+        }
+
+        abstract boolean matches(int ord);
+
+        /** Filas que cumplen (exacto o cota superior); ordena los AND y los OR. */
+        int estimate() {
+            return estimate;
+        }
+
+        /** Si {@link #rows()} sale de un índice; si no, recorre el catálogo. */
+        boolean indexed() {
+            return indexed;
+        }
+
+        /**
+         * Ordinales que cumplen, en orden creciente. Los que tienen índice lo
+         * reemplazan; sin índice (solo NOT, por ejemplo) se recorren las filas.
+         */
+        int[] rows() {
+            int[] rows = new int[size];
+            int n = 0;
+            for (int ord = 0; ord < size; ord++) {
+                if (matches(ord)) rows[n++] = ord;
+            }
+            return n == rows.length ? rows : Arrays.copyOf(rows, n);
+        }
+    }
+
+    // Títulos: candidatos por trigramas y verificación sobre la copia normalizada
+    final class TitleMatcher extends Matcher {
+        private final TrigramIndex index;
+        private final String folded;
+        private final SegmentedScan scan;
+        private final byte[] needle;
+
+        TitleMatcher(SongCatalog catalog, String folded) {
+            super(catalog.size(), catalog.titleIndex().upperBound(folded, catalog.size()), true);
+            this.index = catalog.titleIndex();
+            this.folded = folded;
+            this.scan = catalog.scan(SongField.TITLE);
+            this.needle = SegmentedScan.needle(folded);
+        }
+
+        boolean matches(int ord) {
+            return scan.contains(ord, needle);
+        }
+
+        int[] rows() {
+            return SongCatalog.matchIndexed(index, scan, folded);
+        }
+    }
+
+    // Autores: se resuelve una vez contra el diccionario; cada fila es una consulta a un arreglo
+    final class AuthorMatcher extends Matcher {
+        private final SongTable table;
+        private final int[] authorIds;
+        private final boolean[] accepted;
+
+        AuthorMatcher(SongCatalog catalog, String folded) {
+            this(catalog.table(), SongCatalog.matchIndexed(catalog.authorIndex(), catalog.scan(SongField.AUTHOR), folded));
+        }
+
+        private AuthorMatcher(SongTable table, int[] authorIds) {
+            super(table.size(), rowCount(table, authorIds), true);
+            this.table = table;
+            this.authorIds = authorIds;
+            this.accepted = new boolean[table.authorDictionary().size()];
+            for (int id : authorIds) accepted[id] = true;
+        }
+
+        private static int rowCount(SongTable table, int[] authorIds) {
+            int rows = 0;
+            for (int id : authorIds) rows += table.authorRowCount(id);
+            return rows;
+        }
+
+        boolean matches(int ord) {
+            return accepted[table.authorId(ord)];
+        }
+
+        int[] rows() {
+            return authorIds.length == 0 ? new int[0] : table.rowsOfAuthors(authorIds);
+        }
+    }
+
+    // Género e idioma: los códigos que coinciden se marcan una vez
+    final class CodeMatcher extends Matcher {
+        private final SongTable table;
+        private final FacetIndex facets;
+        private final SongField field;
+        private final boolean[] codes;
+
+        CodeMatcher(SongCatalog catalog, SongField field, String folded) {
+            this(catalog.table(), catalog.facets(), field, catalog.table().matchCodes(field, folded));
+        }
+
+        private CodeMatcher(SongTable table, FacetIndex facets, SongField field, boolean[] codes) {
+            super(table.size(), rowCount(table.codeCounts(field), codes), true);
+            this.table = table;
+            this.facets = facets;
+            this.field = field;
+            this.codes = codes;
+        }
+
+        private static int rowCount(int[] counts, boolean[] codes) {
+            int rows = 0;
+            for (int code = 0; code < codes.length; code++) {
+                if (codes[code]) rows += counts[code];
+            }
+            return rows;
+        }
+
+        boolean matches(int ord) {
+            return codes[table.code(field, ord)];
+        }
+
+        int[] rows() {
+            List<RoaringBitmap> sets = new ArrayList<>();
+            for (int code = 0; code < codes.length; code++) {
+                if (codes[code]) sets.add(facets.code(field, code));
+            }
+            return RoaringBitmap.orAll(sets).toArray();
+        }
+    }
+
+    // Años: el tramo del índice de años, pasado a orden de catálogo
+    final class YearMatcher extends Matcher {
+        private final SongTable table;
+        private final YearIndex years;
+        private final int from;
+        private final int to;
+
+        YearMatcher(SongCatalog catalog, int from, int to) {
+            super(catalog.size(), catalog.years().count(from, to), true);
+            this.table = catalog.table();
+            this.years = catalog.years();
+            this.from = from;
+            this.to = to;
+        }
+
+        boolean matches(int ord) {
+            int year = table.year(ord);
+            return year >= from && year <= to;
+        }
+
+        int[] rows() {
+            int[] rows = years.between(from, to);
+            Arrays.sort(rows);
+            return rows;
+        }
+    }
+
+    private static List<QueryNode> flatten(List<QueryNode> children, Class<? extends QueryNode> kind) {
+        List<QueryNode> flat = new ArrayList<>();
+        for (QueryNode child : children) {
+            QueryNode optimized = child.optimize();
+            if (kind.isInstance(optimized)) {
+                flat.addAll(optimized instanceof And and ? and.children() : ((Or) optimized).children());
+            } else {
+                flat.add(optimized);
+            }
+        }
+        return flat;
+    }
+
+    private static QueryNode collapse(Set<QueryNode> terms, QueryNode empty,
+                                      Function<List<QueryNode>, QueryNode> group) {
+        if (terms.isEmpty()) return empty;
+        if (terms.size() == 1) return terms.iterator().next();
+        return group.apply(List.copyOf(terms));
+    }
+
+    private static Matcher[] compileAll(List<QueryNode> children, SongCatalog catalog) {
+        Matcher[] parts = new Matcher[children.size()];
+        for (int i = 0; i < parts.length; i++) parts[i] = children.get(i).compile(catalog);
+        return parts;
+    }
+
+    private static String join(List<QueryNode> children, String operator) {
+        StringJoiner text = new StringJoiner(operator, "(", ")");
+        for (QueryNode child : children) text.add(child.toString());
+        return text.toString();
+    }
+}
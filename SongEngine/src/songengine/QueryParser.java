@@ -0,0 +1,165 @@
+package songengine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Lee el texto de una consulta booleana y arma su árbol ({@link QueryNode}).
+ *
+ * consulta := o
+ * o        := y ("OR" y)*
+ * y        := no (["AND"] no)*        dos términos seguidos se unen con AND
+ * no       := "NOT" no | "(" o ")" | término
+ * término  := campo (":" | "=") valor | "year" (">=" | "<=" | ">" | "<") año
+ *
+ * Los campos son title, author, genre, language y year; los de texto buscan
+ * el valor como subcadena y "year:" acepta un año o un rango ("1970-1979").
+ * Un valor con espacios va entre comillas: author:"celia cruz". Las palabras
+ * clave no distinguen mayúsculas.
+ */
+final class QueryParser {
+    private final String text;
+    private int at;
+
+    private QueryParser(String text) {
+        this.text = text;
+    }
+
+    static QueryNode parse(String text) {
+        if (text == null || text.isBlank()) throw new IllegalArgumentException("La consulta está vacía");
+        QueryParser parser = new QueryParser(text);
+        QueryNode node = parser.or();
+        parser.skipSpaces();
+        if (parser.at < text.length()) throw parser.error("Sobra \"" + text.substring(parser.at).trim() + "\"");
+        return node;
+    }
+
+    private QueryNode or() {
+        List<QueryNode> children = new ArrayList<>();
+        children.add(and());
+        while (keyword("OR")) children.add(and());
+        return children.size() == 1 ? children.get(0) : new QueryNode.Or(children);
+    }
+
+    private QueryNode and() {
+        List<QueryNode> children = new ArrayList<>();
+        children.add(not());
+        while (true) {
+            skipSpaces();
+            if (at == text.length() || text.charAt(at) == ')' || peekKeyword("OR")) break;
+            keyword("AND");
+            children.add(not());
+        }
+        return children.size() == 1 ? children.get(0) : new QueryNode.And(children);
+    }
+
+    private QueryNode not() {
+        if (keyword("NOT")) return new QueryNode.Not(not());
+        skipSpaces();
+        if (at < text.length() && text.charAt(at) == '(') {
+            at++;
+            QueryNode inner = or();
+            skipSpaces();
+            if (at == text.length() || text.charAt(at) != ')') throw error("Falta ')'");
+            at++;
+            return inner;
+        }
+        return term();
+    }
+
+    private QueryNode term() {
+        skipSpaces();
+        int start = at;
+        while (at < text.length() && Character.isLetter(text.charAt(at))) at++;
+        String field = text.substring(start, at).toLowerCase(Locale.ROOT);
+        if (field.isEmpty()) throw error("Se esperaba un campo");
+        String operator = operator();
+        if (operator == null) throw error("Falta ':' después de " + field);
+        String value = value();
+        if (value.isEmpty()) throw error("Falta el valor de " + field);
+
+        if (field.equals("year")) return years(operator, value);
+        if (!operator.equals(":") && !operator.equals("=")) throw error("'" + operator + "' solo se usa con year");
+        SongField textField = switch (field) {
+            case "title" -> SongField.TITLE;
+            case "author" -> SongField.AUTHOR;
+            case "genre" -> SongField.GENRE;
+            case "language" -> SongField.LANGUAGE;
+            default -> throw error("Campo desconocido: " + field);
+        };
+        return new QueryNode.Text(textField, TrigramIndex.fold(value));
+    }
+
+    private QueryNode years(String operator, String value) {
+        try {
+            if (operator.equals(":") || operator.equals("=")) {
+                String[] range = value.split("-", 2);
+                int from = Integer.parseInt(range[0].trim());
+                int to = range.length == 2 ? Integer.parseInt(range[1].trim()) : from;
+                if (from > to) throw error("Rango de años invertido: " + value);
+                return new QueryNode.Years(from, to);
+            }
+            int year = Integer.parseInt(value);
+            return switch (operator) {
+                case ">=" -> new QueryNode.Years(year, Integer.MAX_VALUE);
+                // más allá del último int (o antes del primero) no hay ningún año
+                case ">" -> year == Integer.MAX_VALUE ? QueryNode.NONE : new QueryNode.Years(year + 1, Integer.MAX_VALUE);
+                case "<=" -> new QueryNode.Years(Integer.MIN_VALUE, year);
+                default -> year == Integer.MIN_VALUE ? QueryNode.NONE : new QueryNode.Years(Integer.MIN_VALUE, year - 1);
+            };
+        } catch (NumberFormatException e) {
+            throw error("Año inválido: " + value);
+        }
+    }
+
+    private String operator() {
+        skipSpaces();
+        for (String operator : new String[]{">=", "<=", ":", "=", ">", "<"}) {
+            if (text.startsWith(operator, at)) {
+                at += operator.length();
+                return operator;
+            }
+        }
+        return null;
+    }
+
+    // Un valor entre comillas, o una palabra hasta un espacio o un paréntesis
+    private String value() {
+        skipSpaces();
+        if (at < text.length() && text.charAt(at) == '"') {
+            int end = text.indexOf('"', at + 1);
+            if (end < 0) throw error("Faltan las comillas de cierre");
+            String value = text.substring(at + 1, end);
+            at = end + 1;
+            return value.trim();
+        }
+        int start = at;
+        while (at < text.length() && !Character.isWhitespace(text.charAt(at)) && text.charAt(at) != '(' && text.charAt(at) != ')') {
+            at++;
+        }
+        return text.substring(start, at);
+    }
+
+    private boolean keyword(String word) {
+        if (!peekKeyword(word)) return false;
+        at += word.length();
+        return true;
+    }
+
+    // La palabra clave, sola: "ORDER" no es OR ni "notes" es NOT
+    private boolean peekKeyword(String word) {
+        skipSpaces();
+        int end = at + word.length();
+        return text.regionMatches(true, at, word, 0, word.length())
+                && (end == text.length() || Character.isWhitespace(text.charAt(end)) || text.charAt(end) == '(');
+    }
+
+    private void skipSpaces() {
+        while (at < text.length() && Character.isWhitespace(text.charAt(at))) at++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " (posición " + (at + 1) + ")");
+    }
+}
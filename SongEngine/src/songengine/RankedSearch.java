@@ -0,0 +1,132 @@
+package songengine;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Búsqueda con ranking y límite: cada coincidencia se puntúa como exacta,
+ * prefijo, inicio de palabra o subcadena, y solo se guardan las K mejores.
+ * A igual puntaje gana el ordinal menor, así el resultado es estable.
+ */
+final class RankedSearch {
+    static final int NO_MATCH = -1;
+    static final int SUBSTRING = 0;
+    static final int WORD = 1;
+    static final int PREFIX = 2;
+    static final int EXACT = 3;
+
+    private RankedSearch() {
+    }
+
+    /** Puntaje de un valor ya normalizado contra la consulta, o NO_MATCH. */
+    static int score(String folded, String query) {
+        if (folded.equals(query)) return EXACT;
+        if (folded.startsWith(query)) return PREFIX;
+        int at = folded.indexOf(query, 1);
+        if (at < 0) return NO_MATCH;
+        for (; at >= 0; at = folded.indexOf(query, at + 1)) {
+            if (!Character.isLetterOrDigit(folded.codePointBefore(at))) return WORD;
+        }
+        return SUBSTRING;
+    }
+
+    /**
+     * Las K mejores filas de un campo por fila (título), puntuadas sobre su
+     * copia normalizada. Los candidatos llegan en orden de ordinal, así que
+     * cuando el montículo se llena de coincidencias exactas ninguna fila
+     * posterior puede desplazarlas y se corta el recorrido. El montículo es un
+     * long[] con puntaje y ordinal en cada clave: no se reserva nada por fila.
+     */
+    static int[] topRows(int[] candidates, SegmentedScan scan, byte[] needle, int limit) {
+        // montículo de mínimos: en la raíz queda la peor de las K guardadas
+        long[] heap = new long[Math.min(limit, candidates.length)];
+        int size = 0;
+        for (int ord : candidates) {
+            int score = scan.score(ord, needle);
+            if (score == NO_MATCH) continue;
+            long key = key(score, ord);
+            if (size < heap.length) {
+                heap[size] = key;
+                siftUp(heap, size++);
+            } else if (key > heap[0]) {
+                heap[0] = key;
+                siftDown(heap, size);
+            }
+            if (size == limit && (int) (heap[0] >>> 32) == EXACT) break;
+        }
+        Arrays.sort(heap, 0, size);
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) result[i] = ord(heap[size - 1 - i]);
+        return result;
+    }
+
+    /**
+     * Las K mejores filas de un campo codificado por diccionario (autor, género,
+     * idioma): todas las filas de un valor comparten puntaje, así que se puntúa
+     * el diccionario y se toman filas nivel por nivel, del exacto a la subcadena,
+     * hasta juntar K. Los niveles que no hacen falta no se tocan.
+     */
+    static int[] topByValue(int[] valueIds, IntUnaryOperator scoreOf, int limit, RowSource rows) {
+        int[] scores = new int[valueIds.length];
+        int[] tierSize = new int[EXACT + 1];
+        for (int i = 0; i < valueIds.length; i++) {
+            scores[i] = scoreOf.applyAsInt(valueIds[i]);
+            if (scores[i] != NO_MATCH) tierSize[scores[i]]++;
+        }
+
+        int[] result = new int[0];
+        for (int score = EXACT; score >= SUBSTRING && result.length < limit; score--) {
+            if (tierSize[score] == 0) continue;
+            int[] ids = new int[tierSize[score]];
+            int n = 0;
+            for (int i = 0; i < valueIds.length; i++) {
+                if (scores[i] == score) ids[n++] = valueIds[i];
+            }
+            int[] tierRows = rows.rows(ids, limit - result.length);
+            int at = result.length;
+            result = Arrays.copyOf(result, at + tierRows.length);
+            System.arraycopy(tierRows, 0, result, at, tierRows.length);
+        }
+        return result;
+    }
+
+    // Clave mayor = mejor: más puntaje y, a igual puntaje, menor ordinal
+    private static long key(int score, int ord) {
+        return ((long) score << 32) | (Integer.MAX_VALUE - ord);
+    }
+
+    private static int ord(long key) {
+        return Integer.MAX_VALUE - (int) key;
+    }
+
+    static void siftUp(long[] heap, int i) {
+        long key = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= key) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    static void siftDown(long[] heap, int size) {
+        long key = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= key) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+
+    /** Las primeras "limit" filas, en orden, de los valores dados. */
+    @FunctionalInterface
+    interface RowSource {
+        int[] rows(int[] valueIds, int limit);
+    }
+}
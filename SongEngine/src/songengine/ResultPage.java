@@ -0,0 +1,14 @@
+package songengine;
+
+import java.util.List;
+
+/**
+ * Una página de resultados: las canciones de [offset, offset + items.size())
+ * dentro de un total de coincidencias.
+ */
+public record ResultPage<T>(List<T> items, int offset, int total) {
+
+    public boolean hasMore() {
+        return offset + items.size() < total;
+    }
+}
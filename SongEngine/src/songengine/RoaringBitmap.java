@@ -0,0 +1,412 @@
+package songengine;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Conjunto comprimido de ordinales al estilo Roaring. Los enteros se agrupan
+ * por sus 16 bits altos y cada grupo guarda los 16 bits bajos como arreglo
+ * ordenado (hasta 4096 valores) o como mapa de 65536 bits, lo que ocupe menos.
+ * Es inmutable: and, or y andNot devuelven bitmaps nuevos.
+ */
+public final class RoaringBitmap {
+    static final int ARRAY_LIMIT = 4096;
+    private static final int WORDS = 1024;
+    private static final RoaringBitmap EMPTY = new RoaringBitmap(new char[0], new Container[0]);
+
+    private final char[] keys;              // 16 bits altos de cada grupo, ordenados
+    private final Container[] containers;
+    private final int cardinality;
+
+    private RoaringBitmap(char[] keys, Container[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+        int total = 0;
+        for (Container c : containers) total += c.cardinality;
+        this.cardinality = total;
+    }
+
+    public static RoaringBitmap empty() {
+        return EMPTY;
+    }
+
+    /** Bitmap de los valores sorted[from, to), que deben venir en orden creciente. */
+    public static RoaringBitmap of(IntBuffer sorted, int from, int to) {
+        Builder builder = new Builder();
+        for (int i = from; i < to; i++) builder.add(sorted.get(i));
+        return builder.build();
+    }
+
+    public static RoaringBitmap of(int... sorted) {
+        return of(IntBuffer.wrap(sorted), 0, sorted.length);
+    }
+
+    /** Bitmap con todos los valores de [0, size). */
+    public static RoaringBitmap range(int size) {
+        int groups = (size + 0xFFFF) >>> 16;
+        char[] keys = new char[groups];
+        Container[] containers = new Container[groups];
+        for (int g = 0; g < groups; g++) {
+            int count = Math.min(0x10000, size - (g << 16));
+            long[] words = new long[WORDS];
+            Arrays.fill(words, 0, count >>> 6, -1L);
+            if ((count & 63) != 0) words[count >>> 6] = (1L << (count & 63)) - 1;
+            keys[g] = (char) g;
+            containers[g] = Container.fromWords(words, count);
+        }
+        return new RoaringBitmap(keys, containers);
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    public boolean contains(int value) {
+        int slot = Arrays.binarySearch(keys, (char) (value >>> 16));
+        return slot >= 0 && containers[slot].contains((char) value);
+    }
+
+    /** Los valores en orden creciente. */
+    public int[] toArray() {
+        return toArray(cardinality);
+    }
+
+    /** Los primeros "limit" valores en orden creciente; no recorre los grupos que sobran. */
+    public int[] toArray(int limit) {
+        int[] out = new int[Math.min(limit, cardinality)];
+        int n = 0;
+        for (int k = 0; k < keys.length && n < out.length; k++) n = containers[k].copyTo(keys[k] << 16, out, n);
+        return out;
+    }
+
+    public RoaringBitmap and(RoaringBitmap other) {
+        List<Character> outKeys = new ArrayList<>();
+        List<Container> out = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (keys[i] > other.keys[j]) j++;
+            else {
+                Container c = containers[i++].and(other.containers[j++]);
+                if (c.cardinality > 0) {
+                    outKeys.add(keys[i - 1]);
+                    out.add(c);
+                }
+            }
+        }
+        return of(outKeys, out);
+    }
+
+    /** Tamaño de la intersección, sin armarla. */
+    public int andCardinality(RoaringBitmap other) {
+        int count = 0;
+        int i = 0, j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) i++;
+            else if (keys[i] > other.keys[j]) j++;
+            else count += containers[i++].andCardinality(other.containers[j++]);
+        }
+        return count;
+    }
+
+    public RoaringBitmap or(RoaringBitmap other) {
+        if (other.isEmpty()) return this;
+        if (isEmpty()) return other;
+        List<Character> outKeys = new ArrayList<>();
+        List<Container> out = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                outKeys.add(keys[i]);
+                out.add(containers[i++]);
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                outKeys.add(other.keys[j]);
+                out.add(other.containers[j++]);
+            } else {
+                outKeys.add(keys[i]);
+                out.add(containers[i++].or(other.containers[j++]));
+            }
+        }
+        return of(outKeys, out);
+    }
+
+    /**
+     * Unión de muchos bitmaps en una sola pasada: cada grupo se acumula en un
+     * mapa de bits en vez de fusionar los resultados de a pares.
+     */
+    public static RoaringBitmap orAll(List<RoaringBitmap> sets) {
+        if (sets.isEmpty()) return EMPTY;
+        if (sets.size() == 1) return sets.get(0);
+        if (sets.size() == 2) return sets.get(0).or(sets.get(1));
+        TreeMap<Character, long[]> groups = new TreeMap<>();
+        for (RoaringBitmap set : sets) {
+            for (int k = 0; k < set.keys.length; k++) {
+                set.containers[k].orInto(groups.computeIfAbsent(set.keys[k], key -> new long[WORDS]));
+            }
+        }
+        List<Character> keys = new ArrayList<>(groups.keySet());
+        List<Container> containers = new ArrayList<>(groups.size());
+        for (long[] words : groups.values()) {
+            int card = 0;
+            for (long word : words) card += Long.bitCount(word);
+            containers.add(Container.fromWords(words, card));
+        }
+        return of(keys, containers);
+    }
+
+    public RoaringBitmap andNot(RoaringBitmap other) {
+        if (other.isEmpty() || isEmpty()) return this;
+        List<Character> outKeys = new ArrayList<>();
+        List<Container> out = new ArrayList<>();
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            while (j < other.keys.length && other.keys[j] < keys[i]) j++;
+            Container c = j < other.keys.length && other.keys[j] == keys[i]
+                    ? containers[i].andNot(other.containers[j]) : containers[i];
+            if (c.cardinality > 0) {
+                outKeys.add(keys[i]);
+                out.add(c);
+            }
+        }
+        return of(outKeys, out);
+    }
+
+    /** Bytes aproximados que ocupan los contenedores. */
+    public long sizeInBytes() {
+        long bytes = keys.length * 2L;
+        for (Container c : containers) bytes += c.words != null ? WORDS * 8L : c.cardinality * 2L;
+        return bytes;
+    }
+
+    private static RoaringBitmap of(List<Character> keys, List<Container> containers) {
+        if (keys.isEmpty()) return EMPTY;
+        char[] k = new char[keys.size()];
+        for (int i = 0; i < k.length; i++) k[i] = keys.get(i);
+        return new RoaringBitmap(k, containers.toArray(new Container[0]));
+    }
+
+    /** Arma un bitmap a partir de valores que llegan en orden creciente. */
+    public static class Builder {
+        private final List<Character> keys = new ArrayList<>();
+        private final List<Container> containers = new ArrayList<>();
+        private int key = -1;
+        private char[] values = new char[16];
+        private long[] words;
+        private int count;
+        private int last = -1;
+
+        public Builder add(int value) {
+            if (value <= last) {
+                throw new IllegalArgumentException("Los valores deben ser crecientes y no negativos: " + value);
+            }
+            last = value;
+            int high = value >>> 16;
+            if (high != key) {
+                flush();
+                key = high;
+            }
+            char low = (char) value;
+            if (words != null) {
+                words[low >>> 6] |= 1L << low;
+            } else if (count == ARRAY_LIMIT) {
+                words = new long[WORDS];
+                for (int i = 0; i < count; i++) words[values[i] >>> 6] |= 1L << values[i];
+                words[low >>> 6] |= 1L << low;
+            } else {
+                if (count == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, count * 2));
+                values[count] = low;
+            }
+            count++;
+            return this;
+        }
+
+        public RoaringBitmap build() {
+            flush();
+            return of(keys, containers);
+        }
+
+        private void flush() {
+            if (count == 0) return;
+            keys.add((char) key);
+            containers.add(words != null ? Container.fromWords(words, count)
+                    : Container.fromValues(Arrays.copyOf(values, count)));
+            values = new char[16];
+            words = null;
+            count = 0;
+        }
+    }
+
+    // Un grupo de 65536 valores: arreglo ordenado (values) o mapa de bits (words)
+    private static final class Container {
+        final char[] values;
+        final long[] words;
+        final int cardinality;
+
+        private Container(char[] values, long[] words, int cardinality) {
+            this.values = values;
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        static Container fromValues(char[] values) {
+            return new Container(values, null, values.length);
+        }
+
+        // Elige la representación más chica para el resultado de una operación
+        static Container fromWords(long[] words, int cardinality) {
+            if (cardinality > ARRAY_LIMIT) return new Container(null, words, cardinality);
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return fromValues(values);
+        }
+
+        boolean contains(char value) {
+            if (words != null) return (words[value >>> 6] & (1L << value)) != 0;
+            return Arrays.binarySearch(values, value) >= 0;
+        }
+
+        // Copia valores hasta llenar "out" o agotar el grupo
+        int copyTo(int base, int[] out, int n) {
+            if (words == null) {
+                for (int i = 0; i < values.length && n < out.length; i++) out[n++] = base | values[i];
+                return n;
+            }
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0 && n < out.length) {
+                    out[n++] = base | (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return n;
+        }
+
+        Container and(Container other) {
+            if (words != null && other.words != null) {
+                long[] result = new long[WORDS];
+                int card = 0;
+                for (int w = 0; w < WORDS; w++) card += Long.bitCount(result[w] = words[w] & other.words[w]);
+                return fromWords(result, card);
+            }
+            if (words != null) return other.filter(this, true);
+            if (other.words != null) return filter(other, true);
+            char[] result = new char[Math.min(values.length, other.values.length)];
+            int i = 0, j = 0, n = 0;
+            while (i < values.length && j < other.values.length) {
+                if (values[i] < other.values[j]) i++;
+                else if (values[i] > other.values[j]) j++;
+                else {
+                    result[n++] = values[i++];
+                    j++;
+                }
+            }
+            return fromValues(Arrays.copyOf(result, n));
+        }
+
+        int andCardinality(Container other) {
+            if (words != null && other.words != null) {
+                int card = 0;
+                for (int w = 0; w < WORDS; w++) card += Long.bitCount(words[w] & other.words[w]);
+                return card;
+            }
+            if (words != null) return other.andCardinality(this);
+            int card = 0;
+            if (other.words != null) {
+                for (char v : values) {
+                    if ((other.words[v >>> 6] & (1L << v)) != 0) card++;
+                }
+                return card;
+            }
+            int i = 0, j = 0;
+            while (i < values.length && j < other.values.length) {
+                if (values[i] < other.values[j]) i++;
+                else if (values[i] > other.values[j]) j++;
+                else {
+                    card++;
+                    i++;
+                    j++;
+                }
+            }
+            return card;
+        }
+
+        Container or(Container other) {
+            if (words == null && other.words == null && values.length + other.values.length <= ARRAY_LIMIT) {
+                char[] result = new char[values.length + other.values.length];
+                int i = 0, j = 0, n = 0;
+                while (i < values.length || j < other.values.length) {
+                    if (j == other.values.length || (i < values.length && values[i] < other.values[j])) {
+                        result[n++] = values[i++];
+                    } else if (i == values.length || values[i] > other.values[j]) {
+                        result[n++] = other.values[j++];
+                    } else {
+                        result[n++] = values[i++];
+                        j++;
+                    }
+                }
+                return fromValues(Arrays.copyOf(result, n));
+            }
+            long[] result = toWords();
+            if (other.words != null) {
+                for (int w = 0; w < WORDS; w++) result[w] |= other.words[w];
+            } else {
+                for (char v : other.values) result[v >>> 6] |= 1L << v;
+            }
+            int card = 0;
+            for (long word : result) card += Long.bitCount(word);
+            return fromWords(result, card);
+        }
+
+        Container andNot(Container other) {
+            if (words == null) return filter(other, false);
+            long[] result = words.clone();
+            if (other.words != null) {
+                for (int w = 0; w < WORDS; w++) result[w] &= ~other.words[w];
+            } else {
+                for (char v : other.values) result[v >>> 6] &= ~(1L << v);
+            }
+            int card = 0;
+            for (long word : result) card += Long.bitCount(word);
+            return fromWords(result, card);
+        }
+
+        // Valores de este arreglo que están (o no están) en el otro contenedor
+        private Container filter(Container other, boolean keep) {
+            char[] result = new char[values.length];
+            int n = 0;
+            for (char v : values) {
+                if (other.contains(v) == keep) result[n++] = v;
+            }
+            return fromValues(n == result.length ? result : Arrays.copyOf(result, n));
+        }
+
+        void orInto(long[] target) {
+            if (words != null) {
+                for (int w = 0; w < WORDS; w++) target[w] |= words[w];
+            } else {
+                for (char v : values) target[v >>> 6] |= 1L << v;
+            }
+        }
+
+        private long[] toWords() {
+            if (words != null) return words.clone();
+            long[] result = new long[WORDS];
+            for (char v : values) result[v >>> 6] |= 1L << v;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package songengine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Búsqueda "contains" por recorrido, para lo que los índices no resuelven
+ * (consultas de menos de tres caracteres) y para verificar candidatos. Guarda
+ * una copia del campo ya normalizada y empaquetada en UTF-8, así no se
+ * decodifica ni se pasa a minúsculas nada al consultar: como UTF-8 se
+ * sincroniza solo, buscar los bytes de la consulta equivale a buscar el texto.
+ *
+ * El recorrido busca en todos los bytes de un tramo de filas de una vez y
+ * compara 8 bytes por paso (SWAR: el primer y el último byte de la consulta
+ * contra una palabra de 64 bits). Los tramos tienen unos 64 KB, para que
+ * quepan en caché, y con columnas grandes se reparten entre los núcleos con
+ * el pool de ForkJoin. Las filas encontradas se juntan en un búfer que se
+ * toma de una reserva compartida y se devuelve al terminar: lo único que se
+ * reserva es el resultado. La reserva guarda unos pocos búferes por núcleo,
+ * sin importar cuántos hilos (virtuales o no) consulten, y un búfer que pasó
+ * de {@link #KEEP_INTS} posiciones en un recorrido grande no vuelve a ella.
+ * La copia vive en buffers, en el heap o en una {@link OffHeapArena}.
+ */
+public class SegmentedScan {
+    private static final int SEGMENT_BYTES = 64 * 1024;
+    private static final int PARALLEL_THRESHOLD = 100_000;   // filas
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final int KEEP_INTS = 1 << 16;             // 256 KB por búfer guardado como máximo
+    private static final BlockingQueue<SongTable.IntList> BUFFERS =
+            new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+
+    private final ByteBuffer bytes;   // valores normalizados concatenados; little-endian para leer de a 8
+    private final IntBuffer offsets;  // el valor i ocupa bytes[offsets[i] .. offsets[i + 1])
+    private final int[] segments;     // primera fila de cada tramo (segmentos + 1 posiciones)
+
+    private SegmentedScan(ByteBuffer bytes, IntBuffer offsets) {
+        this.bytes = bytes.order(ByteOrder.LITTLE_ENDIAN);
+        this.offsets = offsets;
+        int size = offsets.limit() - 1;
+        SongTable.IntList starts = new SongTable.IntList();
+        for (int row = 0; row < size; ) {
+            starts.add(row);
+            int limit = offsets.get(row) + SEGMENT_BYTES;
+            row++;
+            while (row < size && offsets.get(row + 1) <= limit) row++;
+        }
+        starts.add(size);
+        this.segments = starts.toArray();
+    }
+
+    private SegmentedScan(SegmentedScan source, ByteBuffer bytes, IntBuffer offsets) {
+        this.bytes = bytes.order(ByteOrder.LITTLE_ENDIAN);
+        this.offsets = offsets;
+        this.segments = source.segments;
+    }
+
+    public static SegmentedScan build(int size, IntFunction<String> values) {
+        byte[][] folded = new byte[size][];
+        int[] offsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            folded[i] = TrigramIndex.fold(values.apply(i)).getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + folded[i].length;
+        }
+        byte[] bytes = new byte[offsets[size]];
+        for (int i = 0; i < size; i++) System.arraycopy(folded[i], 0, bytes, offsets[i], folded[i].length);
+        return new SegmentedScan(ByteBuffer.wrap(bytes), IntBuffer.wrap(offsets));
+    }
+
+    /** La misma copia en la arena, fuera del heap. */
+    SegmentedScan offHeap(OffHeapArena arena) {
+        return new SegmentedScan(this, arena.copy(bytes), arena.copy(offsets));
+    }
+
+    /** Consulta ya normalizada, en el formato que esperan los demás métodos. */
+    public static byte[] needle(String foldedQuery) {
+        return foldedQuery.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public int size() {
+        return offsets.limit() - 1;
+    }
+
+    /** Filas (en orden) cuyo valor contiene la consulta ya normalizada. */
+    public int[] contains(String foldedQuery) {
+        byte[] needle = needle(foldedQuery);
+        int count = segments.length - 1;
+        if (size() < PARALLEL_THRESHOLD || count < 2) {
+            SongTable.IntList out = buffer();
+            for (int s = 0; s < count; s++) scanSegment(s, needle, out);
+            return drain(out);
+        }
+        // cada tramo junta sus filas en el búfer de su hilo y las copia; luego se
+        // concatenan en orden de tramo, que ya quedan ordenadas
+        List<int[]> parts = IntStream.range(0, count).parallel()
+                .mapToObj(s -> drain(scanSegment(s, needle, buffer())))
+                .collect(Collectors.toList());
+        int total = 0;
+        for (int[] part : parts) total += part.length;
+        int[] rows = new int[total];
+        int at = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, rows, at, part.length);
+            at += part.length;
+        }
+        return rows;
+    }
+
+    /** Si el valor de la fila contiene la consulta (ver {@link #needle}). */
+    public boolean contains(int row, byte[] needle) {
+        return indexOf(offsets.get(row), offsets.get(row + 1), needle) >= 0;
+    }
+
+    /** Si el valor de la fila es igual a la consulta (ver {@link #needle}). */
+    public boolean equals(int row, byte[] needle) {
+        int from = offsets.get(row);
+        return offsets.get(row + 1) - from == needle.length && startsWith(from, needle);
+    }
+
+    /**
+     * Puntaje de la fila contra la consulta, con las mismas reglas que
+     * {@link RankedSearch#score} pero sobre los bytes, sin armar el String.
+     */
+    int score(int row, byte[] needle) {
+        int from = offsets.get(row);
+        int end = offsets.get(row + 1);
+        int n = needle.length;
+        if (n > end - from) return RankedSearch.NO_MATCH;
+        if (startsWith(from, needle)) {
+            return n == end - from ? RankedSearch.EXACT : RankedSearch.PREFIX;
+        }
+        int score = RankedSearch.NO_MATCH;
+        for (int at = indexOf(from + 1, end, needle); at >= 0; at = indexOf(at + 1, end, needle)) {
+            if (!Character.isLetterOrDigit(codePointBefore(at))) return RankedSearch.WORD;
+            score = RankedSearch.SUBSTRING;
+        }
+        return score;
+    }
+
+    /** Bytes que ocupa la copia normalizada. */
+    public long sizeInBytes() {
+        return bytes.limit() + 4L * (offsets.limit() + segments.length);
+    }
+
+    // Un búfer vacío de la reserva, o uno nuevo si no queda
+    private static SongTable.IntList buffer() {
+        SongTable.IntList out = BUFFERS.poll();
+        if (out == null) return new SongTable.IntList();
+        out.clear();
+        return out;
+    }
+
+    // Copia las filas juntadas y devuelve el búfer a la reserva, salvo que haya crecido de más
+    private static int[] drain(SongTable.IntList out) {
+        int[] rows = out.toArray();
+        if (out.capacity() <= KEEP_INTS) BUFFERS.offer(out);
+        return rows;
+    }
+
+    // Recorre los bytes del tramo buscando la consulta y ubica la fila de cada coincidencia;
+    // una coincidencia que cruza el final de una fila no cuenta
+    private SongTable.IntList scanSegment(int segment, byte[] needle, SongTable.IntList out) {
+        int row = segments[segment];
+        int lastRow = segments[segment + 1];
+        if (needle.length == 0) {
+            for (; row < lastRow; row++) out.add(row);
+            return out;
+        }
+        int end = offsets.get(lastRow);
+        int pos = offsets.get(row);
+        while (row < lastRow) {
+            int at = indexOf(pos, end, needle);
+            if (at < 0) break;
+            while (offsets.get(row + 1) <= at) row++;
+            if (at + needle.length <= offsets.get(row + 1)) {
+                out.add(row);
+                pos = offsets.get(++row);
+            } else {
+                pos = at + 1;
+            }
+        }
+        return out;
+    }
+
+    // Decodifica el carácter UTF-8 que termina justo antes de "at"
+    private int codePointBefore(int at) {
+        int start = at - 1;
+        while ((bytes.get(start) & 0xC0) == 0x80) start--;
+        int lead = bytes.get(start) & 0xFF;
+        if (lead < 0x80) return lead;
+        int codePoint = lead & (0xFF >>> (at - start + 1));
+        for (int i = start + 1; i < at; i++) codePoint = (codePoint << 6) | (bytes.get(i) & 0x3F);
+        return codePoint;
+    }
+
+    // Primera posición en [from, to) donde empieza la consulta completa, o -1
+    private int indexOf(int from, int to, byte[] needle) {
+        int n = needle.length;
+        if (n == 0) return from;
+        int limit = to - n + 1;     // la consulta debe empezar antes de limit
+        long first = ONES * (needle[0] & 0xFF);
+        long last = ONES * (needle[n - 1] & 0xFF);
+        int i = from;
+        for (; i + 8 <= limit; i += 8) {
+            // byte en cero donde coinciden el primer y el último byte de la consulta
+            long x = (bytes.getLong(i) ^ first) | (bytes.getLong(i + n - 1) ^ last);
+            long candidates = (x - ONES) & ~x & HIGHS;
+            while (candidates != 0) {
+                int at = i + (Long.numberOfTrailingZeros(candidates) >>> 3);
+                if (startsWith(at, needle)) return at;
+                candidates &= candidates - 1;
+            }
+        }
+        for (; i < limit; i++) {
+            if (bytes.get(i) == needle[0] && startsWith(i, needle)) return i;
+        }
+        return -1;
+    }
+
+    // Si la consulta aparece completa a partir de "at"
+    private boolean startsWith(int at, byte[] needle) {
+        for (int k = 0; k < needle.length; k++) {
+            if (bytes.get(at + k) != needle[k]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,613 @@
+package songengine;
+
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Foto inmutable del catálogo: la tabla en columnas más sus índices. Las
+ * búsquedas devuelven ordinales y quien llama decide cuándo materializar las
+ * canciones. Cada campo de texto se resuelve con un {@link FieldIndex} que se
+ * puede reemplazar con {@link #withIndex(SongField, FieldIndex)}.
+ *
+ * Con {@link #buildOffHeap} u {@link #offHeap()} las columnas, los índices de
+ * trigramas, las copias normalizadas, el índice de años y los rangos
+ * alfabéticos viven en una {@link OffHeapArena}: lo que crece con las filas
+ * queda fuera del heap y el recolector no lo recorre.
+ */
+public class SongCatalog {
+    private final SongTable table;
+    private final TrigramIndex titleIndex;
+    private final TrigramIndex authorIndex;   // sobre el diccionario de autores, no sobre las filas
+    private final Map<SongField, FieldIndex> indexes;
+    private final OffHeapArena arena;           // null: todo en el heap
+    private volatile FacetIndex facets;         // se arma al primer uso, ver facets()
+    private volatile YearIndex years;           // rangos de años, ver years()
+    private volatile Suggester titleSuggester;  // autocompletado, ver suggester()
+    private volatile Suggester authorSuggester;
+    private volatile TermIndex titleTerms;      // búsqueda difusa, ver terms()
+    private volatile TermIndex authorTerms;
+    private volatile SegmentedScan titleScan;   // recorridos sobre la copia normalizada, ver scan()
+    private volatile SegmentedScan authorScan;
+    private volatile PhoneticIndex titlePhonetic; // códigos Metaphone, ver phonetic()
+    private volatile PhoneticIndex authorPhonetic;
+    private volatile CollationIndex collation;    // rangos alfabéticos para ordenar, ver collation()
+    private volatile KeyIndex keys;               // filas por título y autor, ver keys()
+    // Arma los índices perezosos; candado y no synchronized para que un hilo
+    // virtual que espera un índice en construcción no quede clavado a su portador
+    private final ReentrantLock building = new ReentrantLock();
+
+    SongCatalog(SongTable table, TrigramIndex titleIndex, TrigramIndex authorIndex) {
+        this(table, titleIndex, authorIndex, null);
+    }
+
+    private SongCatalog(SongTable table, TrigramIndex titleIndex, TrigramIndex authorIndex, OffHeapArena arena) {
+        this.table = table;
+        this.titleIndex = titleIndex;
+        this.authorIndex = authorIndex;
+        this.arena = arena;
+        this.indexes = new EnumMap<>(SongField.class);
+
+        indexes.put(SongField.TITLE, TitleQuery::new);
+        indexes.put(SongField.AUTHOR, AuthorQuery::new);
+        indexes.put(SongField.GENRE, folded -> new CodeQuery(SongField.GENRE, folded));
+        indexes.put(SongField.LANGUAGE, folded -> new CodeQuery(SongField.LANGUAGE, folded));
+    }
+
+    private SongCatalog(SongCatalog base, Map<SongField, FieldIndex> indexes) {
+        this.table = base.table;
+        this.titleIndex = base.titleIndex;
+        this.authorIndex = base.authorIndex;
+        this.indexes = indexes;
+        this.arena = base.arena;
+        this.facets = base.facets;
+        this.years = base.years;
+        this.titleSuggester = base.titleSuggester;
+        this.authorSuggester = base.authorSuggester;
+        this.titleTerms = base.titleTerms;
+        this.authorTerms = base.authorTerms;
+        this.titleScan = base.titleScan;
+        this.authorScan = base.authorScan;
+        this.titlePhonetic = base.titlePhonetic;
+        this.authorPhonetic = base.authorPhonetic;
+        this.collation = base.collation;
+        this.keys = base.keys;
+    }
+
+    public static SongCatalog build(SongTable table) {
+        return prepare(buildLazy(table));
+    }
+
+    /**
+     * Como {@link #build}, solo con los índices de trigramas: los demás se arman
+     * cuando una consulta los pide. Para catálogos chicos y de vida corta, como
+     * la cola del delta de una {@link CatalogVersion}.
+     */
+    static SongCatalog buildLazy(SongTable table) {
+        StringColumn authors = table.authorDictionary();
+        TrigramIndex titleIndex = TrigramIndex.build(table.size(), table::title);
+        TrigramIndex authorIndex = TrigramIndex.build(authors.size(), authors::get);
+        return new SongCatalog(table, titleIndex, authorIndex);
+    }
+
+    /**
+     * Como {@link #build}, con la tabla y los índices que crecen con las filas
+     * en una arena nueva. Los arreglos del heap que se usan para armarlos son
+     * temporales: quedan para el recolector apenas se copian.
+     */
+    public static SongCatalog buildOffHeap(SongTable table) {
+        OffHeapArena arena = new OffHeapArena();
+        SongTable copy = table.offHeap(arena);
+        StringColumn authors = copy.authorDictionary();
+        TrigramIndex titleIndex = TrigramIndex.build(copy.size(), copy::title).offHeap(arena);
+        TrigramIndex authorIndex = TrigramIndex.build(authors.size(), authors::get).offHeap(arena);
+        return prepare(new SongCatalog(copy, titleIndex, authorIndex, arena));
+    }
+
+    /**
+     * Esta foto con la tabla y los índices de trigramas en una arena nueva; los
+     * demás índices se arman ahí al primer uso. Las columnas que ya están fuera
+     * del heap (un .songdb mapeado) se comparten sin copiarlas.
+     */
+    public SongCatalog offHeap() {
+        if (arena != null) return this;
+        OffHeapArena fresh = new OffHeapArena();
+        return new SongCatalog(table.offHeap(fresh), titleIndex.offHeap(fresh), authorIndex.offHeap(fresh), fresh);
+    }
+
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    /** Bytes de memoria directa reservados por la arena de esta foto (0 si está en el heap). */
+    public long offHeapBytes() {
+        return arena == null ? 0 : arena.reservedBytes();
+    }
+
+    private static SongCatalog prepare(SongCatalog catalog) {
+        // el autocompletado, las copias normalizadas, los códigos fonéticos y los rangos
+        // alfabéticos se arman al cargar; al abrir un .songdb quedan para el primer uso
+        catalog.suggester(SongField.TITLE);
+        catalog.suggester(SongField.AUTHOR);
+        catalog.scan(SongField.TITLE);
+        catalog.scan(SongField.AUTHOR);
+        catalog.phonetic(SongField.TITLE);
+        catalog.phonetic(SongField.AUTHOR);
+        catalog.collation();
+        return catalog;
+    }
+
+    public static SongCatalog empty() {
+        return build(new SongTable.Builder().build());
+    }
+
+    /** Copia de esta foto que resuelve el campo con otro índice. */
+    public SongCatalog withIndex(SongField field, FieldIndex index) {
+        Map<SongField, FieldIndex> copy = new EnumMap<>(indexes);
+        copy.put(field, index);
+        return new SongCatalog(this, copy);
+    }
+
+    public SongTable table() {
+        return table;
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    public int termCount() {
+        return titleIndex.termCount() + authorIndex.termCount();
+    }
+
+    /**
+     * Bitmaps por faceta. Se arman la primera vez que se piden (una pasada por
+     * las columnas), así abrir un .songdb no tiene que recorrer las filas.
+     */
+    public FacetIndex facets() {
+        FacetIndex current = facets;
+        if (current == null) {
+            building.lock();
+            try {
+                current = facets;
+                if (current == null) facets = current = FacetIndex.build(table, authorIndex, scan(SongField.AUTHOR));
+            } finally {
+                building.unlock();
+            }
+        }
+        return current;
+    }
+
+    /** Ordinales ordenados por año para consultas por rango; se arma al primer uso. */
+    public YearIndex years() {
+        YearIndex current = years;
+        if (current == null) {
+            building.lock();
+            try {
+                current = years;
+                if (current == null) {
+                    current = YearIndex.build(table);
+                    years = current = arena == null ? current : current.offHeap(arena);
+                }
+            } finally {
+                building.unlock();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Copia normalizada de los títulos (por fila) o de los autores (por id del
+     * diccionario) para buscar subcadenas recorriendo bytes.
+     */
+    public SegmentedScan scan(SongField field) {
+        if (field != SongField.TITLE && field != SongField.AUTHOR) {
+            throw new IllegalArgumentException("No hay recorrido para " + field);
+        }
+        SegmentedScan current = field == SongField.TITLE ? titleScan : authorScan;
+        if (current == null) {
+            building.lock();
+            try {
+                current = field == SongField.TITLE ? titleScan : authorScan;
+                if (current == null) {
+                    if (field == SongField.TITLE) {
+                        current = SegmentedScan.build(table.size(), table::title);
+                    } else {
+                        StringColumn authors = table.authorDictionary();
+                        current = SegmentedScan.build(authors.size(), authors::get);
+                    }
+                    if (arena != null) current = current.offHeap(arena);
+                    if (field == SongField.TITLE) titleScan = current;
+                    else authorScan = current;
+                }
+            } finally {
+                building.unlock();
+            }
+        }
+        return current;
+    }
+
+    /** Índice de autocompletado de títulos o autores. */
+    public Suggester suggester(SongField field) {
+        if (field != SongField.TITLE && field != SongField.AUTHOR) {
+            throw new IllegalArgumentException("No hay autocompletado para " + field);
+        }
+        Suggester current = field == SongField.TITLE ? titleSuggester : authorSuggester;
+        if (current == null) {
+            building.lock();
+            try {
+                current = field == SongField.TITLE ? titleSuggester : authorSuggester;
+                if (current == null) {
+                    if (field == SongField.TITLE) {
+                        titleSuggester = current = Suggester.build(table.size(), table::title, ord -> 1);
+                    } else {
+                        StringColumn authors = table.authorDictionary();
+                        authorSuggester = current = Suggester.build(authors.size(), authors::get, table::authorRowCount);
+                    }
+                }
+            } finally {
+                building.unlock();
+            }
+        }
+        return current;
+    }
+
+    /** Hasta "limit" títulos o autores que empiezan con el prefijo, los más frecuentes primero. */
+    public List<String> complete(SongField field, String prefix, int limit) {
+        return suggester(field).complete(prefix, limit);
+    }
+
+    /** Diccionario de palabras de títulos o autores para la búsqueda difusa; se arma al primer uso. */
+    public TermIndex terms(SongField field) {
+        if (field != SongField.TITLE && field != SongField.AUTHOR) {
+            throw new IllegalArgumentException("No hay búsqueda difusa para " + field);
+        }
+        TermIndex current = field == SongField.TITLE ? titleTerms : authorTerms;
+        if (current == null) {
+            building.lock();
+            try {
+                current = field == SongField.TITLE ? titleTerms : authorTerms;
+                if (current == null) {
+                    if (field == SongField.TITLE) {
+                        titleTerms = current = TermIndex.build(table.size(), table::title);
+                    } else {
+                        StringColumn authors = table.authorDictionary();
+                        authorTerms = current = TermIndex.build(authors.size(), authors::get);
+                    }
+                }
+            } finally {
+                building.unlock();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Búsqueda difusa por palabras: cada palabra de la consulta debe parecerse a
+     * alguna palabra del valor con a lo sumo maxEdits ediciones (menos en
+     * palabras cortas: ninguna hasta 2 letras, una hasta 5). Devuelve los
+     * ordinales en orden creciente.
+     */
+    public int[] searchFuzzy(SongField field, String query, int maxEdits) {
+        if (maxEdits < 0 || maxEdits > 2) {
+            throw new IllegalArgumentException("La distancia máxima debe estar entre 0 y 2: " + maxEdits);
+        }
+        TermIndex index = terms(field);
+        BitSet result = null;
+        for (String word : TermIndex.words(TrigramIndex.fold(query))) {
+            int edits = Math.min(maxEdits, word.length() <= 2 ? 0 : word.length() <= 5 ? 1 : 2);
+            BitSet ids = index.postings(index.matchingTerms(word, edits));
+            if (result == null) result = ids;
+            else result.and(ids);
+            if (result.isEmpty()) break;
+        }
+        if (result == null || result.isEmpty()) return new int[0];
+        int[] ids = result.stream().toArray();
+        return field == SongField.TITLE ? ids : table.rowsOfAuthors(ids);
+    }
+
+    /** Códigos fonéticos de las palabras de títulos (por fila) o autores (por id del diccionario). */
+    public PhoneticIndex phonetic(SongField field) {
+        if (field != SongField.TITLE && field != SongField.AUTHOR) {
+            throw new IllegalArgumentException("No hay índice fonético para " + field);
+        }
+        PhoneticIndex current = field == SongField.TITLE ? titlePhonetic : authorPhonetic;
+        if (current == null) {
+            building.lock();
+            try {
+                current = field == SongField.TITLE ? titlePhonetic : authorPhonetic;
+                if (current == null) {
+                    if (field == SongField.TITLE) {
+                        titlePhonetic = current = PhoneticIndex.build(table.size(), table::title);
+                    } else {
+                        StringColumn authors = table.authorDictionary();
+                        authorPhonetic = current = PhoneticIndex.build(authors.size(), authors::get);
+                    }
+                }
+            } finally {
+                building.unlock();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Búsqueda "suena como": cada palabra de la consulta debe tener el mismo
+     * código Metaphone que alguna palabra del valor ("Selia Crus" encuentra a
+     * Celia Cruz). Se resuelve con el mapa de códigos, sin recorrer el
+     * catálogo. Devuelve los ordinales en orden creciente.
+     */
+    public int[] searchPhonetic(SongField field, String query) {
+        int[] ids = phonetic(field).search(query);
+        return field == SongField.TITLE || ids.length == 0 ? ids : table.rowsOfAuthors(ids);
+    }
+
+    /** Rango alfabético (intercalación del español) de cada título y autor. */
+    public CollationIndex collation() {
+        CollationIndex current = collation;
+        if (current == null) {
+            building.lock();
+            try {
+                current = collation;
+                if (current == null) {
+                    current = CollationIndex.build(table);
+                    collation = current = arena == null ? current : current.offHeap(arena);
+                }
+            } finally {
+                building.unlock();
+            }
+        }
+        return current;
+    }
+
+    /** Las filas por la clave de {@link CatalogVersion#key}, para ubicar la canción que cambia un escritor. */
+    KeyIndex keys() {
+        KeyIndex current = keys;
+        if (current == null) {
+            building.lock();
+            try {
+                current = keys;
+                if (current == null) {
+                    current = KeyIndex.build(table);
+                    keys = current = arena == null ? current : current.offHeap(arena);
+                }
+            } finally {
+                building.unlock();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Los ordinales en el orden pedido, solo los primeros "limit" (selección
+     * parcial con un montículo cuando el límite es chico).
+     */
+    public int[] sort(int[] ords, SongOrder order, int limit) {
+        return collation().sort(ords, order, limit);
+    }
+
+    /** Todo el catálogo en el orden pedido; se arma una vez por orden y se comparte. */
+    public IntBuffer sorted(SongOrder order) {
+        return collation().sorted(order);
+    }
+
+    TrigramIndex titleIndex() {
+        return titleIndex;
+    }
+
+    TrigramIndex authorIndex() {
+        return authorIndex;
+    }
+
+    public int[] search(SongField field, String query) {
+        return indexes.get(field).search(TrigramIndex.fold(query));
+    }
+
+    /**
+     * Canciones que cumplen todos los criterios (AND de "contains" por campo).
+     * Los criterios nulos o vacíos se ignoran; sin criterios devuelve null.
+     * Cada predicado se prepara y estima con las estadísticas de su índice; el
+     * más selectivo se recorre con su índice y los demás solo se verifican
+     * sobre esos candidatos, así el costo sigue al resultado y no al catálogo.
+     */
+    public int[] searchByCriteria(Map<SongField, String> criteria) {
+        List<FieldQuery> plan = new ArrayList<>(criteria.size());
+        for (Map.Entry<SongField, String> criterion : criteria.entrySet()) {
+            String query = criterion.getValue();
+            if (query == null || query.isEmpty()) continue;
+            plan.add(indexes.get(criterion.getKey()).prepare(TrigramIndex.fold(query)));
+        }
+        if (plan.isEmpty()) return null;
+
+        plan.sort(Comparator.comparingInt(FieldQuery::estimate));
+        if (plan.get(0).estimate() == 0) return new int[0];
+        int[] result = plan.get(0).rows();
+        if (plan.size() > 1) result = result.clone();   // se filtra en su lugar
+        int n = result.length;
+        for (int p = 1; p < plan.size() && n > 0; p++) {
+            FieldQuery filter = plan.get(p);
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (filter.matches(result[i])) result[kept++] = result[i];
+            }
+            n = kept;
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Búsqueda con ranking limitada a las "limit" mejores coincidencias, de la
+     * más relevante a la menos (ver {@link FieldQuery#top(int)}).
+     */
+    public int[] searchTop(SongField field, String query, int limit) {
+        if (limit < 1) throw new IllegalArgumentException("El límite debe ser positivo: " + limit);
+        return indexes.get(field).prepare(TrigramIndex.fold(query)).top(limit);
+    }
+
+    /**
+     * Puntaje con que {@link #searchTop} ordena un valor frente a la consulta:
+     * 3 exacta, 2 prefijo, 1 inicio de palabra, 0 subcadena y -1 si no coincide.
+     * Permite mezclar resultados con ranking que vienen de varios catálogos.
+     */
+    public static int relevance(String value, String query) {
+        return RankedSearch.score(TrigramIndex.fold(value), TrigramIndex.fold(query));
+    }
+
+    public int[] searchByYear(int year) {
+        return facets().year(year).toArray();
+    }
+
+    /**
+     * Canciones entre los años from y to (inclusive), en orden cronológico:
+     * un tramo contiguo del índice de años, sin recorrer el catálogo.
+     */
+    public int[] searchByYearRange(int from, int to) {
+        return years().between(from, to);
+    }
+
+    /** Canciones que pasan el filtro de facetas, resuelto solo con operaciones de bitmaps. */
+    public int[] searchByFilter(FacetFilter filter) {
+        return facets().evaluate(filter).toArray();
+    }
+
+    /** Conteos por género, idioma y década de las canciones que pasan el filtro (ver {@link FacetIndex#counts}). */
+    public Map<String, Map<String, Integer>> facetCounts(FacetFilter filter) {
+        FacetIndex index = facets();
+        return index.counts(index.evaluate(filter));
+    }
+
+    // Intersecta las listas de trigramas y solo verifica los candidatos que quedan
+    static int[] matchIndexed(TrigramIndex index, SegmentedScan scan, String folded) {
+        int[] candidates = index.candidates(folded);
+        // consulta de menos de tres caracteres: no hay trigramas con qué filtrar y se recorre todo
+        if (candidates == null) return scan.contains(folded);
+        byte[] needle = SegmentedScan.needle(folded);
+        int n = 0;
+        for (int id : candidates) {
+            if (scan.contains(id, needle)) candidates[n++] = id;
+        }
+        return n == candidates.length ? candidates : Arrays.copyOf(candidates, n);
+    }
+
+    // Títulos: trigramas por fila, la cota es la lista más corta de la consulta
+    private class TitleQuery implements FieldQuery {
+        private final String folded;
+        private final byte[] needle;
+
+        TitleQuery(String folded) {
+            this.folded = folded;
+            this.needle = SegmentedScan.needle(folded);
+        }
+
+        public int estimate() {
+            return titleIndex.upperBound(folded, table.size());
+        }
+
+        public int[] rows() {
+            return matchIndexed(titleIndex, scan(SongField.TITLE), folded);
+        }
+
+        public boolean matches(int ord) {
+            return scan(SongField.TITLE).contains(ord, needle);
+        }
+
+        // sin trigramas, el recorrido deja solo las filas que coinciden para puntuarlas
+        public int[] top(int limit) {
+            SegmentedScan scan = scan(SongField.TITLE);
+            int[] candidates = titleIndex.candidates(folded);
+            if (candidates == null) candidates = scan.contains(folded);
+            return RankedSearch.topRows(candidates, scan, needle, limit);
+        }
+    }
+
+    // Autores: se resuelve una vez contra el diccionario y la cuenta es exacta
+    private class AuthorQuery implements FieldQuery {
+        private final String folded;
+        private final int[] authorIds;
+        private BitSet accepted;
+
+        AuthorQuery(String folded) {
+            this.folded = folded;
+            this.authorIds = matchIndexed(authorIndex, scan(SongField.AUTHOR), folded);
+        }
+
+        public int estimate() {
+            int rows = 0;
+            for (int id : authorIds) rows += table.authorRowCount(id);
+            return rows;
+        }
+
+        public int[] rows() {
+            return authorIds.length == 0 ? authorIds : table.rowsOfAuthors(authorIds);
+        }
+
+        public boolean matches(int ord) {
+            if (accepted == null) {
+                accepted = new BitSet();
+                for (int id : authorIds) accepted.set(id);
+            }
+            return accepted.get(table.authorId(ord));
+        }
+
+        public int[] top(int limit) {
+            byte[] needle = SegmentedScan.needle(folded);
+            SegmentedScan scan = scan(SongField.AUTHOR);
+            return RankedSearch.topByValue(authorIds, id -> scan.score(id, needle), limit, (ids, max) -> {
+                int[] rows = table.rowsOfAuthors(ids);
+                return rows.length <= max ? rows : Arrays.copyOf(rows, max);
+            });
+        }
+    }
+
+    // Género e idioma: diccionario chico, la cuenta por código es exacta y las filas
+    // salen de la unión de los bitmaps de cada código que coincide
+    private class CodeQuery implements FieldQuery {
+        private final SongField field;
+        private final String folded;
+        private final boolean[] codes;
+
+        CodeQuery(SongField field, String folded) {
+            this.field = field;
+            this.folded = folded;
+            this.codes = table.matchCodes(field, folded);
+        }
+
+        public int estimate() {
+            int[] counts = table.codeCounts(field);
+            int rows = 0;
+            for (int code = 0; code < codes.length; code++) {
+                if (codes[code]) rows += counts[code];
+            }
+            return rows;
+        }
+
+        public int[] rows() {
+            List<RoaringBitmap> sets = new ArrayList<>();
+            FacetIndex facetIndex = facets();
+            for (int code = 0; code < codes.length; code++) {
+                if (codes[code]) sets.add(facetIndex.code(field, code));
+            }
+            return RoaringBitmap.orAll(sets).toArray();
+        }
+
+        public int[] top(int limit) {
+            String[] dictionary = table.foldedDictionary(field);
+            int[] matched = new int[dictionary.length];
+            int n = 0;
+            for (int code = 0; code < codes.length; code++) {
+                if (codes[code]) matched[n++] = code;
+            }
+            FacetIndex facetIndex = facets();
+            return RankedSearch.topByValue(Arrays.copyOf(matched, n), code -> RankedSearch.score(dictionary[code], folded), limit,
+                    (ids, max) -> {
+                        List<RoaringBitmap> sets = new ArrayList<>(ids.length);
+                        for (int code : ids) sets.add(facetIndex.code(field, code));
+                        return RoaringBitmap.orAll(sets).toArray(max);
+                    });
+        }
+
+        public boolean matches(int ord) {
+            return codes[table.code(field, ord)];
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package songengine;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Formato binario .songdb: una foto del catálogo (columnas, diccionarios e
+ * índices) que se abre con FileChannel.map y se consulta directo desde las
+ * páginas mapeadas, sin deserializar. Como el mapeo es de solo lectura, varios
+ * procesos del mismo equipo comparten las mismas páginas del caché del sistema.
+ *
+ * Cabecera (32 bytes, little-endian): magic "SONGDB01", int versión,
+ * int canciones, int secciones y 12 bytes reservados. Luego la tabla de secciones
+ * (int id, int reservado, long offset, long largo) y las secciones alineadas
+ * a 64 bytes en el orden de {@link Section}.
+ */
+public final class SongDb {
+    private static final byte[] MAGIC = "SONGDB01".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int SECTION_ENTRY_BYTES = 24;
+    private static final int ALIGNMENT = 64;
+    private static final int BLOCK_BYTES = 1 << 20;
+
+    enum Section {
+        YEARS, GENRE_IDS, LANGUAGE_IDS, AUTHOR_IDS, TITLE_OFFSETS, TITLE_BYTES,
+        GENRE_DICT_OFFSETS, GENRE_DICT_BYTES, LANGUAGE_DICT_OFFSETS, LANGUAGE_DICT_BYTES,
+        AUTHOR_DICT_OFFSETS, AUTHOR_DICT_BYTES, AUTHOR_START, AUTHOR_ROWS,
+        TITLE_TRIGRAM_KEYS, TITLE_TRIGRAM_START, TITLE_TRIGRAM_POSTINGS,
+        AUTHOR_TRIGRAM_KEYS, AUTHOR_TRIGRAM_START, AUTHOR_TRIGRAM_POSTINGS
+    }
+
+    private SongDb() {
+    }
+
+    /** Escribe la foto en un archivo temporal y lo mueve de forma atómica sobre target. */
+    public static void write(SongCatalog catalog, Path target) throws IOException {
+        SongTable table = catalog.table();
+        Buffer[] sections = {
+                table.years(), table.genreIds(), table.languageIds(), table.authorIds(),
+                table.titles().offsets(), table.titles().bytes(),
+                table.genreDictionary().offsets(), table.genreDictionary().bytes(),
+                table.languageDictionary().offsets(), table.languageDictionary().bytes(),
+                table.authorDictionary().offsets(), table.authorDictionary().bytes(),
+                table.authorStart(), table.authorRows(),
+                catalog.titleIndex().keys(), catalog.titleIndex().postingStart(), catalog.titleIndex().postings(),
+                catalog.authorIndex().keys(), catalog.authorIndex().postingStart(), catalog.authorIndex().postings()
+        };
+
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long[] offsets = new long[sections.length];
+            long[] lengths = new long[sections.length];
+            long position = align(HEADER_BYTES + (long) SECTION_ENTRY_BYTES * sections.length);
+            for (int i = 0; i < sections.length; i++) {
+                offsets[i] = position;
+                lengths[i] = writeSection(channel, sections[i], position);
+                position = align(position + lengths[i]);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + SECTION_ENTRY_BYTES * sections.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(VERSION).putInt(table.size()).putInt(sections.length).putInt(0).putLong(0);
+            for (int i = 0; i < sections.length; i++) {
+                header.putInt(i).putInt(0).putLong(offsets[i]).putLong(lengths[i]);
+            }
+            header.flip();
+            writeFully(channel, header, 0);
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Mapea el archivo y arma el catálogo sobre las páginas mapeadas. */
+    public static SongCatalog open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            int version = header.getInt();
+            int songs = header.getInt();
+            int sectionCount = header.getInt();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION || sectionCount != Section.values().length) {
+                throw new IOException("No es un archivo .songdb compatible: " + file);
+            }
+
+            ByteBuffer entries = ByteBuffer.allocate(SECTION_ENTRY_BYTES * sectionCount).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, entries, HEADER_BYTES);
+            ByteBuffer[] sections = new ByteBuffer[sectionCount];
+            for (int i = 0; i < sectionCount; i++) {
+                int id = entries.getInt();
+                entries.getInt();
+                long offset = entries.getLong();
+                long length = entries.getLong();
+                if (id < 0 || id >= sectionCount || length > Integer.MAX_VALUE || offset + length > channel.size()) {
+                    throw new IOException("Sección " + i + " fuera de rango en " + file);
+                }
+                // el mapeo sigue válido después de cerrar el canal
+                sections[id] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            SongTable table = new SongTable(songs,
+                    ints(sections, Section.YEARS), shorts(sections, Section.GENRE_IDS),
+                    shorts(sections, Section.LANGUAGE_IDS), ints(sections, Section.AUTHOR_IDS),
+                    strings(sections, Section.TITLE_OFFSETS, Section.TITLE_BYTES),
+                    strings(sections, Section.GENRE_DICT_OFFSETS, Section.GENRE_DICT_BYTES),
+                    strings(sections, Section.LANGUAGE_DICT_OFFSETS, Section.LANGUAGE_DICT_BYTES),
+                    strings(sections, Section.AUTHOR_DICT_OFFSETS, Section.AUTHOR_DICT_BYTES),
+                    ints(sections, Section.AUTHOR_START), ints(sections, Section.AUTHOR_ROWS));
+            TrigramIndex titleIndex = new TrigramIndex(longs(sections, Section.TITLE_TRIGRAM_KEYS),
+                    ints(sections, Section.TITLE_TRIGRAM_START), ints(sections, Section.TITLE_TRIGRAM_POSTINGS));
+            TrigramIndex authorIndex = new TrigramIndex(longs(sections, Section.AUTHOR_TRIGRAM_KEYS),
+                    ints(sections, Section.AUTHOR_TRIGRAM_START), ints(sections, Section.AUTHOR_TRIGRAM_POSTINGS));
+            return new SongCatalog(table, titleIndex, authorIndex);
+        }
+    }
+
+    private static IntBuffer ints(ByteBuffer[] sections, Section section) {
+        return sections[section.ordinal()].asIntBuffer();
+    }
+
+    private static ShortBuffer shorts(ByteBuffer[] sections, Section section) {
+        return sections[section.ordinal()].asShortBuffer();
+    }
+
+    private static LongBuffer longs(ByteBuffer[] sections, Section section) {
+        return sections[section.ordinal()].asLongBuffer();
+    }
+
+    private static StringColumn strings(ByteBuffer[] sections, Section offsets, Section bytes) {
+        return new StringColumn(ints(sections, offsets), sections[bytes.ordinal()]);
+    }
+
+    // Copia el contenido del buffer (arreglo o mapeo) al archivo por bloques, en little-endian
+    private static long writeSection(FileChannel channel, Buffer data, long position) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long written = 0;
+        int limit = data.limit();
+        for (int i = 0; i < limit; ) {
+            block.clear();
+            if (data instanceof ByteBuffer bytes) {
+                int n = Math.min(BLOCK_BYTES, limit - i);
+                block.put(block.position(), bytes, i, n).position(n);
+                i += n;
+            } else if (data instanceof ShortBuffer shorts) {
+                for (; i < limit && block.remaining() >= 2; i++) block.putShort(shorts.get(i));
+            } else if (data instanceof IntBuffer ints) {
+                for (; i < limit && block.remaining() >= 4; i++) block.putInt(ints.get(i));
+            } else if (data instanceof LongBuffer longs) {
+                for (; i < limit && block.remaining() >= 8; i++) block.putLong(longs.get(i));
+            } else {
+                throw new IllegalArgumentException("Tipo de columna no soportado: " + data.getClass());
+            }
+            block.flip();
+            written += writeFully(channel, block, position + written);
+        }
+        return written;
+    }
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return total;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("Archivo .songdb truncado");
+            position += n;
+        }
+        buffer.flip();
+    }
+}
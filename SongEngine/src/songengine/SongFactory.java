@@ -0,0 +1,10 @@
+package songengine;
+
+/**
+ * Crea el objeto canción propio de cada servidor (socket, RMI o SOAP) a partir
+ * de los campos guardados en el catálogo. Solo se llama para los resultados.
+ */
+@FunctionalInterface
+public interface SongFactory<T> {
+    T create(String title, String author, String genre, String language, int year);
+}
@@ -0,0 +1,6 @@
+package songengine;
+
+/** Campos de texto por los que se puede buscar en el catálogo. */
+public enum SongField {
+    TITLE, AUTHOR, GENRE, LANGUAGE
+}
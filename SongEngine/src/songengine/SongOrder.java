@@ -0,0 +1,73 @@
+package songengine;
+
+import java.text.Collator;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Orden de los resultados: por título, autor o año, ascendente o descendente.
+ * Los textos se comparan con la intercalación del español ("Cómo" va junto a
+ * "Como", no después de la "z"). A igual valor se mantiene el orden de
+ * catálogo, también en orden descendente.
+ */
+public record SongOrder(Key key, boolean descending) {
+    static final Locale LOCALE = Locale.forLanguageTag("es");
+
+    public enum Key { TITLE, AUTHOR, YEAR }
+
+    public SongOrder {
+        if (key == null) throw new IllegalArgumentException("Falta el campo por el que ordenar");
+    }
+
+    public static SongOrder ascending(Key key) {
+        return new SongOrder(key, false);
+    }
+
+    public static SongOrder descending(Key key) {
+        return new SongOrder(key, true);
+    }
+
+    /**
+     * Lee "title", "author" o "year", seguido opcionalmente de "asc" o "desc"
+     * (por ejemplo "year desc"). Un texto vacío o null devuelve null: sin orden.
+     */
+    public static SongOrder parse(String text) {
+        if (text == null || text.isBlank()) return null;
+        String[] words = text.trim().toLowerCase(Locale.ROOT).split("\\s+");
+        if (words.length > 2 || (words.length == 2 && !words[1].equals("asc") && !words[1].equals("desc"))) {
+            throw new IllegalArgumentException("Orden inválido: " + text.trim());
+        }
+        Key key = switch (words[0]) {
+            case "title" -> Key.TITLE;
+            case "author" -> Key.AUTHOR;
+            case "year" -> Key.YEAR;
+            default -> throw new IllegalArgumentException("No se puede ordenar por " + words[0]);
+        };
+        return new SongOrder(key, words.length == 2 && words[1].equals("desc"));
+    }
+
+    /**
+     * El mismo orden sobre canciones ya armadas, para mezclar resultados que
+     * vienen ordenados de varios catálogos.
+     */
+    public <T> Comparator<T> comparator(Function<T, String> title, Function<T, String> author, ToIntFunction<T> year) {
+        Comparator<T> order = switch (key) {
+            case TITLE -> Comparator.comparing(title, collator());
+            case AUTHOR -> Comparator.comparing(author, collator());
+            case YEAR -> Comparator.comparingInt(year);
+        };
+        return descending ? order.reversed() : order;
+    }
+
+    @Override
+    public String toString() {
+        return key.name().toLowerCase(Locale.ROOT) + (descending ? " desc" : " asc");
+    }
+
+    /** Un Collator nuevo: no se comparten entre hilos. */
+    static Collator collator() {
+        return Collator.getInstance(LOCALE);
+    }
+}
@@ -0,0 +1,48 @@
+package songengine;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Una consulta booleana ya leída y simplificada, por ejemplo
+ * genre:rock AND year>=1970 AND NOT author:queen (ver {@link QueryParser}).
+ *
+ * El plan se compila la primera vez que se usa contra cada catálogo y queda
+ * guardado junto a la consulta: repetirla no vuelve a leer el texto, ni a
+ * resolver géneros o autores, ni a preparar las agujas. Los planes se guardan
+ * con referencias débiles al catálogo y no lo referencian (ver {@link QueryNode}),
+ * así el plan de una versión vieja se libera con ella.
+ */
+public final class SongQuery {
+    private final QueryNode plan;
+    private final Map<SongCatalog, QueryNode.Matcher> compiled = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private SongQuery(QueryNode plan) {
+        this.plan = plan;
+    }
+
+    /** Lee y simplifica la consulta; lanza IllegalArgumentException si está mal escrita. */
+    public static SongQuery parse(String text) {
+        return new SongQuery(QueryParser.parse(text).optimize());
+    }
+
+    /** Ordinales que cumplen la consulta en el catálogo, en orden creciente. */
+    public int[] rows(SongCatalog catalog) {
+        QueryNode.Matcher matcher = compiled.get(catalog);
+        if (matcher == null) {
+            // se compila fuera del candado del mapa: compilar puede armar índices
+            // perezosos, y dos hilos que compilan a la vez se quedan con el primero
+            matcher = plan.compile(catalog);
+            QueryNode.Matcher other = compiled.putIfAbsent(catalog, matcher);
+            if (other != null) matcher = other;
+        }
+        return matcher.rows();
+    }
+
+    /** El plan simplificado, con la misma sintaxis de la consulta. */
+    @Override
+    public String toString() {
+        return plan.toString();
+    }
+}
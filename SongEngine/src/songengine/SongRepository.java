@@ -0,0 +1,497 @@
+package songengine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Motor de consultas compartido por los servidores de socket, RMI y SOAP.
+ * Guarda la versión vigente del catálogo en una referencia atómica: cada
+ * consulta la lee una sola vez, y una recarga la reemplaza con {@link #replace}
+ * sin bloquear las consultas en curso. Los resultados se materializan con la
+ * {@link SongFactory} de cada servidor.
+ *
+ * Los cambios ({@link #add}, {@link #update}, {@link #delete}) tienen un solo
+ * escritor a la vez: arma la {@link CatalogVersion} siguiente, la anota en el
+ * {@link WriteAheadLog} (si hay) y la publica recién cuando está en disco. Las
+ * consultas nunca esperan a un escritor; siguen con la versión que leyeron.
+ *
+ * Cuando la versión necesita compactarse, la base nueva se arma en un hilo
+ * aparte ("catalog-compaction") sin el candado: los escritores siguen y sus
+ * cambios se guardan para reaplicarlos sobre la base compactada al cambiarla.
+ * Con cada compactación el registro se reescribe con el efecto neto de los
+ * cambios sobre el catálogo cargado (ver {@link WriteAheadLog#installCheckpoint}),
+ * así reaplicarlo cuesta lo que cambió el catálogo y no toda su historia.
+ */
+public class SongRepository<T> {
+    private final AtomicReference<CatalogVersion> catalog;
+    private final SongFactory<T> factory;
+    private final WriteAheadLog log;          // null: los cambios solo viven en memoria
+    private final ReentrantLock writeLock = new ReentrantLock();   // los hilos virtuales que esperan no quedan clavados
+    private final QueryCache queries = new QueryCache(256);
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "catalog-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private CatalogVersion head;              // última versión armada; protegida por writeLock
+    private List<Mutation> pending;           // cambios desde que empezó la compactación en curso; null si no hay
+    private long generation;                  // cambia con cada replace: una compactación de la base anterior se descarta
+    private long appended;                    // posición en el registro del último cambio anotado
+    private NetChanges changes;               // efecto neto del registro; null sin registro
+
+    public SongRepository(SongCatalog initial, SongFactory<T> factory) {
+        this.factory = factory;
+        this.log = null;
+        this.head = CatalogVersion.of(initial);
+        this.catalog = new AtomicReference<>(head);
+    }
+
+    /** Repositorio con cambios durables: reaplica los del registro sobre el catálogo inicial. */
+    public SongRepository(SongCatalog initial, SongFactory<T> factory, WriteAheadLog log) throws IOException {
+        this.factory = factory;
+        this.log = log;
+        this.head = replay(CatalogVersion.of(initial), true);
+        this.catalog = new AtomicReference<>(head);
+        writeLock.lock();
+        try {
+            if (head.needsCompaction()) startCompaction();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public CatalogVersion snapshot() {
+        return catalog.get();
+    }
+
+    /**
+     * Publica un catálogo base nuevo (una recarga del archivo) y devuelve la
+     * versión anterior. Los cambios del registro se vuelven a aplicar encima.
+     */
+    public CatalogVersion replace(SongCatalog fresh) {
+        // reaplicar el registro busca las canciones por clave: el índice se arma antes del candado
+        if (log != null && !log.isEmpty()) fresh.keys();
+        writeLock.lock();
+        try {
+            generation++;
+            pending = null;
+            CatalogVersion next = CatalogVersion.of(fresh, head.version() + 1);
+            try {
+                if (log != null) next = replay(next, false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            head = next;
+            if (next.needsCompaction()) startCompaction();
+            return catalog.getAndSet(next);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int size() {
+        return catalog.get().size();
+    }
+
+    /** Agrega una canción; falla si ya hay una con el mismo título y autor. */
+    public void add(String title, String author, String genre, String language, int year) {
+        write(Mutation.add(new CatalogVersion.Row(title, author, genre, language, year)));
+    }
+
+    /**
+     * Reemplaza la canción identificada por title y author con los valores
+     * nuevos (que pueden cambiar también su título o autor). Devuelve false si
+     * no existe.
+     */
+    public boolean update(String title, String author, String newTitle, String newAuthor, String genre,
+                          String language, int year) {
+        checkKey(title, author);
+        return write(Mutation.update(title, author, new CatalogVersion.Row(newTitle, newAuthor, genre, language, year)));
+    }
+
+    /** Borra la canción con ese título y autor; devuelve false si no existe. */
+    public boolean delete(String title, String author) {
+        checkKey(title, author);
+        return write(Mutation.delete(title, author));
+    }
+
+    public List<T> getAllSongs() {
+        return all(catalog.get());
+    }
+
+    /** Una página del catálogo completo, en orden de catálogo, sin copiar el resto. */
+    public ResultPage<T> page(int offset, int limit) {
+        checkPage(offset, limit);
+        CatalogVersion current = catalog.get();
+        return new ResultPage<>(songs(current, current.page(offset, limit)), offset, current.size());
+    }
+
+    /** Una página de una búsqueda: se resuelven los ordinales y solo se materializa la página. */
+    public ResultPage<T> searchPage(SongField field, String query, int offset, int limit) {
+        checkPage(offset, limit);
+        CatalogVersion current = catalog.get();
+        return window(current, current.search(field, query), offset, limit);
+    }
+
+    /**
+     * Una página del catálogo completo en el orden pedido (null: orden de
+     * catálogo). Sale del orden ya armado, sin ordenar nada por consulta.
+     */
+    public ResultPage<T> page(int offset, int limit, SongOrder order) {
+        if (order == null) return page(offset, limit);
+        checkPage(offset, limit);
+        CatalogVersion current = catalog.get();
+        return new ResultPage<>(songs(current, current.page(offset, limit, order)), offset, current.size());
+    }
+
+    /**
+     * Una página de una búsqueda en el orden pedido (null: orden de catálogo).
+     * Solo se ordenan las primeras offset + limit coincidencias, con un
+     * montículo, y solo se materializa la página.
+     */
+    public ResultPage<T> searchPage(SongField field, String query, int offset, int limit, SongOrder order) {
+        if (order == null) return searchPage(field, query, offset, limit);
+        checkPage(offset, limit);
+        CatalogVersion current = catalog.get();
+        return sortedWindow(current, current.search(field, query), offset, limit, order);
+    }
+
+    /**
+     * Canciones que cumplen una consulta booleana (ver {@link SongQuery}), en
+     * orden de catálogo. Las consultas leídas se guardan en {@link #queryCache()}.
+     */
+    public List<T> query(String expression) {
+        CatalogVersion current = catalog.get();
+        return songs(current, current.search(queries.get(expression)));
+    }
+
+    /** Una página de una consulta booleana en el orden pedido (null: orden de catálogo). */
+    public ResultPage<T> queryPage(String expression, int offset, int limit, SongOrder order) {
+        checkPage(offset, limit);
+        SongQuery query = queries.get(expression);
+        CatalogVersion current = catalog.get();
+        int[] ords = current.search(query);
+        return order == null ? window(current, ords, offset, limit) : sortedWindow(current, ords, offset, limit, order);
+    }
+
+    public QueryCache queryCache() {
+        return queries;
+    }
+
+    public List<T> searchByTitle(String title) {
+        return search(SongField.TITLE, title);
+    }
+
+    public List<T> searchByAuthor(String author) {
+        return search(SongField.AUTHOR, author);
+    }
+
+    public List<T> searchByGenre(String genre) {
+        return search(SongField.GENRE, genre);
+    }
+
+    public List<T> searchByLanguage(String language) {
+        return search(SongField.LANGUAGE, language);
+    }
+
+    public List<T> search(SongField field, String query) {
+        CatalogVersion current = catalog.get();
+        return songs(current, current.search(field, query));
+    }
+
+    /** Todas las coincidencias en el orden pedido (null: orden de catálogo). */
+    public List<T> search(SongField field, String query, SongOrder order) {
+        CatalogVersion current = catalog.get();
+        int[] ords = current.search(field, query);
+        return songs(current, order == null ? ords : current.sort(ords, order, ords.length));
+    }
+
+    /** Las "limit" coincidencias más relevantes, de la mejor a la peor. */
+    public List<T> searchTop(SongField field, String query, int limit) {
+        CatalogVersion current = catalog.get();
+        return songs(current, current.searchTop(field, query, limit));
+    }
+
+    /** Búsqueda tolerante a errores de tipeo en títulos o autores (ver {@link SongCatalog#searchFuzzy}). */
+    public List<T> searchFuzzy(SongField field, String query, int maxEdits) {
+        CatalogVersion current = catalog.get();
+        return songs(current, current.searchFuzzy(field, query, maxEdits));
+    }
+
+    /** Canciones cuyo título o autor (según field) suena como la consulta (ver {@link SongCatalog#searchPhonetic}). */
+    public List<T> searchPhonetic(SongField field, String query) {
+        CatalogVersion current = catalog.get();
+        return songs(current, current.searchPhonetic(field, query));
+    }
+
+    public List<String> complete(SongField field, String prefix, int limit) {
+        return catalog.get().complete(field, prefix, limit);
+    }
+
+    public List<T> searchByYear(int year) {
+        CatalogVersion current = catalog.get();
+        return songs(current, current.searchByYear(year));
+    }
+
+    /** Canciones entre los años from y to (inclusive), en orden cronológico. */
+    public List<T> searchByYearRange(int from, int to) {
+        checkYears(from, to);
+        CatalogVersion current = catalog.get();
+        return songs(current, current.searchByYearRange(from, to));
+    }
+
+    /** Una página del rango de años: el total y la página salen del mismo tramo del índice. */
+    public ResultPage<T> searchByYearRange(int from, int to, int offset, int limit) {
+        checkYears(from, to);
+        checkPage(offset, limit);
+        CatalogVersion current = catalog.get();
+        if (!current.isCompact()) return window(current, current.searchByYearRange(from, to), offset, limit);
+        YearIndex years = current.base().years();
+        return new ResultPage<>(songs(current, years.between(from, to, offset, limit)), offset, years.count(from, to));
+    }
+
+    public List<T> searchByFilter(FacetFilter filter) {
+        CatalogVersion current = catalog.get();
+        return songs(current, current.searchByFilter(filter));
+    }
+
+    /**
+     * Cuántas canciones que pasan el filtro hay por género ({@link FacetIndex#GENRES}),
+     * idioma y década, contadas sobre los bitmaps sin materializar ninguna.
+     */
+    public Map<String, Map<String, Integer>> facetCounts(FacetFilter filter) {
+        return catalog.get().facetCounts(filter);
+    }
+
+    /**
+     * Canciones que cumplen todos los criterios, resueltas por el planificador de
+     * {@link SongCatalog#searchByCriteria}. Sin criterios devuelve todo.
+     */
+    public List<T> searchByCriteria(Map<SongField, String> criteria) {
+        CatalogVersion current = catalog.get();
+        int[] result = current.searchByCriteria(criteria);
+        return result == null ? all(current) : songs(current, result);
+    }
+
+    /** Como {@link #searchByCriteria(Map)}, en el orden pedido (null: orden de catálogo). */
+    public List<T> searchByCriteria(Map<SongField, String> criteria, SongOrder order) {
+        if (order == null) return searchByCriteria(criteria);
+        CatalogVersion current = catalog.get();
+        int[] result = current.searchByCriteria(criteria);
+        return songs(current, result == null ? current.page(0, current.size(), order) : current.sort(result, order, result.length));
+    }
+
+    // Un solo escritor arma y anota la versión; el fsync y la publicación van
+    // fuera del candado, así varios escritores comparten un mismo fsync
+    private boolean write(Mutation mutation) {
+        CatalogVersion next;
+        long position = 0;
+        // el índice de claves se arma con el primer cambio, no al cargar, y sin el candado tomado
+        catalog.get().base().keys();
+        writeLock.lock();
+        try {
+            next = head.apply(mutation);
+            if (next == null) return false;
+            try {
+                if (log != null) position = appended = log.append(mutation);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            head = next;
+            if (changes != null) changes.record(mutation);
+            if (pending != null) pending.add(mutation);
+            else if (next.needsCompaction()) startCompaction();
+        } finally {
+            writeLock.unlock();
+        }
+        publish(next, position);
+        return true;
+    }
+
+    // Con writeLock tomado: compacta la versión actual en el hilo de compactación
+    private void startCompaction() {
+        CatalogVersion from = head;
+        long started = generation;
+        Checkpoint checkpoint = changes == null ? null : changes.checkpoint(appended);
+        pending = new ArrayList<>();
+        compactor.execute(() -> compact(from, started, checkpoint));
+    }
+
+    // Arma la base nueva (y el registro nuevo) sin el candado y después la
+    // cambia, con los cambios que llegaron mientras tanto reaplicados encima
+    private void compact(CatalogVersion from, long started, Checkpoint checkpoint) {
+        CatalogVersion compacted = null;
+        Path prepared = null;
+        try {
+            compacted = from.compact();
+            if (checkpoint != null) prepared = log.writeCheckpoint(checkpoint.changes(compacted.base().table()));
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            System.out.println("[SongRepository]: No se pudo compactar el catálogo o su registro: " + e);
+        }
+        CatalogVersion next;
+        long position;
+        writeLock.lock();
+        try {
+            if (generation != started || compacted == null) {
+                discard(prepared);
+                // un replace cambió la base mientras tanto, o no hay base nueva
+                if (generation == started) pending = null;
+                return;
+            }
+            CatalogVersion.Draft draft = new CatalogVersion.Draft(compacted, head.version() + 1);
+            for (Mutation mutation : pending) mutation.applyTo(draft);
+            next = draft.build();
+            head = next;
+            pending = null;
+            if (prepared != null) {
+                try {
+                    appended = log.installCheckpoint(prepared, checkpoint.position());
+                } catch (IOException e) {
+                    System.out.println("[SongRepository]: No se pudo reescribir " + log.file() + ": " + e.getMessage());
+                }
+            }
+            position = appended;
+        } finally {
+            writeLock.unlock();
+        }
+        // los cambios reaplicados pueden no estar en disco todavía
+        publish(next, position);
+    }
+
+    // Espera a que el registro esté en disco hasta position y publica la versión si es la más nueva
+    private void publish(CatalogVersion next, long position) {
+        try {
+            if (log != null) log.sync(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        catalog.accumulateAndGet(next, (current, candidate) -> candidate.version() > current.version() ? candidate : current);
+    }
+
+    // Reaplica el registro sobre un solo borrador; un cambio que ya no aplica
+    // (la base cambió) se informa y se salta. Sobre una base recargada una fila
+    // RESTORE se agrega solo si no hay ya una canción con su clave: el archivo
+    // nuevo pudo traer la canción que antes se agregó con un cambio
+    private CatalogVersion replay(CatalogVersion initial, boolean sameBase) throws IOException {
+        CatalogVersion.Draft draft = new CatalogVersion.Draft(initial, initial.version());
+        NetChanges net = new NetChanges(initial.size());
+        int[] counts = new int[2];
+        appended = log.replay(logged -> {
+            Mutation mutation = sameBase || logged.kind() != Mutation.Kind.RESTORE ? logged : Mutation.add(logged.row());
+            try {
+                if (!mutation.applyTo(draft)) {
+                    throw new IllegalArgumentException("No existe \"" + mutation.title() + "\" de " + mutation.author());
+                }
+                net.record(mutation);
+                counts[0]++;
+            } catch (IllegalArgumentException e) {
+                counts[1]++;
+                System.out.println("[SongRepository]: Se omite un cambio del registro: " + e.getMessage());
+            }
+        });
+        if (counts[0] + counts[1] > 0) {
+            System.out.println("[SongRepository]: Se reaplicaron " + counts[0] + " cambios de " + log.file()
+                    + (counts[1] > 0 ? " (" + counts[1] + " omitidos)." : "."));
+        }
+        changes = net;
+        return draft.build();
+    }
+
+    private static void discard(Path prepared) {
+        if (prepared == null) return;
+        try {
+            Files.deleteIfExists(prepared);
+        } catch (IOException e) {
+            System.out.println("[SongRepository]: No se pudo borrar " + prepared + ": " + e.getMessage());
+        }
+    }
+
+    // Efecto neto de los cambios sobre el catálogo cargado: las canciones
+    // originales que ya no están, como bajas, y las claves de las agregadas que
+    // siguen vivas. Una base compactada guarda primero las originales que quedan,
+    // en su orden, y después las agregadas: con eso se reescribe el registro. Un
+    // cambio toca la agregada si la hay, porque es la más nueva con esa clave
+    private static final class NetChanges {
+        private final int originalSize;
+        private final List<Mutation> removed = new ArrayList<>();
+        private final Set<String> added = new HashSet<>();
+
+        NetChanges(int originalSize) {
+            this.originalSize = originalSize;
+        }
+
+        void record(Mutation mutation) {
+            if (mutation.kind() == Mutation.Kind.UPDATE || mutation.kind() == Mutation.Kind.DELETE) {
+                String key = CatalogVersion.key(mutation.title(), mutation.author());
+                if (!added.remove(key)) removed.add(Mutation.delete(mutation.title(), mutation.author()));
+            }
+            if (mutation.row() != null) added.add(CatalogVersion.key(mutation.row().title(), mutation.row().author()));
+        }
+
+        Checkpoint checkpoint(long position) {
+            return new Checkpoint(List.copyOf(removed), originalSize - removed.size(), added.size(), position);
+        }
+    }
+
+    // El registro hasta "position" visto como cambios netos
+    private record Checkpoint(List<Mutation> removed, int originals, int added, long position) {
+        Iterator<Mutation> changes(SongTable table) {
+            if (table.size() != originals + added) {
+                throw new IllegalStateException("La base compactada no coincide con los cambios del registro");
+            }
+            Stream<Mutation> rows = IntStream.range(originals, table.size())
+                    .mapToObj(ord -> Mutation.restore(new CatalogVersion.Row(table.title(ord), table.author(ord), table.genre(ord),
+                            table.language(ord), table.year(ord))));
+            return Stream.concat(removed.stream(), rows).iterator();
+        }
+    }
+
+    private static void checkKey(String title, String author) {
+        if (title == null || author == null) {
+            throw new IllegalArgumentException("La canción se identifica por título y autor");
+        }
+    }
+
+    private static void checkPage(int offset, int limit) {
+        if (offset < 0 || limit < 1) {
+            throw new IllegalArgumentException("Página inválida: offset " + offset + ", limit " + limit);
+        }
+    }
+
+    private static void checkYears(int from, int to) {
+        if (from > to) {
+            throw new IllegalArgumentException("Rango de años inválido: " + from + " > " + to);
+        }
+    }
+
+    private List<T> all(CatalogVersion snapshot) {
+        return songs(snapshot, snapshot.page(0, snapshot.size()));
+    }
+
+    private List<T> songs(CatalogVersion snapshot, int[] ords) {
+        return snapshot.songs(ords, factory);
+    }
+
+    // Solo se ordenan las primeras offset + limit y se materializa la página
+    private ResultPage<T> sortedWindow(CatalogVersion snapshot, int[] ords, int offset, int limit, SongOrder order) {
+        int[] first = snapshot.sort(ords, order, (int) Math.min(Integer.MAX_VALUE, (long) offset + limit));
+        return new ResultPage<>(songs(snapshot, offset >= first.length ? new int[0] : Arrays.copyOfRange(first, offset, first.length)),
+                offset, ords.length);
+    }
+
+    // Solo se materializa la página pedida de los ordinales
+    private ResultPage<T> window(CatalogVersion snapshot, int[] ords, int offset, int limit) {
+        int end = (int) Math.min(ords.length, (long) offset + limit);
+        int[] window = offset >= end ? new int[0] : Arrays.copyOfRange(ords, offset, end);
+        return new ResultPage<>(songs(snapshot, window), offset, ords.length);
+    }
+}
@@ -0,0 +1,443 @@
+package songengine;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Catálogo en columnas (struct-of-arrays): cada atributo de la canción vive en
+ * una columna primitiva indexada por ordinal. Género, idioma y autor se guardan
+ * como códigos de diccionario y los títulos como bytes UTF-8 empaquetados, así
+ * el catálogo no mantiene un objeto por canción.
+ * Las columnas son buffers: envuelven arreglos del heap cuando el catálogo se
+ * arma desde JSON, páginas mapeadas cuando se abre un archivo .songdb, o
+ * memoria directa de una {@link OffHeapArena} (ver {@link #offHeap}).
+ * Los diccionarios también canonizan los valores al materializar: todas las
+ * canciones de un mismo autor, género o idioma comparten una sola instancia
+ * del String (ver {@link #dictionarySavedBytes}).
+ */
+public class SongTable {
+    private final int size;
+    private final IntBuffer years;
+    private final ShortBuffer genreIds;      // códigos sin signo de 16 bits
+    private final ShortBuffer languageIds;
+    private final IntBuffer authorIds;
+    private final StringColumn titles;
+
+    private final StringColumn genreDictionary;
+    private final StringColumn languageDictionary;
+    private final StringColumn authorDictionary;
+    private final String[] genres;           // diccionarios chicos, decodificados una vez
+    private final String[] languages;
+    private final String[] foldedGenres;     // los mismos ya normalizados, para no normalizar al consultar
+    private final String[] foldedLanguages;
+    private final String[] authors;          // instancia compartida de cada autor, decodificada al primer uso
+    private volatile int[] genreCounts;      // se calculan al primer uso, ver codeCounts
+    private volatile int[] languageCounts;
+
+    // filas agrupadas por autor (CSR): authorRows[authorStart[id] .. authorStart[id + 1])
+    private final IntBuffer authorStart;
+    private final IntBuffer authorRows;
+
+    SongTable(int size, IntBuffer years, ShortBuffer genreIds, ShortBuffer languageIds, IntBuffer authorIds,
+              StringColumn titles, StringColumn genreDictionary, StringColumn languageDictionary,
+              StringColumn authorDictionary, IntBuffer authorStart, IntBuffer authorRows) {
+        this.size = size;
+        this.years = years;
+        this.genreIds = genreIds;
+        this.languageIds = languageIds;
+        this.authorIds = authorIds;
+        this.titles = titles;
+        this.genreDictionary = genreDictionary;
+        this.languageDictionary = languageDictionary;
+        this.authorDictionary = authorDictionary;
+        this.genres = genreDictionary.toArray();
+        this.languages = languageDictionary.toArray();
+        this.foldedGenres = fold(genres);
+        this.foldedLanguages = fold(languages);
+        this.authors = new String[authorDictionary.size()];
+        this.authorStart = authorStart;
+        this.authorRows = authorRows;
+    }
+
+    private static SongTable fromBuilder(Builder b) {
+        int size = b.size;
+        // si el builder ya tiene el tamaño exacto se reutilizan sus arreglos sin copiarlos
+        int[] years = b.years.length == size ? b.years : Arrays.copyOf(b.years, size);
+        short[] genreIds = b.genreIds.length == size ? b.genreIds : Arrays.copyOf(b.genreIds, size);
+        short[] languageIds = b.languageIds.length == size ? b.languageIds : Arrays.copyOf(b.languageIds, size);
+        int[] authorIds = b.authorIds.length == size ? b.authorIds : Arrays.copyOf(b.authorIds, size);
+        int[] titleOffsets = b.titleOffsets.length == size + 1 ? b.titleOffsets : Arrays.copyOf(b.titleOffsets, size + 1);
+        int titleLength = b.titleOffsets[size];
+        byte[] titleBytes = b.titleBytes.length == titleLength ? b.titleBytes : Arrays.copyOf(b.titleBytes, titleLength);
+        String[] authors = b.authors.values();
+
+        int[] authorStart = new int[authors.length + 1];
+        for (int ord = 0; ord < size; ord++) authorStart[authorIds[ord] + 1]++;
+        for (int id = 0; id < authors.length; id++) authorStart[id + 1] += authorStart[id];
+        int[] authorRows = new int[size];
+        int[] next = Arrays.copyOf(authorStart, authors.length);
+        for (int ord = 0; ord < size; ord++) authorRows[next[authorIds[ord]]++] = ord;
+
+        return new SongTable(size, IntBuffer.wrap(years), ShortBuffer.wrap(genreIds), ShortBuffer.wrap(languageIds),
+                IntBuffer.wrap(authorIds), new StringColumn(IntBuffer.wrap(titleOffsets), ByteBuffer.wrap(titleBytes)),
+                StringColumn.of(b.genres.values()), StringColumn.of(b.languages.values()), StringColumn.of(authors),
+                IntBuffer.wrap(authorStart), IntBuffer.wrap(authorRows));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String title(int ord) {
+        return titles.get(ord);
+    }
+
+    public String author(int ord) {
+        int id = authorIds.get(ord);
+        // carrera benigna: dos hilos pueden decodificar el mismo autor, cualquiera de los dos sirve
+        String author = authors[id];
+        if (author == null) {
+            author = authorDictionary.get(id);
+            authors[id] = author;
+        }
+        return author;
+    }
+
+    public String genre(int ord) {
+        return genres[genreIds.get(ord) & 0xFFFF];
+    }
+
+    public String language(int ord) {
+        return languages[languageIds.get(ord) & 0xFFFF];
+    }
+
+    public int year(int ord) {
+        return years.get(ord);
+    }
+
+    public <T> T song(int ord, SongFactory<T> factory) {
+        return factory.create(title(ord), author(ord), genre(ord), language(ord), year(ord));
+    }
+
+    public <T> List<T> songs(int[] ords, int count, SongFactory<T> factory) {
+        List<T> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) result.add(song(ords[i], factory));
+        return result;
+    }
+
+    public StringColumn authorDictionary() {
+        return authorDictionary;
+    }
+
+    /** Códigos del diccionario de género o idioma cuyo valor contiene la consulta. */
+    boolean[] matchCodes(SongField field, String foldedQuery) {
+        String[] dictionary = foldedDictionary(field);
+        boolean[] matches = new boolean[dictionary.length];
+        for (int id = 0; id < dictionary.length; id++) {
+            matches[id] = dictionary[id].contains(foldedQuery);
+        }
+        return matches;
+    }
+
+    int code(SongField field, int ord) {
+        return codes(field).get(ord) & 0xFFFF;
+    }
+
+    /**
+     * Cantidad de filas por código de género o idioma. Se cuenta la primera vez
+     * que el planificador la pide, así abrir un .songdb sigue sin recorrer filas.
+     */
+    int[] codeCounts(SongField field) {
+        int[] counts = field == SongField.GENRE ? genreCounts : languageCounts;
+        if (counts != null) return counts;
+        ShortBuffer codes = codes(field);
+        counts = new int[dictionary(field).length];
+        for (int ord = 0; ord < size; ord++) counts[codes.get(ord) & 0xFFFF]++;
+        if (field == SongField.GENRE) genreCounts = counts;
+        else languageCounts = counts;
+        return counts;
+    }
+
+    /** Diccionario de género o idioma ya normalizado con {@link TrigramIndex#fold}. */
+    String[] foldedDictionary(SongField field) {
+        dictionary(field);
+        return field == SongField.GENRE ? foldedGenres : foldedLanguages;
+    }
+
+    private static String[] fold(String[] values) {
+        String[] folded = new String[values.length];
+        for (int i = 0; i < values.length; i++) folded[i] = TrigramIndex.fold(values[i]);
+        return folded;
+    }
+
+    String[] dictionary(SongField field) {
+        if (field == SongField.GENRE) return genres;
+        if (field == SongField.LANGUAGE) return languages;
+        throw new IllegalArgumentException("El campo " + field + " no está codificado en 16 bits");
+    }
+
+    /** Bitmap de las filas de un autor, armado desde su grupo (ya ordenado) en authorRows. */
+    RoaringBitmap authorBitmap(int authorId) {
+        return RoaringBitmap.of(authorRows, authorStart.get(authorId), authorStart.get(authorId + 1));
+    }
+
+    int authorId(int ord) {
+        return authorIds.get(ord);
+    }
+
+    int authorRowCount(int authorId) {
+        return authorStart.get(authorId + 1) - authorStart.get(authorId);
+    }
+
+    /** Ordinales (en orden) de las canciones cuyos autores están en authorIdsToInclude. */
+    public int[] rowsOfAuthors(int[] authorIdsToInclude) {
+        int total = 0;
+        for (int id : authorIdsToInclude) total += authorStart.get(id + 1) - authorStart.get(id);
+        int[] out = new int[total];
+        int n = 0;
+        for (int id : authorIdsToInclude) {
+            int from = authorStart.get(id);
+            int len = authorStart.get(id + 1) - from;
+            authorRows.get(from, out, n, len);
+            n += len;
+        }
+        if (authorIdsToInclude.length > 1) Arrays.sort(out);
+        return out;
+    }
+
+    /** Valores distintos de autor, género o idioma. */
+    public int distinctValues(SongField field) {
+        if (field == SongField.AUTHOR) return authorDictionary.size();
+        return dictionary(field).length;
+    }
+
+    /**
+     * Bytes de heap aproximados que se ahorran por guardar autor, género e idioma
+     * como códigos de diccionario, frente a un String propio por canción (como
+     * quedaban al parsear el JSON a objetos): cada repetición de un valor es un
+     * String y su arreglo de bytes que no existen.
+     */
+    public long dictionarySavedBytes() {
+        long saved = 0;
+        for (int id = 0; id < authorDictionary.size(); id++) {
+            saved += (long) Math.max(0, authorRowCount(id) - 1) * stringBytes(authorDictionary.byteLength(id));
+        }
+        for (SongField field : new SongField[]{SongField.GENRE, SongField.LANGUAGE}) {
+            StringColumn dictionary = field == SongField.GENRE ? genreDictionary : languageDictionary;
+            int[] counts = codeCounts(field);
+            for (int code = 0; code < counts.length; code++) {
+                saved += (long) Math.max(0, counts[code] - 1) * stringBytes(dictionary.byteLength(code));
+            }
+        }
+        return saved;
+    }
+
+    // String compacto en una JVM de 64 bits con oops comprimidos: 24 bytes de objeto
+    // más el arreglo (16 de cabecera y el contenido, alineado a 8)
+    private static long stringBytes(int length) {
+        return 24 + ((16 + length + 7) & ~7L);
+    }
+
+    /** Bytes aproximados que ocupan en el heap las columnas y diccionarios (0 si están mapeados o fuera del heap). */
+    public long estimatedBytes() {
+        long bytes = titles.heapBytes() + genreDictionary.heapBytes() + languageDictionary.heapBytes()
+                + authorDictionary.heapBytes();
+        for (Buffer column : new Buffer[]{years, genreIds, languageIds, authorIds, authorStart, authorRows}) {
+            if (column.hasArray()) bytes += (long) column.capacity() * elementSize(column);
+        }
+        return bytes;
+    }
+
+    /**
+     * La misma tabla con columnas y diccionarios copiados a la arena: en el heap
+     * quedan solo los diccionarios chicos ya decodificados. Las columnas que ya
+     * están fuera del heap (un .songdb mapeado) no se copian.
+     */
+    public SongTable offHeap(OffHeapArena arena) {
+        return new SongTable(size, arena.copy(years), arena.copy(genreIds), arena.copy(languageIds),
+                arena.copy(authorIds), titles.offHeap(arena), genreDictionary.offHeap(arena),
+                languageDictionary.offHeap(arena), authorDictionary.offHeap(arena), arena.copy(authorStart),
+                arena.copy(authorRows));
+    }
+
+    // Acceso a las columnas crudas para SongDb
+    IntBuffer years() { return years; }
+    ShortBuffer genreIds() { return genreIds; }
+    ShortBuffer languageIds() { return languageIds; }
+    IntBuffer authorIds() { return authorIds; }
+    StringColumn titles() { return titles; }
+    StringColumn genreDictionary() { return genreDictionary; }
+    StringColumn languageDictionary() { return languageDictionary; }
+    IntBuffer authorStart() { return authorStart; }
+    IntBuffer authorRows() { return authorRows; }
+
+    private static int elementSize(Buffer column) {
+        return column instanceof ShortBuffer ? 2 : 4;
+    }
+
+    private ShortBuffer codes(SongField field) {
+        if (field == SongField.GENRE) return genreIds;
+        if (field == SongField.LANGUAGE) return languageIds;
+        throw new IllegalArgumentException("El campo " + field + " no está codificado en 16 bits");
+    }
+
+    public static class Builder {
+        private int size;
+        private int[] years = new int[16];
+        private short[] genreIds = new short[16];
+        private short[] languageIds = new short[16];
+        private int[] authorIds = new int[16];
+        private int[] titleOffsets = new int[17];
+        private byte[] titleBytes = new byte[256];
+
+        private final Dictionary genres = new Dictionary(0xFFFF + 1, "géneros");
+        private final Dictionary languages = new Dictionary(0xFFFF + 1, "idiomas");
+        private final Dictionary authors = new Dictionary(Integer.MAX_VALUE, "autores");
+
+        public Builder add(String title, String author, String genre, String language, int year) {
+            if (size == years.length) grow();
+            byte[] encoded = (title == null ? "" : title).getBytes(StandardCharsets.UTF_8);
+            int offset = titleOffsets[size];
+            if (offset + encoded.length > titleBytes.length) {
+                titleBytes = Arrays.copyOf(titleBytes, Math.max(titleBytes.length * 2, offset + encoded.length));
+            }
+            System.arraycopy(encoded, 0, titleBytes, offset, encoded.length);
+            titleOffsets[size + 1] = offset + encoded.length;
+
+            years[size] = year;
+            genreIds[size] = (short) genres.code(genre);
+            languageIds[size] = (short) languages.code(language);
+            authorIds[size] = authors.code(author);
+            size++;
+            return this;
+        }
+
+        /**
+         * Agrega al final todas las filas de otro builder, recodificando sus
+         * diccionarios. Lo usa la carga en paralelo para unir los trozos en orden.
+         */
+        public Builder append(Builder other) {
+            ensureCapacity(size + other.size, titleOffsets[size] + other.titleOffsets[other.size]);
+            int[] genreMap = genres.remap(other.genres);
+            int[] languageMap = languages.remap(other.languages);
+            int[] authorMap = authors.remap(other.authors);
+
+            int base = titleOffsets[size];
+            System.arraycopy(other.titleBytes, 0, titleBytes, base, other.titleOffsets[other.size]);
+            System.arraycopy(other.years, 0, years, size, other.size);
+            for (int i = 0; i < other.size; i++) {
+                genreIds[size + i] = (short) genreMap[other.genreIds[i] & 0xFFFF];
+                languageIds[size + i] = (short) languageMap[other.languageIds[i] & 0xFFFF];
+                authorIds[size + i] = authorMap[other.authorIds[i]];
+                titleOffsets[size + i + 1] = base + other.titleOffsets[i + 1];
+            }
+            size += other.size;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int titleLength() {
+            return titleOffsets[size];
+        }
+
+        public SongTable build() {
+            return fromBuilder(this);
+        }
+
+        // Reserva espacio exacto; si se llena justo, build() no necesita copiar
+        public void ensureCapacity(int rows, int titleLength) {
+            if (rows > years.length) resize(rows);
+            if (titleLength > titleBytes.length) titleBytes = Arrays.copyOf(titleBytes, titleLength);
+        }
+
+        private void grow() {
+            resize(years.length * 2);
+        }
+
+        private void resize(int capacity) {
+            years = Arrays.copyOf(years, capacity);
+            genreIds = Arrays.copyOf(genreIds, capacity);
+            languageIds = Arrays.copyOf(languageIds, capacity);
+            authorIds = Arrays.copyOf(authorIds, capacity);
+            titleOffsets = Arrays.copyOf(titleOffsets, capacity + 1);
+        }
+    }
+
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final int limit;
+        private final String name;
+
+        Dictionary(int limit, String name) {
+            this.limit = limit;
+            this.name = name;
+        }
+
+        int code(String value) {
+            String key = value == null ? "" : value;
+            Integer code = codes.get(key);
+            if (code == null) {
+                if (values.size() == limit) {
+                    throw new IllegalStateException("Demasiados " + name + " distintos para el diccionario (" + limit + ")");
+                }
+                code = values.size();
+                codes.put(key, code);
+                values.add(key);
+            }
+            return code;
+        }
+
+        String[] values() {
+            return values.toArray(new String[0]);
+        }
+
+        int[] remap(Dictionary other) {
+            int[] map = new int[other.values.size()];
+            for (int i = 0; i < map.length; i++) map[i] = code(other.values.get(i));
+            return map;
+        }
+    }
+
+    // Lista de enteros que crece sin encajonar cada valor en un Integer
+    static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int last() {
+            return values[size - 1];
+        }
+
+        int capacity() {
+            return values.length;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void copyTo(int[] target, int at) {
+            System.arraycopy(values, 0, target, at, size);
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package songengine;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Columna de strings UTF-8 empaquetados: el valor i ocupa
+ * bytes[offsets[i] .. offsets[i + 1]). Los buffers pueden venir de arreglos
+ * en el heap, de páginas mapeadas de un archivo .songdb o de una {@link OffHeapArena}.
+ */
+public class StringColumn {
+    // para decodificar valores fuera del heap sin reservar una copia por valor
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private final IntBuffer offsets;   // size + 1 posiciones
+    private final ByteBuffer bytes;
+
+    StringColumn(IntBuffer offsets, ByteBuffer bytes) {
+        this.offsets = offsets;
+        this.bytes = bytes;
+    }
+
+    public static StringColumn of(String[] values) {
+        byte[][] encoded = new byte[values.length][];
+        int[] offsets = new int[values.length + 1];
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+        byte[] bytes = new byte[offsets[values.length]];
+        for (int i = 0; i < values.length; i++) {
+            System.arraycopy(encoded[i], 0, bytes, offsets[i], encoded[i].length);
+        }
+        return new StringColumn(IntBuffer.wrap(offsets), ByteBuffer.wrap(bytes));
+    }
+
+    public int size() {
+        return offsets.limit() - 1;
+    }
+
+    public String get(int i) {
+        int from = offsets.get(i);
+        int length = offsets.get(i + 1) - from;
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + from, length, StandardCharsets.UTF_8);
+        }
+        byte[] scratch = SCRATCH.get();
+        if (scratch.length < length) SCRATCH.set(scratch = new byte[Math.max(length, scratch.length * 2)]);
+        bytes.get(from, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /** Largo en bytes UTF-8 del valor i, sin decodificarlo. */
+    public int byteLength(int i) {
+        return offsets.get(i + 1) - offsets.get(i);
+    }
+
+    public String[] toArray() {
+        String[] values = new String[size()];
+        for (int i = 0; i < values.length; i++) values[i] = get(i);
+        return values;
+    }
+
+    /** La misma columna con sus buffers copiados a la arena (los que ya están fuera del heap se comparten). */
+    StringColumn offHeap(OffHeapArena arena) {
+        return new StringColumn(arena.copy(offsets), arena.copy(bytes));
+    }
+
+    IntBuffer offsets() {
+        return offsets;
+    }
+
+    ByteBuffer bytes() {
+        return bytes;
+    }
+
+    long heapBytes() {
+        long total = 0;
+        if (offsets.hasArray()) total += 4L * offsets.capacity();
+        if (bytes.hasArray()) total += bytes.capacity();
+        return total;
+    }
+}
@@ -0,0 +1,135 @@
+package songengine;
+
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Autocompletado inmutable sobre los valores de un campo. Guarda los valores
+ * distintos (según su forma normalizada) ordenados y empaquetados en UTF-8:
+ * es un trie implícito, porque todas las claves que empiezan con un prefijo
+ * forman un rango contiguo que se ubica con dos búsquedas binarias. Un árbol
+ * de segmentos con el índice de mayor peso de cada tramo devuelve las N
+ * claves más frecuentes del rango sin recorrerlo.
+ */
+public class Suggester {
+    private final StringColumn keys;    // valor original de cada clave, en orden de su forma normalizada
+    private final int[] weights;        // canciones que tiene cada clave
+    private final int[] best;           // árbol de segmentos (2n): clave de mayor peso de cada tramo
+
+    private Suggester(StringColumn keys, int[] weights) {
+        this.keys = keys;
+        this.weights = weights;
+        int n = weights.length;
+        this.best = new int[2 * n];
+        for (int i = 0; i < n; i++) best[n + i] = i;
+        for (int node = n - 1; node >= 1; node--) best[node] = better(best[2 * node], best[2 * node + 1]);
+    }
+
+    /**
+     * Arma el índice con "count" valores (pueden repetirse); los que coinciden
+     * al normalizarse se unen en una sola clave y suman sus pesos.
+     */
+    public static Suggester build(int count, IntFunction<String> values, IntUnaryOperator weightOf) {
+        String[] folded = new String[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            folded[i] = TrigramIndex.fold(values.apply(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> folded[i]));
+
+        List<String> distinct = new ArrayList<>();
+        int[] weights = new int[count];
+        int n = 0;
+        String last = "";
+        for (int i = 0; i < count; i++) {
+            int id = order[i];
+            if (folded[id].isEmpty()) continue;
+            if (!folded[id].equals(last)) {
+                distinct.add(values.apply(id));
+                last = folded[id];
+                n++;
+            }
+            weights[n - 1] += weightOf.applyAsInt(id);
+        }
+        return new Suggester(StringColumn.of(distinct.toArray(new String[0])), Arrays.copyOf(weights, n));
+    }
+
+    public int size() {
+        return weights.length;
+    }
+
+    /**
+     * Hasta "limit" claves que empiezan con el prefijo (sin distinguir
+     * mayúsculas), de la más frecuente a la menos; a igual frecuencia, en
+     * orden alfabético.
+     */
+    public List<String> complete(String prefix, int limit) {
+        String folded = TrigramIndex.fold(prefix);
+        if (limit < 1 || folded.isEmpty()) return List.of();
+        int from = lowerBound(folded);
+        int to = upperBound(folded, from);
+        List<String> result = new ArrayList<>(Math.min(limit, to - from));
+        if (from == to) return result;
+
+        // se saca siempre el tramo cuyo mejor elemento pesa más, y se parte en dos
+        PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> compare(a[2], b[2]));
+        ranges.add(new int[]{from, to, argmax(from, to)});
+        while (!ranges.isEmpty() && result.size() < limit) {
+            int[] range = ranges.poll();
+            int top = range[2];
+            result.add(keys.get(top));
+            if (range[0] < top) ranges.add(new int[]{range[0], top, argmax(range[0], top)});
+            if (top + 1 < range[1]) ranges.add(new int[]{top + 1, range[1], argmax(top + 1, range[1])});
+        }
+        return result;
+    }
+
+    /** Bytes aproximados que ocupa el índice. */
+    public long sizeInBytes() {
+        return keys.heapBytes() + weights.length * 4L + best.length * 4L;
+    }
+
+    // Primera clave cuya forma normalizada no es menor que el prefijo
+    private int lowerBound(String folded) {
+        int lo = 0, hi = weights.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (TrigramIndex.fold(keys.get(mid)).compareTo(folded) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Primera clave desde "from" que ya no empieza con el prefijo
+    private int upperBound(String folded, int from) {
+        int lo = from, hi = weights.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (TrigramIndex.fold(keys.get(mid)).startsWith(folded)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Clave de mayor peso en [from, to)
+    private int argmax(int from, int to) {
+        int n = weights.length;
+        int result = -1;
+        for (int l = from + n, r = to + n; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) result = result < 0 ? best[l++] : better(result, best[l++]);
+            if ((r & 1) == 1) result = result < 0 ? best[--r] : better(result, best[--r]);
+        }
+        return result;
+    }
+
+    private int better(int a, int b) {
+        return compare(a, b) <= 0 ? a : b;
+    }
+
+    // Mayor peso primero; a igual peso, la clave anterior en orden alfabético
+    private int compare(int a, int b) {
+        return weights[a] != weights[b] ? Integer.compare(weights[b], weights[a]) : Integer.compare(a, b);
+    }
+}
@@ -0,0 +1,159 @@
+package songengine;
+
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Diccionario ordenado de las palabras (normalizadas) de un campo, con la
+ * lista de valores que contiene cada una. Sirve para la búsqueda difusa: un
+ * {@link LevenshteinAutomaton} se recorre sobre el diccionario como si fuera
+ * un trie, reutilizando los estados del prefijo común con el término anterior
+ * y saltando de una vez todos los términos de un prefijo que ya no puede
+ * coincidir, así no se calcula la distancia contra cada término.
+ */
+public class TermIndex {
+    // palabras distintas y ordenadas, como UTF-16 contiguo para recorrerlas sin decodificar
+    private final char[] chars;
+    private final int[] termStart;          // inicio de cada palabra en chars (terms + 1 posiciones)
+    private final IntBuffer postingStart;   // inicio de la lista de cada palabra (terms + 1 posiciones)
+    private final IntBuffer postings;       // ids de valor de cada lista, ordenados
+
+    private TermIndex(String[] terms, IntBuffer postingStart, IntBuffer postings) {
+        this.termStart = new int[terms.length + 1];
+        for (int t = 0; t < terms.length; t++) termStart[t + 1] = termStart[t] + terms[t].length();
+        this.chars = new char[termStart[terms.length]];
+        for (int t = 0; t < terms.length; t++) terms[t].getChars(0, terms[t].length(), chars, termStart[t]);
+        this.postingStart = postingStart;
+        this.postings = postings;
+    }
+
+    /** Indexa las palabras de "count" valores; las listas guardan el índice de cada valor. */
+    public static TermIndex build(int count, IntFunction<String> values) {
+        Map<String, SongTable.IntList> lists = new HashMap<>();
+        for (int id = 0; id < count; id++) {
+            for (String word : words(TrigramIndex.fold(values.apply(id)))) {
+                SongTable.IntList list = lists.computeIfAbsent(word, w -> new SongTable.IntList());
+                if (list.size() == 0 || list.last() != id) list.add(id);
+            }
+        }
+
+        String[] sorted = lists.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        int[] start = new int[sorted.length + 1];
+        for (int t = 0; t < sorted.length; t++) start[t + 1] = start[t] + lists.get(sorted[t]).size();
+        int[] ids = new int[start[sorted.length]];
+        for (int t = 0; t < sorted.length; t++) {
+            lists.remove(sorted[t]).copyTo(ids, start[t]);
+        }
+        return new TermIndex(sorted, IntBuffer.wrap(start), IntBuffer.wrap(ids));
+    }
+
+    /** Palabras de un valor ya normalizado: tramos de letras o dígitos. */
+    static List<String> words(String folded) {
+        List<String> words = new ArrayList<>();
+        int from = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean inWord = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (inWord && from < 0) from = i;
+            else if (!inWord && from >= 0) {
+                words.add(folded.substring(from, i));
+                from = -1;
+            }
+        }
+        return words;
+    }
+
+    public int termCount() {
+        return termStart.length - 1;
+    }
+
+    /**
+     * Términos a distancia de edición menor o igual a maxEdits de la palabra
+     * (inserción, borrado, cambio o transposición de letras vecinas).
+     */
+    public int[] matchingTerms(String word, int maxEdits) {
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(word, maxEdits);
+        int maxLength = word.length() + maxEdits;
+        int[][] states = new int[maxLength + 1][];
+        states[0] = automaton.start();
+        for (int d = 1; d <= maxLength; d++) states[d] = new int[word.length() + 1];
+
+        SongTable.IntList matches = new SongTable.IntList();
+        int terms = termCount();
+        int last = -1;          // término cuyos estados están calculados
+        int valid = 0;          // largo del prefijo de "last" con estados válidos
+        int t = 0;
+        while (t < terms) {
+            int length = termStart[t + 1] - termStart[t];
+            int depth = last < 0 ? 0 : commonPrefix(last, t, valid);
+            int dead = -1;
+            // los estados de 0..depth siguen valiendo; se avanza desde ahí
+            for (int d = depth; d < length; d++) {
+                if (d + 1 > maxLength) {
+                    dead = d + 1;
+                    break;
+                }
+                int at = termStart[t] + d;
+                char previous = d > 0 ? chars[at - 1] : 0;
+                automaton.step(d > 0 ? states[d - 1] : null, states[d], previous, d, chars[at], states[d + 1]);
+                if (!automaton.canMatch(states[d + 1], d + 1)) {
+                    dead = d + 1;
+                    break;
+                }
+            }
+            last = t;
+            if (dead < 0) {
+                if (automaton.isMatch(states[length], length)) matches.add(t);
+                valid = length;
+                t++;
+            } else {
+                // ningún término que empiece con los primeros "dead" caracteres puede coincidir;
+                // solo los estados hasta dead - 1 son válidos (el último pudo no calcularse)
+                valid = dead - 1;
+                t = skipPrefix(t, dead);
+            }
+        }
+        return matches.toArray();
+    }
+
+    /** Ids de los valores que contienen alguno de los términos. */
+    public BitSet postings(int[] termIds) {
+        BitSet ids = new BitSet();
+        for (int term : termIds) {
+            for (int p = postingStart.get(term); p < postingStart.get(term + 1); p++) ids.set(postings.get(p));
+        }
+        return ids;
+    }
+
+    public String term(int termId) {
+        return new String(chars, termStart[termId], termStart[termId + 1] - termStart[termId]);
+    }
+
+    // Primer término después de "from" que no empieza con sus primeros "length" caracteres
+    private int skipPrefix(int from, int length) {
+        // búsqueda exponencial: el bloque del prefijo suele ser corto
+        int lo = from + 1, hi = lo, step = 1;
+        int terms = termCount();
+        while (hi < terms && commonPrefix(from, hi, length) == length) {
+            lo = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, terms);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (commonPrefix(from, mid, length) == length) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Largo del prefijo común de dos términos, hasta "limit" caracteres
+    private int commonPrefix(int a, int b, int limit) {
+        int n = Math.min(limit, Math.min(termStart[a + 1] - termStart[a], termStart[b + 1] - termStart[b]));
+        int i = 0;
+        while (i < n && chars[termStart[a] + i] == chars[termStart[b] + i]) i++;
+        return i;
+    }
+}
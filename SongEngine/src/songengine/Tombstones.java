@@ -0,0 +1,115 @@
+package songengine;
+
+import java.util.Arrays;
+
+/**
+ * Ordinales borrados de una {@link CatalogVersion}, en tramos de
+ * {@link #CHUNK_ROWS} filas que las versiones comparten. Un borrado copia solo
+ * el tramo que toca (8 KB) y la tabla de tramos, no todo el conjunto: el costo
+ * de un cambio no crece con la base. La cantidad se lleva al marcar, sin
+ * recorrer los bits.
+ */
+final class Tombstones {
+    static final int CHUNK_ROWS = 1 << 16;
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_WORDS = CHUNK_ROWS / Long.SIZE;
+
+    static final Tombstones NONE = new Tombstones(new long[0][], 0);
+
+    private final long[][] chunks;   // null: tramo sin borrados; no se modifican después de armarlo
+    private final int count;
+
+    private Tombstones(long[][] chunks, int count) {
+        this.chunks = chunks;
+        this.count = count;
+    }
+
+    int count() {
+        return count;
+    }
+
+    boolean get(int ord) {
+        int chunk = ord >>> CHUNK_SHIFT;
+        if (chunk >= chunks.length || chunks[chunk] == null) return false;
+        return (chunks[chunk][(ord & (CHUNK_ROWS - 1)) >>> 6] & 1L << ord) != 0;
+    }
+
+    /** El primer ordinal borrado desde "from", o -1. */
+    int nextSetBit(int from) {
+        for (int chunk = from >>> CHUNK_SHIFT; chunk < chunks.length; chunk++) {
+            long[] words = chunks[chunk];
+            if (words == null) continue;
+            int start = chunk == from >>> CHUNK_SHIFT ? from & (CHUNK_ROWS - 1) : 0;
+            for (int word = start >>> 6; word < CHUNK_WORDS; word++) {
+                long bits = words[word];
+                if (word == start >>> 6) bits &= -1L << start;
+                if (bits != 0) return (chunk << CHUNK_SHIFT) + word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return -1;
+    }
+
+    /** El primer ordinal no borrado desde "from". */
+    int nextClearBit(int from) {
+        for (int chunk = from >>> CHUNK_SHIFT; chunk < chunks.length; chunk++) {
+            long[] words = chunks[chunk];
+            int start = chunk == from >>> CHUNK_SHIFT ? from & (CHUNK_ROWS - 1) : 0;
+            if (words == null) return (chunk << CHUNK_SHIFT) + start;
+            for (int word = start >>> 6; word < CHUNK_WORDS; word++) {
+                long bits = ~words[word];
+                if (word == start >>> 6) bits &= -1L << start;
+                if (bits != 0) return (chunk << CHUNK_SHIFT) + word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return Math.max(from, chunks.length << CHUNK_SHIFT);
+    }
+
+    Editor edit() {
+        return new Editor(this);
+    }
+
+    /**
+     * Borrados en armado sobre un conjunto que no cambia: la tabla se copia al
+     * primer borrado y cada tramo al primer borrado que cae en él.
+     */
+    static final class Editor {
+        private final Tombstones from;
+        private long[][] chunks;
+        private boolean[] owned;
+        private int count;
+
+        private Editor(Tombstones from) {
+            this.from = from;
+            this.chunks = from.chunks;
+            this.count = from.count;
+        }
+
+        boolean get(int ord) {
+            int chunk = ord >>> CHUNK_SHIFT;
+            if (chunk >= chunks.length || chunks[chunk] == null) return false;
+            return (chunks[chunk][(ord & (CHUNK_ROWS - 1)) >>> 6] & 1L << ord) != 0;
+        }
+
+        /** Marca el ordinal; false si ya estaba borrado. */
+        boolean set(int ord) {
+            if (get(ord)) return false;
+            int chunk = ord >>> CHUNK_SHIFT;
+            if (owned == null || chunk >= chunks.length) {
+                int length = Math.max(chunks.length, chunk + 1);
+                chunks = Arrays.copyOf(chunks, length);
+                owned = owned == null ? new boolean[length] : Arrays.copyOf(owned, length);
+            }
+            if (!owned[chunk]) {
+                chunks[chunk] = chunks[chunk] == null ? new long[CHUNK_WORDS] : chunks[chunk].clone();
+                owned[chunk] = true;
+            }
+            chunks[chunk][(ord & (CHUNK_ROWS - 1)) >>> 6] |= 1L << ord;
+            count++;
+            return true;
+        }
+
+        Tombstones build() {
+            return chunks == from.chunks ? from : new Tombstones(chunks, count);
+        }
+    }
+}
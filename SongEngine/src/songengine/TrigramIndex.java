@@ -0,0 +1,211 @@
+package songengine;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Índice invertido de trigramas sobre un campo de texto del catálogo.
+ * Cada trigrama del valor normalizado apunta a la lista ordenada de ordinales
+ * de las canciones que lo contienen, así una búsqueda "contains" solo revisa
+ * los candidatos que comparten todos los trigramas de la consulta.
+ */
+public class TrigramIndex {
+    private static final int[] EMPTY = new int[0];
+    private static final int PARALLEL_THRESHOLD = 100_000;
+
+    private final LongBuffer keys;          // trigramas ordenados
+    private final IntBuffer postingStart;   // inicio de cada lista en postings (keys + 1 posiciones)
+    private final IntBuffer postings;       // ordinales concatenados, ordenados por lista
+
+    TrigramIndex(LongBuffer keys, IntBuffer postingStart, IntBuffer postings) {
+        this.keys = keys;
+        this.postingStart = postingStart;
+        this.postings = postings;
+    }
+
+    public static TrigramIndex build(int size, IntFunction<String> values) {
+        // con catálogos grandes cada rango de ordinales se indexa en paralelo y luego se
+        // concatenan las listas en orden de rango, que ya quedan ordenadas
+        int parts = size < PARALLEL_THRESHOLD ? 1 : ForkJoinPool.commonPool().getParallelism() * 2;
+        int step = (size + parts - 1) / Math.max(1, parts);
+        List<Map<Long, IntList>> partials = IntStream.range(0, parts).parallel()
+                .mapToObj(p -> collect(values, p * step, Math.min(size, (p + 1) * step)))
+                .collect(Collectors.toList());
+
+        Set<Long> distinct = new HashSet<>();
+        for (Map<Long, IntList> partial : partials) distinct.addAll(partial.keySet());
+        long[] keys = new long[distinct.size()];
+        int k = 0;
+        for (Long key : distinct) keys[k++] = key;
+        Arrays.sort(keys);
+
+        int[] postingStart = new int[keys.length + 1];
+        int total = 0;
+        for (int i = 0; i < keys.length; i++) {
+            postingStart[i] = total;
+            for (Map<Long, IntList> partial : partials) {
+                IntList list = partial.get(keys[i]);
+                if (list != null) total += list.size;
+            }
+        }
+        postingStart[keys.length] = total;
+
+        int[] postings = new int[total];
+        for (int i = 0; i < keys.length; i++) {
+            int at = postingStart[i];
+            for (Map<Long, IntList> partial : partials) {
+                IntList list = partial.remove(keys[i]);
+                if (list == null) continue;
+                System.arraycopy(list.values, 0, postings, at, list.size);
+                at += list.size;
+            }
+        }
+        return new TrigramIndex(LongBuffer.wrap(keys), IntBuffer.wrap(postingStart), IntBuffer.wrap(postings));
+    }
+
+    private static Map<Long, IntList> collect(IntFunction<String> values, int from, int to) {
+        Map<Long, IntList> lists = new HashMap<>();
+        for (int ord = from; ord < to; ord++) {
+            String value = fold(values.apply(ord));
+            for (int i = 0; i + 3 <= value.length(); i++) {
+                IntList list = lists.computeIfAbsent(key(value, i), k -> new IntList());
+                // los ordinales llegan en orden, basta comparar con el último para no repetir
+                if (list.size == 0 || list.last() != ord) list.add(ord);
+            }
+        }
+        return lists;
+    }
+
+    /**
+     * Devuelve los ordinales candidatos para una consulta ya normalizada, o null
+     * si la consulta es demasiado corta para filtrarse por trigramas.
+     * Los candidatos deben verificarse contra el valor real del campo.
+     */
+    public int[] candidates(String foldedQuery) {
+        if (foldedQuery.length() < 3) return null;
+
+        List<int[]> bounds = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i + 3 <= foldedQuery.length(); i++) {
+            long key = key(foldedQuery, i);
+            if (!seen.add(key)) continue;
+            int slot = find(key);
+            if (slot < 0) return EMPTY;
+            bounds.add(new int[]{postingStart.get(slot), postingStart.get(slot + 1)});
+        }
+
+        // se intersecta empezando por la lista más corta
+        bounds.sort(Comparator.comparingInt(b -> b[1] - b[0]));
+        int[] first = bounds.get(0);
+        int[] result = new int[first[1] - first[0]];
+        postings.get(first[0], result);
+        int size = result.length;
+        for (int b = 1; b < bounds.size() && size > 0; b++) {
+            size = intersect(result, size, bounds.get(b)[0], bounds.get(b)[1]);
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Cota superior de coincidencias para una consulta ya normalizada: el largo
+     * de la lista más corta entre sus trigramas, sin intersectar nada. Con
+     * menos de tres caracteres no hay cota mejor que "size".
+     */
+    public int upperBound(String foldedQuery, int size) {
+        if (foldedQuery.length() < 3) return size;
+        int bound = size;
+        for (int i = 0; i + 3 <= foldedQuery.length(); i++) {
+            int slot = find(key(foldedQuery, i));
+            if (slot < 0) return 0;
+            bound = Math.min(bound, postingStart.get(slot + 1) - postingStart.get(slot));
+        }
+        return bound;
+    }
+
+    public int termCount() {
+        return keys.limit();
+    }
+
+    public int postingCount() {
+        return postings.limit();
+    }
+
+    /** El mismo índice con sus listas en la arena, fuera del heap. */
+    TrigramIndex offHeap(OffHeapArena arena) {
+        return new TrigramIndex(arena.copy(keys), arena.copy(postingStart), arena.copy(postings));
+    }
+
+    // Acceso a los buffers crudos para SongDb
+    LongBuffer keys() { return keys; }
+    IntBuffer postingStart() { return postingStart; }
+    IntBuffer postings() { return postings; }
+
+    public static String fold(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+
+    // Deja en result[0..n) los valores que también están en postings[from..to)
+    private int intersect(int[] result, int size, int from, int to) {
+        int n = 0;
+        int pos = from;
+        for (int i = 0; i < size && pos < to; i++) {
+            pos = gallop(result[i], pos, to);
+            if (pos < to && postings.get(pos) == result[i]) result[n++] = result[i];
+        }
+        return n;
+    }
+
+    // Primera posición en [from, to) con postings[pos] >= target
+    private int gallop(int target, int from, int to) {
+        int step = 1;
+        int hi = from;
+        while (hi < to && postings.get(hi) < target) {
+            from = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, to);
+        while (from < hi) {
+            int mid = (from + hi) >>> 1;
+            if (postings.get(mid) < target) from = mid + 1;
+            else hi = mid;
+        }
+        return from;
+    }
+
+    private int find(long key) {
+        int lo = 0;
+        int hi = keys.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long value = keys.get(mid);
+            if (value < key) lo = mid + 1;
+            else if (value > key) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private static long key(String value, int i) {
+        return ((long) value.charAt(i) << 32) | ((long) value.charAt(i + 1) << 16) | value.charAt(i + 2);
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int last() {
+            return values[size - 1];
+        }
+    }
+}
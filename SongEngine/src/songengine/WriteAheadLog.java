@@ -0,0 +1,273 @@
+package songengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Registro de cambios de solo agregado: cada alta, modificación o baja se
+ * escribe al final antes de publicarse y se reaplica sobre el catálogo base al
+ * arrancar. Cada registro es: int largo, int CRC32 y el cambio codificado
+ * (little-endian); un final cortado o corrupto, como el que deja una caída a
+ * mitad de escritura, se descarta al abrir.
+ *
+ * El fsync se hace por tandas (group commit): quien llama a {@link #sync}
+ * espera a que su registro esté en disco, pero si otro hilo ya está forzando,
+ * espera a que termine y un solo fsync cubre todo lo que se escribió mientras
+ * tanto. Si un fsync falla el registro deja de aceptar cambios, porque ya no se
+ * sabe qué quedó en disco.
+ *
+ * Para que no crezca con la historia, el registro se reescribe con el efecto
+ * neto de los cambios: {@link #writeCheckpoint} arma el archivo nuevo aparte y
+ * {@link #installCheckpoint} le agrega lo escrito desde entonces y lo cambia
+ * por el actual con un move atómico. Si algo falla antes del move, el registro
+ * queda como estaba.
+ */
+public class WriteAheadLog implements AutoCloseable {
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    private final Path file;
+    private FileChannel channel;         // se cambia solo con los dos candados tomados
+    // Candados y no synchronized: un hilo virtual que espera el fsync de otro
+    // suelta su hilo de plataforma en vez de quedar clavado a él
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private long end;                    // bytes escritos; protegido por appendLock
+    private volatile long synced;        // bytes que ya están en disco
+    private volatile IOException failure;
+
+    private WriteAheadLog(Path file, FileChannel channel, long end) {
+        this.file = file;
+        this.channel = channel;
+        this.end = end;
+        this.synced = end;
+    }
+
+    /** Abre (o crea) el registro y descarta un final incompleto si lo hay. */
+    public static WriteAheadLog open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long valid = scan(channel, null);
+            if (valid < channel.size()) {
+                System.out.println("[WriteAheadLog]: Se descartan " + (channel.size() - valid)
+                        + " bytes incompletos al final de " + file);
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            return new WriteAheadLog(file, channel, valid);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /** Si todavía no guarda ningún cambio. */
+    boolean isEmpty() {
+        appendLock.lock();
+        try {
+            return end == 0;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** Entrega en orden cada cambio guardado y devuelve la posición donde terminan. */
+    long replay(Consumer<Mutation> apply) throws IOException {
+        appendLock.lock();
+        try {
+            return scan(channel, apply);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Escribe el cambio al final, sin forzarlo a disco, y devuelve la posición
+     * que hay que pasarle a {@link #sync} para esperarlo.
+     */
+    long append(Mutation mutation) throws IOException {
+        ByteBuffer record = record(mutation);
+        appendLock.lock();
+        try {
+            checkUsable();
+            long position = end;
+            try {
+                while (record.hasRemaining()) position += channel.write(record, position);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            end = position;
+            return end;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** Vuelve cuando todo lo escrito hasta "position" está en disco. */
+    void sync(long position) throws IOException {
+        if (synced >= position) return;
+        syncLock.lock();
+        try {
+            // mientras se esperaba, otro hilo pudo haber forzado este tramo junto con el suyo
+            if (synced >= position) return;
+            checkUsable();
+            long target;
+            appendLock.lock();
+            try {
+                target = end;
+            } finally {
+                appendLock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            synced = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Escribe los cambios en un archivo nuevo junto al registro, en disco, sin
+     * tocar el registro actual; se instala con {@link #installCheckpoint}.
+     */
+    Path writeCheckpoint(Iterator<Mutation> changes) throws IOException {
+        Path checkpoint = file.resolveSibling(file.getFileName() + ".checkpoint");
+        try (FileChannel out = FileChannel.open(checkpoint, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            while (changes.hasNext()) {
+                ByteBuffer record = record(changes.next());
+                if (record.remaining() > buffer.remaining()) {
+                    writeFully(out, buffer.flip());
+                    buffer.clear();
+                }
+                if (record.remaining() > buffer.remaining()) writeFully(out, record);
+                else buffer.put(record);
+            }
+            writeFully(out, buffer.flip());
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(checkpoint);
+            throw e;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Reemplaza los registros hasta "position" por los del checkpoint: le copia
+     * los que se escribieron después, lo fuerza y lo pone en lugar del registro.
+     * Quien llama no deja escribir cambios mientras tanto. Devuelve el largo del
+     * registro nuevo; las posiciones anteriores ya están en disco.
+     */
+    long installCheckpoint(Path checkpoint, long position) throws IOException {
+        syncLock.lock();
+        appendLock.lock();
+        try {
+            checkUsable();
+            try (FileChannel out = FileChannel.open(checkpoint, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                for (long at = position; at < end; ) at += channel.transferTo(at, end - at, out);
+                out.force(true);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(checkpoint);
+                throw e;
+            }
+            try {
+                Files.move(checkpoint, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(checkpoint);
+                throw e;
+            }
+            try {
+                channel.close();
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                end = channel.size();
+                synced = end;
+                return end;
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        } finally {
+            appendLock.unlock();
+            syncLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) throw new IOException("El registro de cambios " + file + " falló y no acepta más cambios", failure);
+    }
+
+    // Largo, CRC32 y el cambio codificado
+    private static ByteBuffer record(Mutation mutation) {
+        byte[] payload = mutation.encode();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+        return record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) out.write(buffer);
+    }
+
+    // Recorre los registros válidos (entregándolos si apply no es null) y devuelve dónde terminan
+    private static long scan(FileChannel channel, Consumer<Mutation> apply) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length < 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + HEADER_BYTES);
+            crc.reset();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != header.getInt(4)) break;
+            Mutation mutation;
+            try {
+                mutation = Mutation.decode(payload.array());
+            } catch (IOException e) {
+                break;
+            }
+            if (apply != null) apply.accept(mutation);
+            position += HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Fin inesperado del registro de cambios");
+            position += read;
+        }
+    }
+}
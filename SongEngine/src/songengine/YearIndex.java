@@ -0,0 +1,93 @@
+package songengine;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Ordinales de las canciones ordenados por año (y por ordinal dentro de cada
+ * año) en un solo buffer, en el heap o en una {@link OffHeapArena}. Las
+ * canciones de un rango de años forman un tramo contiguo que se ubica con dos
+ * búsquedas binarias sobre los años distintos, así contar o paginar una
+ * década no recorre nada fuera del resultado.
+ */
+public class YearIndex {
+    private final int[] years;      // años distintos, ordenados
+    private final int[] yearStart;  // inicio de cada año en ords (years + 1 posiciones)
+    private final IntBuffer ords;   // ordinales ordenados por año
+
+    private YearIndex(int[] years, int[] yearStart, IntBuffer ords) {
+        this.years = years;
+        this.yearStart = yearStart;
+        this.ords = ords;
+    }
+
+    /** Ordenamiento por conteo sobre los años distintos: dos pasadas por la columna. */
+    public static YearIndex build(SongTable table) {
+        int size = table.size();
+        int[] column = new int[size];
+        for (int ord = 0; ord < size; ord++) column[ord] = table.year(ord);
+
+        int[] years = column.clone();
+        Arrays.sort(years);
+        int distinct = 0;
+        for (int i = 0; i < years.length; i++) {
+            if (distinct == 0 || years[distinct - 1] != years[i]) years[distinct++] = years[i];
+        }
+        years = Arrays.copyOf(years, distinct);
+
+        int[] yearStart = new int[distinct + 1];
+        for (int year : column) yearStart[Arrays.binarySearch(years, year) + 1]++;
+        for (int i = 0; i < distinct; i++) yearStart[i + 1] += yearStart[i];
+
+        // los ordinales se reparten en orden creciente, así cada año queda ordenado
+        int[] next = Arrays.copyOf(yearStart, distinct);
+        int[] ords = new int[size];
+        for (int ord = 0; ord < size; ord++) ords[next[Arrays.binarySearch(years, column[ord])]++] = ord;
+        return new YearIndex(years, yearStart, IntBuffer.wrap(ords));
+    }
+
+    /** El mismo índice con los ordinales en la arena, fuera del heap. */
+    YearIndex offHeap(OffHeapArena arena) {
+        return new YearIndex(years, yearStart, arena.copy(ords));
+    }
+
+    /** Primera posición de ords cuyo año no es menor que "year". */
+    public int lowerBound(int year) {
+        int slot = Arrays.binarySearch(years, year);
+        return yearStart[slot >= 0 ? slot : -slot - 1];
+    }
+
+    /** Primera posición de ords cuyo año es mayor que "year". */
+    public int upperBound(int year) {
+        int slot = Arrays.binarySearch(years, year);
+        return yearStart[slot >= 0 ? slot + 1 : -slot - 1];
+    }
+
+    /** Canciones entre los años from y to (inclusive). */
+    public int count(int from, int to) {
+        return from > to ? 0 : upperBound(to) - lowerBound(from);
+    }
+
+    /**
+     * Hasta "limit" ordinales del rango de años, saltando los primeros "skip",
+     * en orden cronológico y, dentro de cada año, en orden de catálogo.
+     */
+    public int[] between(int from, int to, int skip, int limit) {
+        if (from > to) return new int[0];
+        int start = lowerBound(from);
+        int end = upperBound(to);
+        int begin = (int) Math.min(end, (long) start + skip);
+        int[] page = new int[(int) Math.min(end, (long) begin + limit) - begin];
+        ords.get(begin, page);
+        return page;
+    }
+
+    public int[] between(int from, int to) {
+        return between(from, to, 0, Integer.MAX_VALUE);
+    }
+
+    /** Bytes aproximados que ocupa el índice. */
+    public long sizeInBytes() {
+        return (years.length + yearStart.length + ords.limit()) * 4L;
+    }
+}
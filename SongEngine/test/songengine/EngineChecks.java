@@ -0,0 +1,218 @@
+package songengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verificaciones del motor que se corren sin dependencias (ver README):
+ * la recuperación del registro de cambios con un final cortado o corrupto,
+ * la reaplicación del registro después de que una compactación lo reescribe,
+ * y las simplificaciones de {@link QueryNode#optimize()}. Termina con código 1
+ * si alguna falla.
+ */
+public class EngineChecks {
+    private record Song(String title, String author, String genre, String language, int year) {
+    }
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        walDropsTornTail();
+        walDropsCorruptRecord();
+        replayAfterCheckpoint();
+        reloadDoesNotDuplicateRestoredSongs();
+        optimizerRewrites();
+        System.out.println(failures == 0 ? "OK" : failures + " verificaciones fallaron");
+        if (failures > 0) System.exit(1);
+    }
+
+    // Un registro a medio escribir al final (una caída durante append) se descarta al abrir
+    private static void walDropsTornTail() throws IOException {
+        Path file = Files.createTempFile("checks", ".wal");
+        try {
+            long valid;
+            try (WriteAheadLog log = WriteAheadLog.open(file)) {
+                log.append(Mutation.add(row("Uno", "A")));
+                valid = log.append(Mutation.delete("Uno", "A"));
+                log.sync(valid);
+            }
+            byte[] record = Files.readAllBytes(file);
+            appendBytes(file, ByteBuffer.wrap(record, 0, record.length / 3));   // el comienzo de otro registro
+
+            try (WriteAheadLog log = WriteAheadLog.open(file)) {
+                check(Files.size(file) == valid, "el final cortado se trunca");
+                check(kinds(log).equals(List.of(Mutation.Kind.ADD, Mutation.Kind.DELETE)), "quedan los dos registros completos");
+                log.sync(log.append(Mutation.add(row("Dos", "B"))));
+            }
+            try (WriteAheadLog log = WriteAheadLog.open(file)) {
+                check(kinds(log).size() == 3, "se escribe después del final recuperado");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Un registro con el CRC que no coincide corta la reaplicación ahí, con todo lo que sigue
+    private static void walDropsCorruptRecord() throws IOException {
+        Path file = Files.createTempFile("checks", ".wal");
+        try {
+            long first;
+            long second;
+            try (WriteAheadLog log = WriteAheadLog.open(file)) {
+                first = log.append(Mutation.add(row("Uno", "A")));
+                second = log.append(Mutation.add(row("Dos", "B")));
+                log.sync(log.append(Mutation.add(row("Tres", "C"))));
+            }
+            // el último byte del segundo cambio (el año): se sigue decodificando, solo el CRC lo delata
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, second - 1);
+                channel.write(ByteBuffer.wrap(new byte[]{(byte) (last.get(0) ^ 1)}), second - 1);
+            }
+            try (WriteAheadLog log = WriteAheadLog.open(file)) {
+                check(Files.size(file) == first, "el registro corrupto y los siguientes se descartan");
+                check(kinds(log).equals(List.of(Mutation.Kind.ADD)), "queda solo el primer cambio");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // La compactación reescribe el registro con el efecto neto; reaplicarlo da el mismo catálogo, en el mismo orden
+    private static void replayAfterCheckpoint() throws Exception {
+        Path file = Files.createTempFile("checks", ".wal");
+        try {
+            SongCatalog base = catalog(200, false);
+            List<Song> expected;
+            try (WriteAheadLog log = WriteAheadLog.open(file)) {
+                SongRepository<Song> repository = new SongRepository<>(base, Song::new, log);
+                // 100 bajas, 500 altas y 300 modificaciones (baja más alta cada una) suman 1200 cambios;
+                // las altas que siguen llegan justo al umbral, así que todo queda antes de la reescritura
+                for (int i = 0; i < 100; i++) repository.delete("Tema " + i, "Autor " + i % 7);
+                for (int i = 0; i < 500; i++) repository.add("Nuevo " + i, "Autor " + i % 5, "Jazz", "French", 2000);
+                for (int i = 0; i < 300; i++) {
+                    repository.update("Nuevo " + i, "Autor " + i % 5, "Nuevo " + i, "Autor " + i % 5, "Rock", "Spanish", 1999);
+                }
+                for (int i = 500; i < 500 + CatalogVersion.COMPACT_ROWS - 1200; i++) {
+                    repository.add("Nuevo " + i, "Autor " + i % 5, "Jazz", "French", 2000);
+                }
+                awaitCompaction(repository, base.size());
+                // cambios después de la reescritura: van detrás de las filas RESTORE
+                for (int i = 100; i < 120; i++) repository.delete("Tema " + i, "Autor " + i % 7);
+                repository.add("Último", "Autor 1", "Pop", "English", 2024);
+                expected = repository.getAllSongs();
+            }
+            int[] counts = new int[Mutation.Kind.values().length];
+            try (WriteAheadLog log = WriteAheadLog.open(file)) {
+                log.replay(mutation -> counts[mutation.kind().ordinal()]++);
+            }
+            int added = CatalogVersion.COMPACT_ROWS - 1200 + 500;
+            check(counts[Mutation.Kind.RESTORE.ordinal()] == added, "el registro guarda las agregadas vivas como RESTORE");
+            check(counts[Mutation.Kind.UPDATE.ordinal()] == 0, "las modificaciones ya no están en el registro");
+            // las 100 originales borradas quedan como bajas; detrás, las 20 bajas y el alta posteriores
+            check(counts[Mutation.Kind.DELETE.ordinal()] == 120 && counts[Mutation.Kind.ADD.ordinal()] == 1,
+                    "el registro reescrito guarda solo el efecto neto y los cambios posteriores");
+
+            try (WriteAheadLog log = WriteAheadLog.open(file)) {
+                SongRepository<Song> restarted = new SongRepository<>(base, Song::new, log);
+                check(restarted.getAllSongs().equals(expected), "reaplicar el registro reescrito da el mismo catálogo");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Sobre un archivo recargado que ya trae una canción agregada, la fila RESTORE no la duplica
+    private static void reloadDoesNotDuplicateRestoredSongs() throws Exception {
+        Path file = Files.createTempFile("checks", ".wal");
+        try (WriteAheadLog log = WriteAheadLog.open(file)) {
+            SongCatalog base = catalog(100, false);
+            SongRepository<Song> repository = new SongRepository<>(base, Song::new, log);
+            for (int i = 0; i < 4200; i++) repository.add("Nuevo " + i, "Autor", "Jazz", "French", 2000);
+            awaitCompaction(repository, base.size());
+            repository.replace(catalog(100, true));
+            long copies = repository.searchByTitle("Nuevo 5").stream().filter(song -> song.title().equals("Nuevo 5")).count();
+            check(copies == 1, "la canción que ya trae el archivo no se duplica");
+            check(repository.size() == 4300, "las demás agregadas se reaplican");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void optimizerRewrites() {
+        Map<String, String> rewrites = Map.ofEntries(
+                Map.entry("title:love AND NOT title:love", "FALSE"),
+                Map.entry("genre:rock AND (title:love AND NOT genre:rock)", "FALSE"),
+                Map.entry("title:love OR NOT title:love", "TRUE"),
+                Map.entry("year:1970-1979 OR year:1980-1989", "year:1970-1989"),
+                Map.entry("year:1970-1979 OR year:1975-1985", "year:1970-1985"),
+                Map.entry("year:1970-1975 OR year:1980-1985", "(year:1970-1975 OR year:1980-1985)"),
+                Map.entry("year>=1970 AND year<=1979", "year:1970-1979"),
+                Map.entry("year>=1990 AND year<1980", "FALSE"),
+                Map.entry("year>=1990 OR year<1990", "TRUE"),
+                Map.entry("year>2147483647", "FALSE"),
+                Map.entry("year<-2147483648", "FALSE"),
+                Map.entry("title:love AND title:lo", "title:\"love\""),
+                Map.entry("title:love OR title:lo", "title:\"lo\""));
+        for (Map.Entry<String, String> rewrite : rewrites.entrySet()) {
+            String plan = SongQuery.parse(rewrite.getKey()).toString();
+            check(plan.equals(rewrite.getValue()), rewrite.getKey() + " se simplifica a " + rewrite.getValue() + " (dio " + plan + ")");
+        }
+
+        // la consulta simplificada encuentra lo mismo que recorrer las canciones
+        SongCatalog catalog = catalog(300, false);
+        SongQuery query = SongQuery.parse("(year:1990-1994 OR year:1993-1999) AND NOT genre:rock");
+        List<Integer> expected = new ArrayList<>();
+        for (int ord = 0; ord < catalog.size(); ord++) {
+            int year = catalog.table().year(ord);
+            if (year >= 1990 && year <= 1999 && !catalog.table().genre(ord).equals("Rock")) expected.add(ord);
+        }
+        List<Integer> found = new ArrayList<>();
+        for (int ord : query.rows(catalog)) found.add(ord);
+        check(found.equals(expected), "los rangos unidos dan las mismas filas que recorrer el catálogo");
+    }
+
+    private static SongCatalog catalog(int size, boolean withNew) {
+        SongTable.Builder builder = new SongTable.Builder();
+        for (int i = 0; i < size; i++) {
+            builder.add("Tema " + i, "Autor " + i % 7, i % 3 == 0 ? "Rock" : "Pop", "Spanish", 1980 + i % 30);
+        }
+        if (withNew) builder.add("Nuevo 5", "Autor", "Jazz", "French", 2000);
+        return SongCatalog.build(builder.build());
+    }
+
+    // La compactación corre en otro hilo; termina cuando la base publicada cambia
+    private static void awaitCompaction(SongRepository<?> repository, int baseSize) throws InterruptedException {
+        for (int i = 0; i < 300 && repository.snapshot().base().size() == baseSize; i++) Thread.sleep(100);
+        check(repository.snapshot().base().size() != baseSize, "la compactación termina");
+    }
+
+    private static CatalogVersion.Row row(String title, String author) {
+        return new CatalogVersion.Row(title, author, "Pop", "Spanish", 2000);
+    }
+
+    private static List<Mutation.Kind> kinds(WriteAheadLog log) throws IOException {
+        List<Mutation.Kind> kinds = new ArrayList<>();
+        log.replay(mutation -> kinds.add(mutation.kind()));
+        return kinds;
+    }
+
+    private static void appendBytes(Path file, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (bytes.hasRemaining()) channel.write(bytes);
+        }
+    }
+
+    private static void check(boolean condition, String description) {
+        if (condition) return;
+        failures++;
+        System.out.println("FALLA: " + description);
+    }
+}